@@ -0,0 +1,174 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares {@link DBHandler#updateItems(AmazonItem[])} with the previous update, which wrote every
+ * column of every row with a separate autocommitted statement, on a table of
+ * {@value #ROWS} items of which only a few have changed price. The tables must end up the same;
+ * the times are printed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DBHandlerBenchmarkTest {
+
+    private static final int ROWS = 10000;
+    /** One item in this many has a new price. */
+    private static final int CHANGED_EVERY = 100;
+
+    private Context mContext;
+    private DBHandler mDbHandler;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DBHandler.DB_NAME);
+        mDbHandler = new DBHandler(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        mDbHandler.close();
+        mContext.deleteDatabase(DBHandler.DB_NAME);
+    }
+
+    private static String url(int i) {
+        return String.format("https://www.amazon.it/dp/B%09d", i);
+    }
+
+    /**
+     * Fills the table with {@value #ROWS} items.
+     */
+    private void fillTable() {
+
+        SQLiteDatabase db = mDbHandler.getWritableDatabase();
+        db.delete(DBEntry.TABLE, null, null);
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + DBEntry.TABLE + " (" +
+                DBEntry.TITLE + ", " + DBEntry.CURRENT_PRICE + ", " + DBEntry.CURRENCY + ", " +
+                DBEntry.URL + ", " + DBEntry.PRODUCT_KEY + ") VALUES (?, ?, ?, ?, ?)");
+
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < ROWS; i++) {
+                insert.bindString(1, "title" + i);
+                insert.bindLong(2, 1000 + i);
+                insert.bindString(3, "EUR");
+                insert.bindString(4, url(i));
+                insert.bindString(5, ProductKey.of(url(i)));
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+
+    }
+
+    /**
+     * The items as a refresh returns them: every item, with a new price for a few of them.
+     */
+    private AmazonItem[] refresh() {
+
+        List<AmazonItem> items = mDbHandler.getItems();
+        AmazonItem[] updated = new AmazonItem[items.size()];
+        for (int i = 0; i < updated.length; i++) {
+            AmazonItem item = items.get(i);
+            // Chosen by their data, since the order of the items is not defined:
+            long price = (item.currentPrice % CHANGED_EVERY == 0)
+                    ? item.currentPrice - 1 : item.currentPrice;
+            updated[i] = new AmazonItem(item.title, price, item.previousPrice, item.currency,
+                    item.url);
+        }
+        return updated;
+
+    }
+
+    /**
+     * The previous update of the items.
+     */
+    private void legacyUpdateItems(AmazonItem[] items) {
+
+        SQLiteDatabase sqLiteDatabase = mDbHandler.getWritableDatabase();
+
+        for (AmazonItem item : items) {
+
+            ContentValues contentValues = new ContentValues();
+            contentValues.put(DBEntry.TITLE, item.title);
+            contentValues.put(DBEntry.CURRENT_PRICE, item.currentPrice);
+            if (item.previousPrice == AmazonItem.NO_PRICE) {
+                contentValues.putNull(DBEntry.PREVIOUS_PRICE);
+            } else {
+                contentValues.put(DBEntry.PREVIOUS_PRICE, item.previousPrice);
+            }
+            contentValues.put(DBEntry.CURRENCY, item.currency);
+            contentValues.put(DBEntry.URL, item.url);
+            contentValues.put(DBEntry.FAILURES, 0);
+            contentValues.putNull(DBEntry.LAST_FAILURE_STATUS);
+
+            sqLiteDatabase.update(
+                    DBEntry.TABLE,
+                    contentValues,
+                    DBEntry.PRODUCT_KEY + "=?",
+                    new String[]{ProductKey.of(item.url)}
+            );
+
+        }
+
+        sqLiteDatabase.close();
+
+    }
+
+    private static void assertSameItems(List<AmazonItem> expected, List<AmazonItem> actual) {
+        assertEquals(expected.size(), actual.size());
+        Map<String, AmazonItem> items = new HashMap<>();
+        for (AmazonItem item : actual) {
+            items.put(item.url, item);
+        }
+        for (AmazonItem item : expected) {
+            AmazonItem other = items.get(item.url);
+            assertNotNull(item.url, other);
+            assertEquals(item.title, other.title);
+            assertEquals(item.currentPrice, other.currentPrice);
+            assertEquals(item.previousPrice, other.previousPrice);
+            assertEquals(item.currency, other.currency);
+        }
+    }
+
+    @Test
+    public void benchmark() {
+
+        fillTable();
+        AmazonItem[] items = refresh();
+        long start = System.nanoTime();
+        legacyUpdateItems(items);
+        long legacyTime = System.nanoTime() - start;
+        List<AmazonItem> expected = mDbHandler.getItems();
+
+        fillTable();
+        items = refresh();
+        start = System.nanoTime();
+        int changed = mDbHandler.updateItems(items);
+        long batchTime = System.nanoTime() - start;
+
+        assertEquals(ROWS / CHANGED_EVERY, changed);
+        assertSameItems(expected, mDbHandler.getItems());
+        System.out.printf("Autocommitted updates: %.1f ms for %d rows\n", legacyTime / 1e6, ROWS);
+        System.out.printf("Batched update: %.1f ms for %d rows\n", batchTime / 1e6, ROWS);
+
+    }
+
+}
@@ -1,11 +1,15 @@
 package com.nautilusapps.amazondealsnotifier;
 
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import java.util.Collections;
 import java.util.List;
 
 import static org.junit.Assert.*;
@@ -31,15 +35,18 @@ public class DBHandlerTest {
 
         AmazonItem item1 = new AmazonItem(
                 "title1",
-                42.0f,
+                4200,
+                "EUR",
                 "https://example.com/item1");
         AmazonItem item2 = new AmazonItem(
                 "title2",
-                43.0f,
+                4300,
+                "EUR",
                 "https://example.com/item2");
         AmazonItem item3 = new AmazonItem(
                 "title3",
-                44.0f,
+                4400,
+                "EUR",
                 "https://example.com/item3");
 
         mDbHandler.addItem(item1);
@@ -64,7 +71,8 @@ public class DBHandlerTest {
 
         AmazonItem example = new AmazonItem(
                 "title",
-                42.0f,
+                4200,
+                "EUR",
                 "https://example.com/item");
         mDbHandler.addItem(example);
 
@@ -72,7 +80,9 @@ public class DBHandlerTest {
 
         assertTrue(items.size() == 1);
         assertTrue(items.get(0).title.equals(example.title));
-        assertTrue(items.get(0).currentPrice.equals(example.currentPrice));
+        assertEquals(example.currentPrice, items.get(0).currentPrice);
+        assertEquals(AmazonItem.NO_PRICE, items.get(0).previousPrice);
+        assertEquals(example.currency, items.get(0).currency);
         assertTrue(items.get(0).url.equals(example.url));
 
     }
@@ -82,11 +92,13 @@ public class DBHandlerTest {
 
         AmazonItem item1 = new AmazonItem(
                 "title",
-                42.0f,
+                4200,
+                "EUR",
                 "https://example.com/item1");
         AmazonItem item2 = new AmazonItem(
                 "title",
-                42.0f,
+                4200,
+                "EUR",
                 "https://example.com/item2");
 
         mDbHandler.addItem(item1);
@@ -96,12 +108,42 @@ public class DBHandlerTest {
 
     }
 
+    @Test
+    public void identifyItemsByProduct() {
+
+        AmazonItem item = new AmazonItem(
+                "title",
+                4200,
+                "EUR",
+                "https://www.amazon.it/dp/B07D95FNRK");
+        AmazonItem sameProduct = new AmazonItem(
+                "title",
+                4200,
+                "EUR",
+                "https://www.amazon.it/Puro-Lino/dp/B07D95FNRK/ref=sr_1_3?pf_rd_p=1234");
+
+        assertTrue(mDbHandler.addItem(item) != -1);
+        assertTrue(mDbHandler.hasItem(sameProduct));
+        assertEquals(-1, mDbHandler.addItem(sameProduct));
+
+        sameProduct.currentPrice = 3900;
+        mDbHandler.updateItems(new AmazonItem[]{ sameProduct });
+        List<AmazonItem> items = mDbHandler.getItems();
+        assertEquals(1, items.size());
+        assertEquals(3900, items.get(0).currentPrice);
+
+        mDbHandler.removeItem(sameProduct);
+        assertFalse(mDbHandler.hasItem(item));
+
+    }
+
     @Test
     public void removeItem() {
 
         AmazonItem item = new AmazonItem(
                 "title",
-                42.0f,
+                4200,
+                "EUR",
                 "https://example.com/item");
         mDbHandler.addItem(item);
 
@@ -118,15 +160,18 @@ public class DBHandlerTest {
 
         AmazonItem item1 = new AmazonItem(
                 "title1",
-                42.0f,
+                4200,
+                "EUR",
                 "https://example.com/item1");
         AmazonItem item2 = new AmazonItem(
                 "title2",
-                42.0f,
+                4200,
+                "EUR",
                 "https://example.com/item2");
         AmazonItem item3 = new AmazonItem(
                 "title3",
-                42.0f,
+                4200,
+                "EUR",
                 "https://example.com/item3");
 
         mDbHandler.addItem(item1);
@@ -136,21 +181,22 @@ public class DBHandlerTest {
         assertTrue(mDbHandler.hasItem(item2));
         assertTrue(mDbHandler.hasItem(item3));
 
-        item1.currentPrice = 12.0f;
-        item2.currentPrice = 23.0f;
-        item2.previousPrice = 11.0f;
-        AmazonItem[] updatedItems = { item1, item2 };
-        mDbHandler.updateItems(updatedItems);
+        item1.currentPrice = 1200;
+        item2.currentPrice = 2300;
+        item2.previousPrice = 1100;
+        AmazonItem[] updatedItems = { item1, item2, item3 };
+        // The third item is unchanged, so its row is not written:
+        assertEquals(2, mDbHandler.updateItems(updatedItems));
 
         List<AmazonItem> items = mDbHandler.getItems();
         for (AmazonItem item : items) {
             if (item.title.equals("title1")) {
-                assertTrue(item.currentPrice.equals(12.0f));
+                assertEquals(1200, item.currentPrice);
             } else if (item.title.equals("title2")) {
-                assertTrue(item.currentPrice.equals(23.0f));
-                assertTrue(item.previousPrice != null);
+                assertEquals(2300, item.currentPrice);
+                assertEquals(1100, item.previousPrice);
             } else if (item.title.equals("title3")) {
-                assertTrue(item.currentPrice.equals(42.0f));
+                assertEquals(4200, item.currentPrice);
             } else {
                 assertFalse(true);
             }
@@ -163,11 +209,13 @@ public class DBHandlerTest {
 
         AmazonItem item1 = new AmazonItem(
                 "title1",
-                42.0f,
+                4200,
+                "EUR",
                 "https://example.com/item1");
         AmazonItem item2 = new AmazonItem(
                 "title2",
-                42.0f,
+                4200,
+                "EUR",
                 "https://example.com/item2");
         mDbHandler.addItem(item1);
         mDbHandler.addItem(item2);
@@ -183,4 +231,111 @@ public class DBHandlerTest {
 
     }
 
-}
\ No newline at end of file
+    @Test
+    public void setItemsFailed() {
+
+        AmazonItem item1 = new AmazonItem(
+                "title1",
+                4200,
+                "EUR",
+                "https://example.com/item1");
+        AmazonItem item2 = new AmazonItem(
+                "title2",
+                4200,
+                "EUR",
+                "https://example.com/item2");
+        mDbHandler.addItem(item1);
+        mDbHandler.addItem(item2);
+
+        // The first item is updated, the second one fails twice:
+        LookUpResult failure = new LookUpResult(item2.url);
+        failure.statusCode = 503;
+        mDbHandler.updateItems(new AmazonItem[]{ item1.updateItem(1200, "EUR"), null });
+        mDbHandler.setItemsFailed(Collections.singletonList(failure));
+        mDbHandler.setItemsFailed(Collections.singletonList(failure));
+
+        Cursor cursor = mDbHandler.getReadableDatabase().rawQuery(
+                "SELECT " + DBEntry.CURRENT_PRICE + ", " + DBEntry.FAILURES + ", " +
+                        DBEntry.LAST_FAILURE_STATUS + " FROM " + DBEntry.TABLE +
+                        " ORDER BY " + DBEntry.TITLE, null);
+        try {
+            assertTrue(cursor.moveToNext());
+            assertEquals(1200, cursor.getLong(0));
+            assertEquals(0, cursor.getInt(1));
+            assertTrue(cursor.isNull(2));
+            assertTrue(cursor.moveToNext());
+            assertEquals(4200, cursor.getLong(0));
+            assertEquals(2, cursor.getInt(1));
+            assertEquals(503, cursor.getInt(2));
+        } finally {
+            cursor.close();
+        }
+
+    }
+
+    @Test
+    public void shareOneConnection() {
+
+        Context context = InstrumentationRegistry.getTargetContext();
+        DBHandler dbHandler = DBHandler.getInstance(context);
+        assertSame(dbHandler, DBHandler.getInstance(context.getApplicationContext()));
+
+        // The connection stays open across the operations:
+        SQLiteDatabase db = dbHandler.getWritableDatabase();
+        assertTrue(db.isWriteAheadLoggingEnabled());
+        AmazonItem item = new AmazonItem(
+                "title",
+                4200,
+                "EUR",
+                "https://example.com/item");
+        dbHandler.addItem(item);
+        assertTrue(dbHandler.hasItem(item));
+        dbHandler.removeItem(item);
+        assertTrue(db.isOpen());
+        assertSame(db, dbHandler.getReadableDatabase());
+
+    }
+
+    @Test
+    public void upgradeKeepsItems() {
+
+        Context context = InstrumentationRegistry.getTargetContext();
+        mDbHandler.close();
+        context.deleteDatabase(DBHandler.DB_NAME);
+
+        // Create the database as the first version did:
+        SQLiteDatabase db = context.openOrCreateDatabase(DBHandler.DB_NAME,
+                Context.MODE_PRIVATE, null);
+        db.execSQL("CREATE TABLE item (_id INTEGER PRIMARY KEY, title TEXT, " +
+                "current_price REAL, previous_price REAL, url TEXT)");
+        db.execSQL("INSERT INTO item (title, current_price, previous_price, url) " +
+                "VALUES ('title', 42.1, 50.0, 'https://www.amazon.it/dp/B07D95FNRK')");
+        db.execSQL("INSERT INTO item (title, current_price, previous_price, url) " +
+                "VALUES ('title jp', 1234.0, NULL, 'https://www.amazon.co.jp/dp/B07D95FNRK')");
+        // The same product as the first item, added later, which is the one kept:
+        db.execSQL("INSERT INTO item (title, current_price, previous_price, url) " +
+                "VALUES ('duplicate', 40.0, 42.1, " +
+                "'https://www.amazon.it/Puro-Lino/dp/B07D95FNRK/ref=sr_1_3')");
+        db.setVersion(1);
+        db.close();
+
+        mDbHandler = new DBHandler(context);
+        List<AmazonItem> items = mDbHandler.getItems();
+
+        // The prices are converted to the minor unit of the currency of the marketplace:
+        assertEquals(2, items.size());
+        for (AmazonItem item : items) {
+            if (item.title.equals("duplicate")) {
+                assertEquals(4000, item.currentPrice);
+                assertEquals(4210, item.previousPrice);
+                assertEquals("EUR", item.currency);
+            } else {
+                assertEquals(1234, item.currentPrice);
+                assertEquals(AmazonItem.NO_PRICE, item.previousPrice);
+                assertEquals("JPY", item.currency);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,222 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import java.util.Locale;
+
+/**
+ * Limits the number of requests in flight, adjusting the limit from the observed latency and
+ * errors: while the requests succeed and their latency is close to the best observed, the limit is
+ * increased by one every {@code limit} requests; when a request is throttled, fails or is much
+ * slower than usual, the limit is halved. The limit never exceeds the max set with
+ * {@link #setMaxLimit(int)}, which {@link LookUpEngine} sets above the configured concurrency,
+ * so that a fast connection can use more of it.<br>
+ * Only the requests actually being sent must be counted: a caller acquires a slot right before
+ * its request and releases it as soon as the response has been handled.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    /** Limit used before any request has completed. */
+    public static final int INITIAL_LIMIT = 4;
+    /** Factor applied to the limit when a request is dropped. */
+    private static final double DECREASE_FACTOR = 0.5;
+    /** Latency above which a request is a sign of congestion, relative to the best latency. */
+    private static final double LATENCY_TOLERANCE = 2.0;
+    /** Latency under which a request is never a sign of congestion, in millis. */
+    private static final long MIN_CONGESTED_LATENCY = 100;
+    /** Weight of the last request in the smoothed latency. */
+    private static final double LATENCY_SMOOTHING = 0.2;
+    /** Rate at which the best latency drifts towards the current latency. */
+    private static final double BASELINE_DRIFT = 0.01;
+    /** Number of completed requests used to measure the throughput. */
+    private static final int THROUGHPUT_WINDOW = 32;
+
+    private int mMaxLimit;
+    private double mLimit;
+    private int mInFlight;
+    /** Whether the requests in flight have reached the limit since it was last increased. */
+    private boolean mLimitReached;
+    /** Smoothed latency of the requests, in millis, or 0 if no request has completed. */
+    private double mLatency;
+    /** Best smoothed latency, in millis, which the latency is compared to. */
+    private double mBaselineLatency;
+    /** Time of the last decrease, in millis. A congestion decreases the limit only once. */
+    private long mLastDecreaseTime;
+    /** Completion times of the last requests, in millis, as a circular buffer. */
+    private final long[] mCompletionTimes = new long[THROUGHPUT_WINDOW];
+    private int mCompletions;
+
+    /**
+     * @param maxLimit  Max number of requests in flight.
+     */
+    public AdaptiveConcurrencyLimiter(int maxLimit) {
+        this.mMaxLimit = maxLimit;
+        this.mLimit = Math.min(INITIAL_LIMIT, maxLimit);
+        this.mInFlight = 0;
+        this.mLimitReached = false;
+        this.mLatency = 0;
+        this.mBaselineLatency = 0;
+        this.mLastDecreaseTime = 0;
+        this.mCompletions = 0;
+    }
+
+    /**
+     * Sets the max number of requests in flight. The current limit is lowered if greater.
+     * @param maxLimit  Max number of requests in flight, must be greater than 0.
+     */
+    public synchronized void setMaxLimit(int maxLimit) {
+
+        if (maxLimit <= 0) {
+            throw new IllegalArgumentException("maxLimit must be greater than 0");
+        }
+
+        this.mMaxLimit = maxLimit;
+        this.mLimit = Math.min(mLimit, maxLimit);
+        notifyAll();
+
+    }
+
+    /**
+     * Blocks until a request can be sent. Every successful call must be followed by a call to
+     * {@link #release(long)}, {@link #releaseDropped()} or {@link #releaseUnsent()}.
+     * @throws InterruptedException If the calling thread is interrupted while waiting.
+     */
+    public synchronized void acquire() throws InterruptedException {
+        while (mInFlight >= getLimit()) {
+            wait();
+        }
+        mInFlight++;
+        if (mInFlight >= getLimit()) {
+            mLimitReached = true;
+        }
+    }
+
+    /**
+     * Signals that a request acquired with {@link #acquire()} has succeeded.
+     * @param latency   Time taken by the server to answer, in millis.
+     */
+    public void release(long latency) {
+        release(latency, System.currentTimeMillis());
+    }
+
+    synchronized void release(long latency, long now) {
+
+        mInFlight--;
+        addCompletion(now);
+
+        if (mLatency == 0) {
+            mLatency = latency;
+            mBaselineLatency = latency;
+        } else {
+            mLatency += (latency - mLatency) * LATENCY_SMOOTHING;
+            if (mLatency < mBaselineLatency) {
+                mBaselineLatency = mLatency;
+            } else {
+                mBaselineLatency += (mLatency - mBaselineLatency) * BASELINE_DRIFT;
+            }
+        }
+
+        if (mLatency > Math.max(mBaselineLatency * LATENCY_TOLERANCE, MIN_CONGESTED_LATENCY)) {
+            // The server or the network is slowing down:
+            decrease(now);
+        } else if (mLimitReached) {
+            // Increase only if the limit is actually being used, about by one per window:
+            int limit = getLimit();
+            mLimit = Math.min(mMaxLimit, mLimit + 1 / mLimit);
+            if (getLimit() != limit) {
+                mLimitReached = false;
+            }
+        }
+
+        notifyAll();
+
+    }
+
+    /**
+     * Signals that a request acquired with {@link #acquire()} has been throttled or has failed.
+     */
+    public void releaseDropped() {
+        releaseDropped(System.currentTimeMillis());
+    }
+
+    synchronized void releaseDropped(long now) {
+        mInFlight--;
+        addCompletion(now);
+        decrease(now);
+        notifyAll();
+    }
+
+    /**
+     * Signals that a request acquired with {@link #acquire()} hasn't been sent, or has been
+     * abandoned before its response, for example because its look up has been cancelled. The
+     * limit is not affected.
+     */
+    public synchronized void releaseUnsent() {
+        mInFlight--;
+        notifyAll();
+    }
+
+    /**
+     * Halves the limit, unless it has already been halved for the same congestion, that is less
+     * than a latency ago.
+     */
+    private void decrease(long now) {
+        if (now - mLastDecreaseTime > mLatency) {
+            mLimit = Math.max(1, mLimit * DECREASE_FACTOR);
+            mLastDecreaseTime = now;
+        }
+    }
+
+    private void addCompletion(long now) {
+        mCompletionTimes[mCompletions % THROUGHPUT_WINDOW] = now;
+        mCompletions++;
+    }
+
+    /**
+     * Returns the max number of requests in flight which the limit can reach.
+     */
+    public synchronized int getMaxLimit() { return mMaxLimit; }
+
+    /**
+     * Returns the current max number of requests in flight.
+     */
+    public synchronized int getLimit() { return (int) mLimit; }
+
+    /**
+     * Returns the number of requests in flight.
+     */
+    public synchronized int getInFlight() { return mInFlight; }
+
+    /**
+     * Returns the smoothed latency of the requests, in millis, or 0 if no request has completed.
+     */
+    public synchronized long getLatency() { return Math.round(mLatency); }
+
+    /**
+     * Returns the number of requests completed per second, over the last requests.
+     */
+    public double getThroughput() {
+        return getThroughput(System.currentTimeMillis());
+    }
+
+    synchronized double getThroughput(long now) {
+
+        int count = Math.min(mCompletions, THROUGHPUT_WINDOW);
+        if (count == 0) {
+            return 0;
+        }
+
+        long oldest = mCompletionTimes[(mCompletions - count) % THROUGHPUT_WINDOW];
+        long elapsed = now - oldest;
+
+        return (elapsed > 0) ? count * 1000.0 / elapsed : 0;
+
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "limit=" + getLimit() +
+                ", inFlight=" + mInFlight +
+                ", latency=" + getLatency() + "ms" +
+                ", throughput=" + String.format(Locale.ENGLISH, "%.2f", getThroughput()) + "/s";
+    }
+
+}
@@ -215,7 +215,7 @@ public class AddItemActivity extends AppCompatActivity {
         if (!mTitleEditText.getText().toString().trim().matches(""))
             amazonItem.title = title;
 
-        DBHandler dbHandler = new DBHandler(getApplicationContext());
+        DBHandler dbHandler = DBHandler.getInstance(getApplicationContext());
         if (dbHandler.addItem(amazonItem) == -1L)
             return false;
 
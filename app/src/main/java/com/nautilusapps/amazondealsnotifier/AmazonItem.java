@@ -1,55 +1,97 @@
 package com.nautilusapps.amazondealsnotifier;
 
 /**
- * Represents an Amazon item.
+ * Represents an Amazon item. The prices are exact amounts in the minor unit of the currency of the
+ * item, such as cents, so they are compared as integers.
  */
 public class AmazonItem {
 
+    /** Value of a price which is not known. */
+    public static final long NO_PRICE = PriceParser.NO_AMOUNT;
+
     /** Title of the item. */
     public String title;
-    /** Current price of the item. */
-    public Float currentPrice;
-    /** Price of the item since the last update. */
-    public Float previousPrice;
+    /** Current price of the item, in minor units, or {@link #NO_PRICE}. */
+    public long currentPrice;
+    /** Price of the item since the last update, in minor units, or {@link #NO_PRICE}. */
+    public long previousPrice;
+    /** ISO 4217 code of the currency of the prices, or {@code null} if not known. */
+    public String currency;
     /** URL of the item. */
     public String url;
 
     /**
      * Instantiates an item.<br>
-     * {@link #previousPrice} is set to {@code null}.
+     * {@link #previousPrice} is set to {@link #NO_PRICE}.
      * @param title         Title of the item.
-     * @param currentPrice  Current price of the item.
+     * @param currentPrice  Current price of the item, in minor units.
+     * @param currency      Currency of the price.
      * @param url           URL of the item.
      */
-    public AmazonItem(String title, Float currentPrice, String url) {
+    public AmazonItem(String title, long currentPrice, String currency, String url) {
         this.title = title;
         this.currentPrice = currentPrice;
-        this.previousPrice = null;
+        this.previousPrice = NO_PRICE;
+        this.currency = currency;
         this.url = url;
     }
 
     /**
      * Instantiates a new item from its data.
      * @param title         Title of the item.
-     * @param currentPrice  Current price of the item.
-     * @param previousPrice Price of the item since the last update.
+     * @param currentPrice  Current price of the item, in minor units.
+     * @param previousPrice Price of the item since the last update, in minor units.
+     * @param currency      Currency of the prices.
      * @param url           URL of the item.
      */
-    public AmazonItem(String title, Float currentPrice, Float previousPrice, String url) {
+    public AmazonItem(String title, long currentPrice, long previousPrice, String currency,
+                      String url) {
         this.title = title;
         this.currentPrice = currentPrice;
         this.previousPrice = previousPrice;
+        this.currency = currency;
         this.url = url;
     }
 
     /**
-     * Returns a new instance of {@code AmazonItem} with the updated current price.
-     * @param newPrice  New price of the item.
+     * Returns a new instance of {@code AmazonItem} with the updated current price. The item itself
+     * is not modified. The previous price only moves when the price has changed, so that an item
+     * stays on sale until its price changes again. If the currency has changed, the previous price
+     * is dropped, since the two prices can't be compared.
+     * @param newPrice  New price of the item, in minor units.
+     * @param currency  Currency of the new price, or {@code null} to keep the current one.
+     */
+    public AmazonItem updateItem(long newPrice, String currency) {
+
+        if (currency == null || currency.equals(this.currency) || this.currency == null) {
+            if (newPrice == this.currentPrice) {
+                return new AmazonItem(this.title, this.currentPrice, this.previousPrice,
+                        (currency != null) ? currency : this.currency, this.url);
+            }
+            return new AmazonItem(this.title, newPrice, this.currentPrice,
+                    (currency != null) ? currency : this.currency, this.url);
+        }
+
+        return new AmazonItem(this.title, newPrice, NO_PRICE, currency, this.url);
+
+    }
+
+    /**
+     * Checks whether an item has the same prices and currency as this one, that is whether an
+     * update has left the item as it was.
+     */
+    public boolean hasSamePrices(AmazonItem other) {
+        return other != null && currentPrice == other.currentPrice &&
+                previousPrice == other.previousPrice &&
+                (currency == null ? other.currency == null : currency.equals(other.currency));
+    }
+
+    /**
+     * Checks whether the current price is lower than the previous one.
      */
-    public AmazonItem updateItem(Float newPrice) {
-        this.previousPrice = this.currentPrice;
-        this.currentPrice = newPrice;
-        return this;
+    public boolean isOnSale() {
+        return currentPrice != NO_PRICE && previousPrice != NO_PRICE &&
+                currentPrice < previousPrice;
     }
 
 }
@@ -1,14 +1,17 @@
 package com.nautilusapps.amazondealsnotifier;
 
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.select.Elements;
 import java.io.IOException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ExecutorService;
-import java.util.Random;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Provides methods to look up Amazon products.
@@ -16,180 +19,463 @@ import java.util.regex.Pattern;
 public class AmazonItemLookUp {
 
     /**
-     * Instantiates a {@link org.jsoup.nodes.Document} from an URL. In case of an
-     * {@code IOException}, the {@code Document} instance is set to {@code null}.
+     * Receives the result of an asynchronous look up.
+     * @see #getAmazonItemsAsync(OnLookUpCompleteListener)
+     * @see #updateAmazonItemsAsync(OnLookUpCompleteListener)
      */
-    private class GetDocumentThread extends Thread {
+    public interface OnLookUpCompleteListener {
 
-        public Document result;
-        private final String USER_AGENT = "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/42.0.2311.90 Safari/537.36";
-        private final String REFERRER = "https://www.google.com";
-        private String mUrl;
+        /**
+         * Called on the look up thread when every item has been looked up.
+         * @param amazonItems   The result of the look up, as returned by the synchronous method.
+         */
+        void onLookUpComplete(AmazonItem[] amazonItems);
 
-        public GetDocumentThread(String url) { this.mUrl = url; }
+    }
 
-        public void run() {
-            try {
-                this.result = Jsoup.connect(this.mUrl)
-                        .userAgent(this.USER_AGENT)
-                        .referrer(this.REFERRER)
-                        .get();
-            } catch (IOException e) {
-                this.result = null;
-            }
-        }
+    /**
+     * Receives the result of each item as soon as it has been looked up, before the whole look up
+     * is complete.
+     * @see #setOnItemLookedUpListener(OnItemLookedUpListener)
+     */
+    public interface OnItemLookedUpListener {
+
+        /**
+         * Called on a worker thread when an item has been looked up. It may be called by several
+         * threads at the same time.
+         * @param index     Position of the item in the array passed to the constructor.
+         * @param result    The data scraped for the item.
+         */
+        void onItemLookedUp(int index, LookUpResult result);
 
     }
 
     /**
-     * Scrapes the price of an Amazon product from an instance of {@link org.jsoup.nodes.Document}.
-     * If found, the result is a {@code Float} value, otherwise it's set to {@code null}.
-     * If the {@code Document} instance is {@code null}, the result is set to {@code null}.
+     * Downloads the page of a product with the {@link HttpTransport} of {@link LookUpEngine},
+     * scrapes its data with the {@link ItemExtractor} of {@link LookUpEngine} and delivers the
+     * result. The page is released as soon as the data has
+     * been scraped, so the pages don't have to be kept in memory until the whole look up is
+     * complete.<br>
+     * The task waits for its slot in the {@link RateLimiter} of {@link LookUpEngine} on the
+     * scheduler, without holding a worker, so the items of the other marketplaces can go ahead.
+     * Then it waits for the {@link AdaptiveConcurrencyLimiter} of {@link LookUpEngine} to let
+     * another request in flight.<br>
+     * If the look up fails and the {@link RetryPolicy} allows it, the task is scheduled again
+     * after a backoff delay, and only the last result is delivered. If the marketplace keeps
+     * refusing the requests, its {@link CircuitBreaker} makes the task fail without a request.<br>
+     * If another look up is already fetching the page of the same product, the task waits for its
+     * result instead of fetching the page again.
      */
-    private class GetPriceThread extends Thread {
+    private class LookUpTask implements Runnable, LookUpEngine.FlightListener {
 
-        public Float result;
-        // Jsoup CSS queries:
-        /** Selects the elements which contain the price on sale. */
-        private final String DEAL_PRICE_CSS_QUERY = "span[id*=dealprice],span[id=priceblock_saleprice].a-size-medium.a-color-price,td.a-color-price.a-size-medium.a-align-bottom";
-        /** Selects the elements which contain the current price. */
-        private final String PRICE_CSS_QUERY = "span[id*=ourprice],span[id*=saleprice],span.a-size-large.a-color-result.guild_priceblock_ourprice,span.a-size-medium.a-color-price.offer-price.a-text-normal";
-        private Document mDocument;
+        private final int mIndex;
+        private final boolean mScrapeTitle;
+        private final String mHost;
+        private final String mProductKey;
+        /**
+         * The fetch this task is in charge of, or {@code null} if it is waiting for the fetch of
+         * another look up.
+         */
+        private LookUpEngine.Flight mFlight;
+        /** Number of attempts made so far. */
+        private int mAttempts;
+        /** The pending execution of the task, either on the scheduler or on the workers. */
+        private Future<?> mFuture;
+        private boolean mCancelled;
 
-        public GetPriceThread(Document document) { this.mDocument = document; }
+        /**
+         * @param index         Position of the item to look up.
+         * @param scrapeTitle   Whether to scrape the title besides the price.
+         */
+        public LookUpTask(int index, boolean scrapeTitle) {
+            this.mIndex = index;
+            this.mScrapeTitle = scrapeTitle;
+            this.mHost = RateLimiter.getHost(mUrls[index]);
+            this.mProductKey = ProductKey.of(mUrls[index]);
+            this.mAttempts = 0;
+        }
 
-        public void run() {
+        /**
+         * Fetches the page of the product, or waits for the look up which is already fetching it.
+         */
+        public synchronized void start() {
 
-            if (this.mDocument == null) {
-                this.result = null;
+            if (mCancelled) {
                 return;
             }
 
-            String price;
+            mFlight = LookUpEngine.getInstance().joinFlight(mProductKey, mScrapeTitle, this);
+            if (mFlight != null) {
+                schedule();
+            }
 
-            Elements elements = mDocument.select(DEAL_PRICE_CSS_QUERY);
-            // Get the deal price, if there is one:
-            if (elements != null && elements.size() > 0) {
-                price = elements.get(0).text();
-            } else {
-                // If there isn't a deal price, get the current price:
-                elements = mDocument.select(PRICE_CSS_QUERY);
-                if (elements != null && elements.size() > 0) {
-                    price = elements.get(0).text();
-                } else {
-                    price = null;
+        }
+
+        @Override
+        public void onFlightComplete(LookUpResult result) {
+
+            // The other look up has been cancelled, fetch the page:
+            if (result == null) {
+                start();
+                return;
+            }
+
+            synchronized (this) {
+                if (mCancelled) {
+                    return;
                 }
             }
+            deliver(mIndex, new LookUpResult(mUrls[mIndex], result));
 
-            // Get the price as a Float:
-            this.result = parsePrice(price);
+        }
+
+        /**
+         * Delivers the result of the fetch to this look up and to the ones waiting for it. A task
+         * which has been cancelled delivers nothing: the look ups waiting for it have already been
+         * told to fetch the page themselves, and this look up fills the result of the item.
+         */
+        private void complete(LookUpResult result) {
+
+            synchronized (this) {
+                if (mCancelled) {
+                    return;
+                }
+            }
+
+            LookUpEngine.getInstance().landFlight(mFlight, result);
+            deliver(mIndex, result);
 
         }
 
+        private synchronized boolean isCancelled() { return mCancelled; }
+
         /**
-         * Parses the price value from a {@code String}. The {@code String} must be in one of the
-         * following formats:
-         * <ul>
-         *     <li>XY Z</li>
-         *     <li>XY.Z</li>
-         *     <li>XY,Z</li>
-         * </ul>
-         * Where:
-         * <ul>
-         *     <li>X is a currency symbol or string such as '$', '€', 'EUR'</li>
-         *     <li>Y is the integer part of the price (must be less than a million if uses a point
-         *     or a comma to separate each thousand)</li>
-         *     <li>Z is the fractional part of the price</li>
-         * </ul>
-         * @param price The price to parse.
-         * @return  The price value, as an instance of {@code Float}.<br>
-         *          If the string is {@code null} or not in a valid format, returns {@code null}.
+         * Books a slot for the request in the rate limiter and runs the task on the workers once
+         * the slot has come.
          */
-        private Float parsePrice(String price) {
+        public void schedule() {
+            LookUpEngine engine = LookUpEngine.getInstance();
+            execute(engine.getRateLimiter().reserve(mHost, mMinInterval, mMaxInterval));
+        }
 
-            if (price == null) {
-                return null;
+        /**
+         * Runs the task on the workers after the given delay.
+         * @param delay Time to wait, in millis.
+         */
+        private synchronized void execute(long delay) {
+
+            if (mCancelled) {
+                return;
             }
 
-            Pattern pattern = Pattern.compile("(\\d+[.,\\s]\\d+)");
-            Matcher matcher = pattern.matcher(price);
+            LookUpEngine engine = LookUpEngine.getInstance();
+            if (delay <= 0) {
+                mFuture = engine.getWorkers().submit(this);
+            } else {
+                mFuture = engine.getScheduler().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        execute(0);
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            }
 
-            if (matcher.find()) {
-                try {
-                    price = matcher.group(1);
-                    // Remove points, commas, spaces:
-                    price = price.replaceAll("[.,\\s]", "");
-                    // The price is the value divided by 100:
-                    return Float.valueOf(price) / 100;
-                } catch (IndexOutOfBoundsException | NumberFormatException e) {
-                    return null;
+        }
+
+        /**
+         * Schedules the task again after a backoff delay. Once the delay is over, a new slot is
+         * booked in the rate limiter.
+         * @param delay Time to wait, in millis.
+         */
+        private synchronized void retry(long delay) {
+
+            if (mCancelled) {
+                return;
+            }
+
+            mFuture = LookUpEngine.getInstance().getScheduler().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    schedule();
                 }
+            }, delay, TimeUnit.MILLISECONDS);
+
+        }
+
+        /**
+         * Cancels the pending execution of the task and interrupts it, if running. The look ups
+         * waiting for its fetch will fetch the page themselves.
+         */
+        public synchronized void cancel() {
+
+            mCancelled = true;
+            if (mFuture != null) {
+                mFuture.cancel(true);
+            }
+
+            LookUpEngine engine = LookUpEngine.getInstance();
+            if (mFlight != null) {
+                engine.landFlight(mFlight, null);
             } else {
-                return null;
+                engine.leaveFlight(mProductKey, this);
             }
 
         }
 
-    }
+        @Override
+        public void run() {
 
-    /**
-     * Scrapes the title of an Amazon product from an instance of {@link org.jsoup.nodes.Document}.
-     * If found, the result is a {@code String}, otherwise it's set to {@code null}. If the
-     * {@code Document} instance is {@code null}, the result is set to {@code null}.
-     */
-    private class GetTitleThread extends Thread {
+            LookUpResult result = new LookUpResult(mUrls[mIndex]);
+            LookUpEngine engine = LookUpEngine.getInstance();
+            RateLimiter rateLimiter = engine.getRateLimiter();
+
+            // If the marketplace has been penalized after the slot was booked, book a new one:
+            if (rateLimiter.getBlockedDelay(mHost) > 0) {
+                schedule();
+                return;
+            }
 
-        public String result;
-        // Jsoup CSS query:
-        /** Selects the elements which contain the title. */
-        private final String TITLE_CSS_QUERY = "span[id=ebooksProductTitle],span[id=productTitle]";
-        private Document mDocument;
+            // Fail straight away if the marketplace keeps refusing the requests:
+            CircuitBreaker circuitBreaker = engine.getCircuitBreaker();
+            if (!circuitBreaker.allowRequest(mHost)) {
+                result.pageType = LookUpResult.PageType.SKIPPED;
+                result.attempts = mAttempts;
+                complete(result);
+                return;
+            }
 
-        public GetTitleThread(Document document) { this.mDocument = document; }
+            AdaptiveConcurrencyLimiter concurrencyLimiter = engine.getConcurrencyLimiter();
+            try {
+                // Wait until another request can be in flight:
+                concurrencyLimiter.acquire();
+            } catch (InterruptedException e) {
+                // The task has been cancelled, which tells nothing about the marketplace:
+                Thread.currentThread().interrupt();
+                circuitBreaker.onCancelled(mHost);
+                complete(result);
+                return;
+            }
 
-        public void run() {
+            PageCache pageCache = engine.getPageCache();
+            PageCache.Entry cached = pageCache.get(mProductKey, mScrapeTitle);
+
+            long latency = -1;
+            boolean cancelled = false;
+            try {
+                HttpTransport.Request request = new HttpTransport.Request(result.url)
+                        .header("User-Agent", USER_AGENT)
+                        .header("Referer", REFERRER);
+                if (cached != null) {
+                    PageCache.addValidators(cached, request);
+                }
+                long start = System.currentTimeMillis();
+                HttpTransport.Response response =
+                        engine.getHttpTransport().execute(request, mTransferStats);
+                latency = System.currentTimeMillis() - start;
+                try {
+                    result.statusCode = response.getStatusCode();
+                    if (result.statusCode == HttpURLConnection.HTTP_NOT_MODIFIED &&
+                            cached != null) {
+                        pageCache.onNotModified();
+                        cached.copyTo(result, mScrapeTitle);
+                    } else if (result.statusCode == HttpURLConnection.HTTP_OK) {
+                        classifyRedirect(response, result);
+                        if (result.pageType == LookUpResult.PageType.NONE) {
+                            scrape(response, cached, result);
+                        }
+                    } else if (result.statusCode == HttpURLConnection.HTTP_NOT_FOUND ||
+                            result.statusCode == HttpURLConnection.HTTP_GONE) {
+                        result.pageType = LookUpResult.PageType.NOT_FOUND;
+                    } else {
+                        result.pageType = LookUpResult.PageType.ERROR;
+                        result.throttled = result.statusCode == HTTP_TOO_MANY_REQUESTS ||
+                                result.statusCode == HttpURLConnection.HTTP_UNAVAILABLE;
+                    }
+                } finally {
+                    // Release the connection, even if the page hasn't been read completely:
+                    response.close();
+                }
+            } catch (IOException e) {
+                // The result stays unsuccessful.
+            } finally {
+                // A request abandoned because the task has been cancelled leaves the concurrency
+                // as it is. A request which timed out or was refused lowers it, while a response
+                // is judged by its latency:
+                cancelled = isCancelled();
+                if (cancelled) {
+                    concurrencyLimiter.releaseUnsent();
+                } else if (result.throttled || latency == -1) {
+                    concurrencyLimiter.releaseDropped();
+                } else {
+                    concurrencyLimiter.release(latency);
+                }
+            }
+
+            // The look up fills the result of a cancelled item:
+            if (cancelled) {
+                circuitBreaker.onCancelled(mHost);
+                return;
+            }
+
+            // Slow down the requests to the marketplace, if it's refusing them, and stop them if
+            // it keeps doing so:
+            if (result.throttled) {
+                rateLimiter.onThrottled(mHost);
+                circuitBreaker.onRefused(mHost);
+            } else if (latency == -1) {
+                circuitBreaker.onError(mHost);
+            } else {
+                if (result.successful) {
+                    rateLimiter.onSuccess(mHost);
+                }
+                circuitBreaker.onSuccess(mHost);
+            }
+
+            // Try again later, if the failure may be temporary:
+            result.attempts = ++mAttempts;
+            if (mRetryPolicy.shouldRetry(result, mAttempts)) {
+                retry(mRetryPolicy.getDelay(mAttempts));
+                return;
+            }
+
+            complete(result);
+
+        }
+
+        /**
+         * Recognizes a page which Amazon has redirected the request to instead of the page of the
+         * product: a robot check or a page which is not a product, such as a search. Its
+         * {@link LookUpResult.PageType} is set in the result, which is left unchanged otherwise.
+         */
+        private void classifyRedirect(HttpTransport.Response response, LookUpResult result) {
 
-            if (this.mDocument == null) {
-                this.result = null;
+            String url = response.getUrl();
+            if (url == null || url.equals(result.url) || !ProductKey.hasAsin(result.url)) {
                 return;
             }
 
-            Elements elements = mDocument.select(TITLE_CSS_QUERY);
-            if (elements != null && elements.size() > 0) {
-                result = elements.get(0).text();
+            if (url.contains(ROBOT_CHECK_PATH)) {
+                result.pageType = LookUpResult.PageType.ROBOT_CHECK;
+                result.throttled = true;
+            } else if (!ProductKey.hasAsin(url)) {
+                result.pageType = LookUpResult.PageType.NOT_PRODUCT;
+            }
+
+        }
+
+        /**
+         * Scrapes a page while it's being downloaded, unless the part of the page which the
+         * cached result was scraped from is unchanged. The result is then cached, and the page
+         * archived if the engine has a {@link PageArchive}.
+         */
+        private void scrape(HttpTransport.Response response, PageCache.Entry cached,
+                            LookUpResult result) throws IOException {
+
+            LookUpEngine engine = LookUpEngine.getInstance();
+            PageCache pageCache = engine.getPageCache();
+
+            InputStream body = response.getBody();
+            if (cached == null) {
+                pageCache.onMiss();
             } else {
-                result = null;
+                body = pageCache.match(cached, body);
+                if (body == null) {
+                    cached.copyTo(result, mScrapeTitle);
+                    return;
+                }
+            }
+
+            PageArchive archive = engine.getPageArchive();
+            PageArchive.Recorder archivedBody = null;
+            if (archive != null) {
+                archivedBody = archive.record(result.url, response.getCharset(), body);
+                body = archivedBody;
+            }
+
+            PageCache.HashingInputStream recordedBody = PageCache.record(body);
+            try {
+                engine.getItemExtractor().extract(recordedBody, response.getCharset(), result,
+                        mScrapeTitle);
+            } catch (IOException e) {
+                if (archivedBody != null) {
+                    archivedBody.abort();
+                }
+                throw e;
+            }
+            result.onScraped();
+
+            if (result.successful) {
+                pageCache.put(mProductKey, response, recordedBody, result, mScrapeTitle);
+            }
+            // A page without a price is archived too, to find out why, but not a captcha:
+            if (archivedBody != null) {
+                if (result.successful) {
+                    archivedBody.commit();
+                } else {
+                    archivedBody.abort();
+                }
             }
 
         }
 
     }
 
-    /** Max number of concurrent threads. */
-    private static final int MAX_N_THREADS = 8;
+    private static final String USER_AGENT = "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/42.0.2311.90 Safari/537.36";
+    private static final String REFERRER = "https://www.google.com";
+    /** Status code sent by a server which is refusing the requests because they are too many. */
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    /** Path of the robot check, which Amazon may redirect the requests to. */
+    private static final String ROBOT_CHECK_PATH = "/errors/validateCaptcha";
     /** The products URLs. */
     private String[] mUrls;
-    /** Array of {@link org.jsoup.nodes.Document} instantiated with {@link GetDocumentThread}. */
-    private Document[] mDocuments;
+    /** Min time between two requests to the same marketplace, in millis. */
+    private long mMinInterval;
+    /** Max time between two requests to the same marketplace, in millis. */
+    private long mMaxInterval;
     /** The result of the look up or the update. */
     private AmazonItem[] mAmazonItems;
+    /** The data scraped for each item, filled by {@link LookUpTask}. */
+    private LookUpResult[] mResults;
+    /** The data scraped for each item by the last complete look up. */
+    private LookUpResult[] mLookUpResults;
+    /**
+     * Positions of the items of each product, by the position of the first one, which is the only
+     * one looked up. {@code null} for the other items.
+     */
+    private int[][] mProducts;
+    /** Counts the items which haven't been looked up yet. */
+    private CountDownLatch mPending;
+    private OnItemLookedUpListener mOnItemLookedUpListener;
+    /** Decides which items which failed are looked up again. */
+    private RetryPolicy mRetryPolicy;
+    /** Counts the bytes downloaded by the last look up. */
+    private TransferStats mTransferStats;
 
     /**
-     * Instantiates the class from an array of URLs.
+     * Instantiates the class from an array of URLs. The products are looked up only when the
+     * result is requested.
      * @see #getAmazonItems()
+     * @see #getAmazonItemsAsync(OnLookUpCompleteListener)
      * @param urls  Array of URLs of the products to lookup.
      */
     public AmazonItemLookUp(String[] urls) {
         this.mUrls = urls;
-        this.mDocuments = getDocuments(urls);
+        this.mMinInterval = 0;
+        this.mMaxInterval = 0;
         this.mAmazonItems = null;
+        this.mRetryPolicy = new RetryPolicy();
     }
 
     /**
-     * Instantiates the class from an array of {@link AmazonItem}.
+     * Instantiates the class from an array of {@link AmazonItem}. The products are looked up only
+     * when the result is requested.
      * @see #updateAmazonItems()
+     * @see #updateAmazonItemsAsync(OnLookUpCompleteListener)
      * @param amazonItems   Array of items to update.
-     * @param maxDelay      Max time to wait between each connection, in millis.
+     * @param maxDelay      Max time to wait between two requests to the same marketplace, in
+     *                      millis. The actual time is picked at random between half of it and
+     *                      the whole of it. The requests to different marketplaces are not
+     *                      delayed.
      */
     public AmazonItemLookUp(AmazonItem[] amazonItems, Integer maxDelay) {
 
@@ -198,145 +484,154 @@ public class AmazonItemLookUp {
         for (int i = 0; i < this.mUrls.length; i++) {
             this.mUrls[i] = amazonItems[i].url;
         }
-        this.mDocuments = getDocuments(mUrls, maxDelay);
+        this.mMinInterval = (maxDelay != null) ? maxDelay / 2 : 0;
+        this.mMaxInterval = (maxDelay != null) ? maxDelay : 0;
         this.mAmazonItems = amazonItems;
+        this.mRetryPolicy = new RetryPolicy();
 
     }
 
     /**
-     * Instantiates an array of {@link org.jsoup.nodes.Document} from an array of URLs by using a
-     * {@code ThreadPool} of {@link GetDocumentThread}.<br>
-     * Note: a {@code Document} is {@code null} in case of an {@code IOException}.
-     * @param urls  Array of URLs.
+     * Sets a listener which is notified of each item as soon as it has been looked up.
+     * @param listener  The listener, or {@code null} to remove it.
      */
-    private Document[] getDocuments(String[] urls) { return getDocuments(urls, null); }
+    public void setOnItemLookedUpListener(OnItemLookedUpListener listener) {
+        this.mOnItemLookedUpListener = listener;
+    }
 
     /**
-     * Instantiates an array of {@link org.jsoup.nodes.Document} from an array of URLs by using a
-     * {@code ThreadPool} of {@link GetDocumentThread}.<br>
-     * Note: a {@code Document} is {@code null} in case of an {@code IOException}.
-     * @param urls      Array of URLs.
-     * @param maxDelay  Max time to wait between each connection, in millis.
+     * Returns the data scraped for each item by the last look up, in the same order of the URLs,
+     * or {@code null} if the items haven't been looked up yet. The results of the items which
+     * failed tell why.
      */
-    private Document[] getDocuments(String[] urls, Integer maxDelay) {
-
-        Document[] documents = new Document[urls.length];
-        // Vector of references to the Threads:
-        Thread[] getDocumentThreads = new Thread[urls.length];
-
-        ExecutorService executorService = Executors.newFixedThreadPool(MAX_N_THREADS);
-
-        for (int i = 0; i < getDocumentThreads.length; i++) {
-            getDocumentThreads[i] = new GetDocumentThread(urls[i]);
-            // Run the thread:
-            executorService.execute(getDocumentThreads[i]);
-
-            // Delay the execution of the next thread:
-            if (maxDelay != null) {
-                try {
-                    // Randomize the delay:
-                    Integer minDelay = maxDelay / 2;
-                    Integer delay =
-                            new Random().nextInt((maxDelay - minDelay) + 1) + minDelay;
-                    Thread.sleep(delay);
-                } catch (InterruptedException e) {
-                    // Ignore the sleep, if interrupted.
-                }
-            }
-
-        }
-
-        executorService.shutdown();
-
-        // Wait for the threads to finish:
-        while (!executorService.isTerminated()) {}
-
-        // Get the threads results:
-        for (int i = 0; i < getDocumentThreads.length; i++) {
-            documents[i] = (((GetDocumentThread) getDocumentThreads[i]).result);
-        }
-
-        return documents;
+    public LookUpResult[] getLookUpResults() { return mLookUpResults; }
 
+    /**
+     * Sets the policy which decides which items which failed are looked up again, and when. By
+     * default it is a {@link RetryPolicy} with the default values.
+     * @param retryPolicy   The policy. Use {@code new RetryPolicy(1, 0, 0)} to disable the retries.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.mRetryPolicy = retryPolicy;
     }
 
     /**
-     * Returns an array containing the prices scraped from the array of
-     * {@link org.jsoup.nodes.Document}.<br>
-     * Note: a value is {@code null} if not found.
-     * @param documents Array of {@code Document} from which to scrape the data.
+     * Returns the requests and the bytes transferred by the last look up, or {@code null} if the
+     * items haven't been looked up yet.
      */
-    private Float[] getPrices(Document[] documents) {
-
-        Float[] prices = new Float[documents.length];
-        Thread[] getPriceThreads = new Thread[documents.length];
-
-        ExecutorService executorService = Executors.newFixedThreadPool(MAX_N_THREADS);
+    public TransferStats getTransferStats() { return mTransferStats; }
 
-        for (int i = 0; i < documents.length; i++) {
-            getPriceThreads[i] = new GetPriceThread(documents[i]);
-            executorService.execute(getPriceThreads[i]);
+    /**
+     * Looks up every item by using the workers of {@link LookUpEngine} and blocks until all of
+     * them have been looked up. The requests to each marketplace are spaced by the
+     * {@link RateLimiter} of {@link LookUpEngine}. Each page flows from the download straight to
+     * the scraping, so the items are delivered in order of completion and at most
+     * {@link LookUpEngine#getMaxLiveDocuments()} pages are parsed at the same time.<br>
+     * The page of a product is fetched once, even if several items point at it or another look up
+     * is fetching it at the same time, and its result is given to each of them.<br>
+     * If the calling thread is interrupted, the pending items are cancelled, their results are
+     * unsuccessful and the interrupt status is restored.
+     * @param scrapeTitles  Whether to scrape the titles besides the prices.
+     * @return  The data scraped for each item, in the same order of the URLs.
+     */
+    private LookUpResult[] lookUp(boolean scrapeTitles) {
+
+        LookUpTask[] tasks = new LookUpTask[mUrls.length];
+
+        this.mResults = new LookUpResult[mUrls.length];
+        this.mPending = new CountDownLatch(mUrls.length);
+        this.mTransferStats = new TransferStats();
+
+        // Group the items by product:
+        Map<String, List<Integer>> products = new LinkedHashMap<>();
+        for (int i = 0; i < mUrls.length; i++) {
+            String key = ProductKey.of(mUrls[i]);
+            List<Integer> items = products.get(key);
+            if (items == null) {
+                items = new ArrayList<>();
+                products.put(key, items);
+            }
+            items.add(i);
+        }
+        this.mProducts = new int[mUrls.length][];
+        for (List<Integer> items : products.values()) {
+            int[] positions = new int[items.size()];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = items.get(i);
+            }
+            mProducts[positions[0]] = positions;
         }
 
-        executorService.shutdown();
+        // The rate limiter delays each task according to its marketplace:
+        for (int i = 0; i < mUrls.length; i++) {
+            if (mProducts[i] != null) {
+                tasks[i] = new LookUpTask(i, scrapeTitles);
+                tasks[i].start();
+            }
+        }
 
-        while (!executorService.isTerminated()) {}
+        try {
+            mPending.await();
+        } catch (InterruptedException e) {
+            for (LookUpTask task : tasks) {
+                if (task != null) {
+                    task.cancel();
+                }
+            }
+            Thread.currentThread().interrupt();
+        }
 
-        for (int i = 0; i < getPriceThreads.length; i++) {
-            prices[i] = ((GetPriceThread) getPriceThreads[i]).result;
+        // Fill the results of the cancelled items:
+        LookUpResult[] results = new LookUpResult[mUrls.length];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = (mResults[i] != null) ? mResults[i] : new LookUpResult(mUrls[i]);
         }
+        this.mLookUpResults = results;
 
-        return prices;
+        return results;
 
     }
 
     /**
-     * Returns an array containing the titles scraped from the array of
-     * {@link org.jsoup.nodes.Document}.<br>
-     * Note: a value is {@code null} if not found.
+     * Stores the result of the items of a product and notifies the listener, if any.
+     * @param index     Position of the first item of the product.
+     * @param result    The data scraped for the item.
      */
-    private String[] getTitles(Document[] documents) {
-
-        String[] titles = new String[documents.length];
-        Thread[] getTitleThreads = new Thread[documents.length];
-
-        ExecutorService executorService = Executors.newFixedThreadPool(MAX_N_THREADS);
-
-        for (int i = 0; i < documents.length; i++) {
-            getTitleThreads[i] = new GetTitleThread(documents[i]);
-            executorService.execute(getTitleThreads[i]);
-        }
-
-        executorService.shutdown();
+    private void deliver(int index, LookUpResult result) {
 
-        while (!executorService.isTerminated()) {}
+        OnItemLookedUpListener listener = mOnItemLookedUpListener;
 
-        for (int i = 0; i < getTitleThreads.length; i++) {
-            titles[i] = ((GetTitleThread) getTitleThreads[i]).result;
+        for (int item : mProducts[index]) {
+            LookUpResult itemResult =
+                    (item == index) ? result : new LookUpResult(mUrls[item], result);
+            mResults[item] = itemResult;
+            if (listener != null) {
+                listener.onItemLookedUp(item, itemResult);
+            }
+            mPending.countDown();
         }
 
-        return titles;
-
     }
 
     /**
      * Scrapes all the data for the products requested and returns an array of {@link AmazonItem}.
-     * If a {@link Document} is {@code null}, the corresponding item is set to {@code null}.
+     * If a page couldn't be downloaded, the corresponding item is set to {@code null}.
      * @see #AmazonItemLookUp(String[])
-     * @see #getDocuments(String[])
      */
     public AmazonItem[] getAmazonItems() {
 
-        this.mAmazonItems = new AmazonItem[this.mDocuments.length];
-        Float[] prices = getPrices(this.mDocuments);
-        String[] titles = getTitles(this.mDocuments);
+        LookUpResult[] results = lookUp(true);
+
+        this.mAmazonItems = new AmazonItem[results.length];
 
         for (int i = 0; i < this.mAmazonItems.length; i++) {
 
-            if (this.mDocuments[i] == null) {
+            if (!results[i].successful) {
                 this.mAmazonItems[i] = null;
             } else {
-                this.mAmazonItems[i] = new AmazonItem(titles[i], prices[i], this.mUrls[i]);
+                this.mAmazonItems[i] =
+                        new AmazonItem(results[i].title, results[i].price, results[i].currency,
+                                results[i].url);
             }
 
         }
@@ -347,10 +642,12 @@ public class AmazonItemLookUp {
 
     /**
      * Scrapes only the data to update for the products requested and returns an array of
-     * {@link AmazonItem} containing the updated items. If a {@link Document} is {@code null}, the
-     * corresponding item is set to {@code null}.
+     * {@link AmazonItem} containing the updated items. If a page couldn't be downloaded, or what
+     * has been downloaded is not the page of the product, such as a robot check, the
+     * corresponding item is set to {@code null}, so that its price is not overwritten. The items
+     * passed to the constructor are not modified.
      * @see #AmazonItemLookUp(AmazonItem[], Integer)
-     * @see #getDocuments(String[], Integer)
+     * @see #getLookUpResults()
      */
     public AmazonItem[] updateAmazonItems() {
 
@@ -359,17 +656,78 @@ public class AmazonItemLookUp {
             return getAmazonItems();
         }
 
-        Float[] prices = getPrices(this.mDocuments);
+        LookUpResult[] results = lookUp(false);
 
-        for (int i = 0; i < this.mAmazonItems.length; i++) {
-            if (this.mDocuments[i] == null) {
-                this.mAmazonItems[i] = null;
+        AmazonItem[] updatedItems = new AmazonItem[this.mAmazonItems.length];
+
+        for (int i = 0; i < updatedItems.length; i++) {
+            if (!results[i].successful) {
+                updatedItems[i] = null;
             } else {
-                this.mAmazonItems[i] = this.mAmazonItems[i].updateItem(prices[i]);
+                updatedItems[i] = this.mAmazonItems[i].updateItem(results[i].price,
+                        results[i].currency);
             }
         }
 
-        return this.mAmazonItems;
+        return updatedItems;
+
+    }
+
+    /**
+     * Runs {@link #getAmazonItems()} on a background thread and returns immediately.
+     * @param listener  Notified when the look up is complete, or {@code null}.
+     * @return  A {@code Future} which can be used to block until the result is available.
+     */
+    public Future<AmazonItem[]> getAmazonItemsAsync(OnLookUpCompleteListener listener) {
+        return runAsync(new Callable<AmazonItem[]>() {
+            @Override
+            public AmazonItem[] call() {
+                return getAmazonItems();
+            }
+        }, listener);
+    }
+
+    /**
+     * Runs {@link #updateAmazonItems()} on a background thread and returns immediately.
+     * @param listener  Notified when the update is complete, or {@code null}.
+     * @return  A {@code Future} which can be used to block until the result is available.
+     */
+    public Future<AmazonItem[]> updateAmazonItemsAsync(OnLookUpCompleteListener listener) {
+        return runAsync(new Callable<AmazonItem[]>() {
+            @Override
+            public AmazonItem[] call() {
+                return updateAmazonItems();
+            }
+        }, listener);
+    }
+
+    /**
+     * Runs a look up on the dispatcher of {@link LookUpEngine}. When it completes, the listener is
+     * notified with the result; if the look up fails or is cancelled, the listener is not
+     * notified.
+     * @param lookUp    The look up to run.
+     * @param listener  Notified when the look up is complete, or {@code null}.
+     */
+    private static Future<AmazonItem[]> runAsync(Callable<AmazonItem[]> lookUp,
+                                                 final OnLookUpCompleteListener listener) {
+
+        FutureTask<AmazonItem[]> futureTask = new FutureTask<AmazonItem[]>(lookUp) {
+            @Override
+            protected void done() {
+                if (listener == null || isCancelled()) {
+                    return;
+                }
+                try {
+                    listener.onLookUpComplete(get());
+                } catch (Exception e) {
+                    // The look up failed, there is nothing to report.
+                }
+            }
+        };
+
+        LookUpEngine.getInstance().getDispatcher().execute(futureTask);
+
+        return futureTask;
 
     }
 
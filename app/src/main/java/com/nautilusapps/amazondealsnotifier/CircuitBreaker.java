@@ -0,0 +1,176 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stops sending requests to a marketplace which keeps refusing them, for example with a robot
+ * check, instead of going on with the remaining items at full speed.<br>
+ * After a few requests in a row have been refused, the breaker of the marketplace opens: for a
+ * cooldown, the look ups of its items fail straight away without any request. Once the cooldown
+ * is over a single request is let through as a trial: if it is accepted the breaker closes again,
+ * otherwise it stays open for a doubled cooldown, up to {@link #MAX_COOLDOWN}.
+ */
+public class CircuitBreaker {
+
+    /**
+     * The state of the breaker of a host.
+     */
+    private static class State {
+
+        /** Number of requests refused in a row. */
+        int refusals;
+        /** Cooldown of the breaker, in millis, or 0 if it is closed. */
+        long cooldown;
+        /** Time at which the trial request can be sent, in millis. */
+        long openUntil;
+        /** Whether the trial request has been sent and its outcome is not known yet. */
+        boolean trialInFlight;
+
+    }
+
+    /** Default number of requests refused in a row which open the breaker. */
+    public static final int DEFAULT_THRESHOLD = 2;
+    /** Default time the breaker stays open the first time, in millis. */
+    public static final long DEFAULT_COOLDOWN = 5 * 60 * 1000;
+    /** Max time the breaker stays open, in millis. */
+    static final long MAX_COOLDOWN = 60 * 60 * 1000;
+    private final int mThreshold;
+    private final long mCooldown;
+    private final Map<String, State> mStates = new HashMap<>();
+
+    /**
+     * Instantiates a breaker with the default values.
+     */
+    public CircuitBreaker() {
+        this(DEFAULT_THRESHOLD, DEFAULT_COOLDOWN);
+    }
+
+    /**
+     * @param threshold Number of requests refused in a row which open the breaker, at least 1.
+     * @param cooldown  Time the breaker stays open the first time, in millis.
+     */
+    public CircuitBreaker(int threshold, long cooldown) {
+
+        if (threshold <= 0) {
+            throw new IllegalArgumentException("threshold must be greater than 0");
+        }
+
+        this.mThreshold = threshold;
+        this.mCooldown = cooldown;
+
+    }
+
+    /**
+     * Checks whether a request can be sent to a host. Once the cooldown is over, it returns
+     * {@code true} only once, for the trial request, until its outcome is reported.
+     * @param host  The host, as returned by {@link RateLimiter#getHost(String)}.
+     */
+    public boolean allowRequest(String host) {
+        return allowRequest(host, System.currentTimeMillis());
+    }
+
+    synchronized boolean allowRequest(String host, long now) {
+
+        State state = mStates.get(host);
+        if (state == null || state.cooldown == 0) {
+            return true;
+        }
+        if (now < state.openUntil || state.trialInFlight) {
+            return false;
+        }
+
+        state.trialInFlight = true;
+        return true;
+
+    }
+
+    /**
+     * Reports a request which the host has accepted, which closes its breaker.
+     * @param host  The host, as returned by {@link RateLimiter#getHost(String)}.
+     */
+    public synchronized void onSuccess(String host) {
+        mStates.remove(host);
+    }
+
+    /**
+     * Reports a request which the host has refused, for example with a robot check. The breaker
+     * opens if the refusals in a row reach the threshold, or if the request was the trial.
+     * @param host  The host, as returned by {@link RateLimiter#getHost(String)}.
+     */
+    public void onRefused(String host) {
+        onRefused(host, System.currentTimeMillis());
+    }
+
+    synchronized void onRefused(String host, long now) {
+
+        State state = getState(host);
+        state.refusals++;
+
+        if (state.cooldown != 0) {
+            // A request sent before the breaker opened doesn't extend the cooldown:
+            if (!state.trialInFlight) {
+                return;
+            }
+            state.cooldown = Math.min(state.cooldown * 2, MAX_COOLDOWN);
+        } else if (state.refusals >= mThreshold) {
+            state.cooldown = mCooldown;
+        } else {
+            return;
+        }
+
+        state.openUntil = now + state.cooldown;
+        state.trialInFlight = false;
+
+    }
+
+    /**
+     * Reports a request whose outcome doesn't tell whether the host is refusing the requests, such
+     * as a connection error. If it was the trial, another request can be sent as the trial.
+     * @param host  The host, as returned by {@link RateLimiter#getHost(String)}.
+     */
+    public synchronized void onError(String host) {
+        State state = mStates.get(host);
+        if (state != null) {
+            state.trialInFlight = false;
+        }
+    }
+
+    /**
+     * Withdraws a request which has been cancelled before its outcome was known. It isn't counted
+     * as a failure of the host, but if it was the trial, another request can be sent as the trial.
+     * @param host  The host, as returned by {@link RateLimiter#getHost(String)}.
+     */
+    public synchronized void onCancelled(String host) {
+        State state = mStates.get(host);
+        if (state != null) {
+            state.trialInFlight = false;
+        }
+    }
+
+    /**
+     * Checks whether the breaker of a host is open, so that its requests are not sent.
+     * @param host  The host, as returned by {@link RateLimiter#getHost(String)}.
+     */
+    public synchronized boolean isOpen(String host) {
+        State state = mStates.get(host);
+        return state != null && state.cooldown != 0;
+    }
+
+    /**
+     * Closes every breaker.
+     */
+    public synchronized void reset() {
+        mStates.clear();
+    }
+
+    private State getState(String host) {
+        State state = mStates.get(host);
+        if (state == null) {
+            state = new State();
+            mStates.put(host, state);
+        }
+        return state;
+    }
+
+}
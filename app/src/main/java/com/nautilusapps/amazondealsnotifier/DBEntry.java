@@ -8,7 +8,23 @@ import android.provider.BaseColumns;
 public class DBEntry implements BaseColumns {
     public static final String TABLE = "item";
     public static final String TITLE = "title";
-    public static final String CURRENT_PRICE = "current_price";
-    public static final String PREVIOUS_PRICE = "previous_price";
+    /** Current price, in the minor unit of the currency. */
+    public static final String CURRENT_PRICE = "current_price_minor";
+    /** Previous price, in the minor unit of the currency. */
+    public static final String PREVIOUS_PRICE = "previous_price_minor";
+    /** ISO 4217 code of the currency of the prices. */
+    public static final String CURRENCY = "currency";
+    /** Current price as a REAL, used up to version 2 of the schema and no longer written. */
+    public static final String LEGACY_CURRENT_PRICE = "current_price";
+    /** Previous price as a REAL, used up to version 2 of the schema and no longer written. */
+    public static final String LEGACY_PREVIOUS_PRICE = "previous_price";
     public static final String URL = "url";
+    /** Marketplace and ASIN of the item, as built by {@link ProductKey}. Unique. */
+    public static final String PRODUCT_KEY = "product_key";
+    /** Name of the unique index on {@link #PRODUCT_KEY}. */
+    public static final String PRODUCT_KEY_INDEX = "item_product_key";
+    /** Number of consecutive updates in which the item couldn't be looked up. */
+    public static final String FAILURES = "failures";
+    /** HTTP status code of the last failed look up, or 0 for a connection error. */
+    public static final String LAST_FAILURE_STATUS = "last_failure_status";
 }
@@ -6,23 +6,78 @@ import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.support.annotation.NonNull;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
 /**
- * Provides methods to manage the database.
+ * Provides methods to manage the database.<br>
+ * The whole process shares one instance, see {@link #getInstance(Context)}, and its connection is
+ * kept open for the life of the process instead of being opened again for every operation. The
+ * database uses write-ahead logging, so the list can be read while a background update is writing
+ * the prices.
  */
 public class DBHandler extends SQLiteOpenHelper {
 
     public static final String DB_NAME = "AmazonItems";
-    private static final int DB_VERSION = 1;
+    /**
+     * Version of the schema. Each version adds to the previous one, so that the upgrade never
+     * drops the items of the user:
+     * <ol>
+     *     <li>Items table.</li>
+     *     <li>Failure state of each item.</li>
+     *     <li>Prices in minor units, with their currency. The REAL prices are converted and
+     *     left in place, unused.</li>
+     *     <li>Unique product key of each item. Of the items of the same product, only the one
+     *     added last is kept, since it has been written by the latest update.</li>
+     * </ol>
+     */
+    private static final int DB_VERSION = 4;
+    /**
+     * Writes the data of an update to the row of a product, unless it would leave the row as it
+     * is. The title and the URL are not written, since an update doesn't change them.
+     */
+    private static final String UPDATE_ITEM = "UPDATE " + DBEntry.TABLE + " SET " +
+            DBEntry.CURRENT_PRICE + " = ?1, " +
+            DBEntry.PREVIOUS_PRICE + " = ?2, " +
+            DBEntry.CURRENCY + " = ?3, " +
+            DBEntry.FAILURES + " = 0, " +
+            DBEntry.LAST_FAILURE_STATUS + " = NULL WHERE " +
+            DBEntry.PRODUCT_KEY + " = ?4 AND (" +
+            DBEntry.CURRENT_PRICE + " IS NOT ?1 OR " +
+            DBEntry.PREVIOUS_PRICE + " IS NOT ?2 OR " +
+            DBEntry.CURRENCY + " IS NOT ?3 OR " +
+            DBEntry.FAILURES + " != 0 OR " +
+            DBEntry.LAST_FAILURE_STATUS + " IS NOT NULL)";
+    /** Increases the count of consecutive failures of the row of a product. */
+    private static final String UPDATE_FAILURE = "UPDATE " + DBEntry.TABLE + " SET " +
+            DBEntry.FAILURES + " = " + DBEntry.FAILURES + " + 1, " +
+            DBEntry.LAST_FAILURE_STATUS + " = ? WHERE " +
+            DBEntry.PRODUCT_KEY + " = ?";
+    private static DBHandler sInstance;
     private Context mContext;
 
-    public DBHandler(Context context) {
+    /**
+     * Instantiates a handler with its own connection. Use {@link #getInstance(Context)} instead,
+     * except to open the database from scratch, as the tests do.
+     */
+    DBHandler(Context context) {
         super(context, DB_NAME, null, DB_VERSION);
         this.mContext = context;
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * Returns the instance shared by the whole process. It is bound to the application context,
+     * so it doesn't keep any activity alive, and it is never closed.
+     */
+    public static synchronized DBHandler getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new DBHandler(context.getApplicationContext());
+        }
+        return sInstance;
     }
 
     @Override
@@ -32,24 +87,140 @@ public class DBHandler extends SQLiteOpenHelper {
                 DBEntry.TABLE + " (" +
                 DBEntry._ID + " INTEGER PRIMARY KEY, " +
                 DBEntry.TITLE + " TEXT, " +
-                DBEntry.CURRENT_PRICE + " REAL, " +
-                DBEntry.PREVIOUS_PRICE + " REAL, " +
-                DBEntry.URL + " TEXT)";
+                DBEntry.CURRENT_PRICE + " INTEGER, " +
+                DBEntry.PREVIOUS_PRICE + " INTEGER, " +
+                DBEntry.CURRENCY + " TEXT, " +
+                DBEntry.URL + " TEXT, " +
+                DBEntry.PRODUCT_KEY + " TEXT, " +
+                DBEntry.FAILURES + " INTEGER NOT NULL DEFAULT 0, " +
+                DBEntry.LAST_FAILURE_STATUS + " INTEGER)";
 
         db.execSQL(CREATE_TABLE);
+        createProductKeyIndex(db);
 
     }
 
+    /**
+     * Migrates the items table step by step from the old version, keeping the items.
+     */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        String DROP_TABLE = "DROP TABLE IF EXISTS " + DBEntry.TABLE;
-        db.execSQL(DROP_TABLE);
-        onCreate(db);
+
+        if (oldVersion < 2) {
+            db.execSQL("ALTER TABLE " + DBEntry.TABLE + " ADD COLUMN " +
+                    DBEntry.FAILURES + " INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE " + DBEntry.TABLE + " ADD COLUMN " +
+                    DBEntry.LAST_FAILURE_STATUS + " INTEGER");
+        }
+
+        if (oldVersion < 3) {
+            db.execSQL("ALTER TABLE " + DBEntry.TABLE + " ADD COLUMN " +
+                    DBEntry.CURRENT_PRICE + " INTEGER");
+            db.execSQL("ALTER TABLE " + DBEntry.TABLE + " ADD COLUMN " +
+                    DBEntry.PREVIOUS_PRICE + " INTEGER");
+            db.execSQL("ALTER TABLE " + DBEntry.TABLE + " ADD COLUMN " +
+                    DBEntry.CURRENCY + " TEXT");
+            convertPrices(db);
+        }
+
+        if (oldVersion < 4) {
+            db.execSQL("ALTER TABLE " + DBEntry.TABLE + " ADD COLUMN " +
+                    DBEntry.PRODUCT_KEY + " TEXT");
+            fillProductKeys(db);
+            // Keep the item added last of each product:
+            db.execSQL("DELETE FROM " + DBEntry.TABLE + " WHERE " +
+                    DBEntry.PRODUCT_KEY + " IS NOT NULL AND " + DBEntry._ID + " NOT IN (" +
+                    "SELECT MAX(" + DBEntry._ID + ") FROM " + DBEntry.TABLE + " WHERE " +
+                    DBEntry.PRODUCT_KEY + " IS NOT NULL GROUP BY " + DBEntry.PRODUCT_KEY + ")");
+            createProductKeyIndex(db);
+        }
+
     }
 
+    /**
+     * Creates the unique index on the product key, which the items are looked up by.
+     */
+    private static void createProductKeyIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS " + DBEntry.PRODUCT_KEY_INDEX + " ON " +
+                DBEntry.TABLE + " (" + DBEntry.PRODUCT_KEY + ")");
+    }
+
+    /**
+     * Fills the product key of each item from its URL.
+     */
+    private static void fillProductKeys(SQLiteDatabase db) {
+
+        String[] select = {
+                DBEntry._ID,
+                DBEntry.URL
+        };
+
+        Cursor cursor = db.query(DBEntry.TABLE, select, null, null, null, null, null);
+
+        try {
+            while (cursor.moveToNext()) {
+                if (cursor.isNull(1)) {
+                    continue;
+                }
+                ContentValues contentValues = new ContentValues();
+                contentValues.put(DBEntry.PRODUCT_KEY, ProductKey.of(cursor.getString(1)));
+                db.update(DBEntry.TABLE, contentValues, DBEntry._ID + "=?",
+                        new String[]{String.valueOf(cursor.getLong(0))});
+            }
+        } finally {
+            cursor.close();
+        }
+
+    }
+
+    /**
+     * Fills the prices in minor units from the REAL prices of version 2, taking the currency from
+     * the marketplace of each item.
+     */
+    private static void convertPrices(SQLiteDatabase db) {
+
+        String[] select = {
+                DBEntry._ID,
+                DBEntry.LEGACY_CURRENT_PRICE,
+                DBEntry.LEGACY_PREVIOUS_PRICE,
+                DBEntry.URL
+        };
+
+        Cursor cursor = db.query(DBEntry.TABLE, select, null, null, null, null, null);
+
+        try {
+            while (cursor.moveToNext()) {
+
+                String currency = cursor.isNull(3) ? null :
+                        PriceParser.getMarketplaceCurrency(RateLimiter.getHost(cursor.getString(3)));
+
+                ContentValues contentValues = new ContentValues();
+                contentValues.put(DBEntry.CURRENCY, currency);
+                if (!cursor.isNull(1)) {
+                    contentValues.put(DBEntry.CURRENT_PRICE,
+                            Money.fromUnits(cursor.getDouble(1), currency));
+                }
+                if (!cursor.isNull(2)) {
+                    contentValues.put(DBEntry.PREVIOUS_PRICE,
+                            Money.fromUnits(cursor.getDouble(2), currency));
+                }
+
+                db.update(DBEntry.TABLE, contentValues, DBEntry._ID + "=?",
+                        new String[]{String.valueOf(cursor.getLong(0))});
+
+            }
+        } finally {
+            cursor.close();
+        }
+
+    }
+
+    /**
+     * Keeps the items table as it is. The columns added by the newer versions are ignored.
+     */
     @Override
     public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        onUpgrade(db, oldVersion, newVersion);
+        // Nothing to do.
     }
 
     /**
@@ -66,6 +237,7 @@ public class DBHandler extends SQLiteOpenHelper {
                 DBEntry.TITLE,
                 DBEntry.CURRENT_PRICE,
                 DBEntry.PREVIOUS_PRICE,
+                DBEntry.CURRENCY,
                 DBEntry.URL
         };
 
@@ -81,34 +253,41 @@ public class DBHandler extends SQLiteOpenHelper {
                 null,
                 sortOrder);
 
-        while (cursor.moveToNext()) {
-            String title = null;
-            Float currentPrice = null;
-            Float previousPrice = null;
-            String url = null;
-            // If a field is null, leave the variable to null:
-            if (!cursor.isNull(1)) {
-                title = cursor.getString(1);
-            }
-            if (!cursor.isNull(2)) {
-                currentPrice = cursor.getFloat(2);
-            }
-            if (!cursor.isNull(3)) {
-                previousPrice = cursor.getFloat(3);
+        try {
+            while (cursor.moveToNext()) {
+                String title = null;
+                long currentPrice = AmazonItem.NO_PRICE;
+                long previousPrice = AmazonItem.NO_PRICE;
+                String currency = null;
+                String url = null;
+                // If a field is null, leave the variable to its default:
+                if (!cursor.isNull(1)) {
+                    title = cursor.getString(1);
+                }
+                if (!cursor.isNull(2)) {
+                    currentPrice = cursor.getLong(2);
+                }
+                if (!cursor.isNull(3)) {
+                    previousPrice = cursor.getLong(3);
+                }
+                if (!cursor.isNull(4)) {
+                    currency = cursor.getString(4);
+                }
+                if (!cursor.isNull(5)) {
+                    url = cursor.getString(5);
+                }
+                AmazonItem item = new AmazonItem(
+                        title,
+                        currentPrice,
+                        previousPrice,
+                        currency,
+                        url);
+                items.add(item);
             }
-            if (!cursor.isNull(4)) {
-                url = cursor.getString(4);
-            }
-            AmazonItem item = new AmazonItem(
-                    title,
-                    currentPrice,
-                    previousPrice,
-                    url);
-            items.add(item);
+        } finally {
+            cursor.close();
         }
 
-        cursor.close();
-
         return items;
 
     }
@@ -116,7 +295,8 @@ public class DBHandler extends SQLiteOpenHelper {
     /**
      * Adds an item to the database and returns the item ID in the table.
      * @param item  Item to add.
-     * @return      The item ID if successful, -1 otherwise.
+     * @return      The item ID if successful, -1 otherwise, for example if the same product is
+     *              already in the database.
      */
     public long addItem(@NonNull AmazonItem item) {
 
@@ -125,18 +305,19 @@ public class DBHandler extends SQLiteOpenHelper {
         ContentValues contentValues = new ContentValues();
 
         contentValues.put(DBEntry.TITLE, item.title);
-        contentValues.put(DBEntry.CURRENT_PRICE, item.currentPrice);
-        contentValues.put(DBEntry.PREVIOUS_PRICE, item.previousPrice);
+        putPrice(contentValues, DBEntry.CURRENT_PRICE, item.currentPrice);
+        putPrice(contentValues, DBEntry.PREVIOUS_PRICE, item.previousPrice);
+        contentValues.put(DBEntry.CURRENCY, item.currency);
         contentValues.put(DBEntry.URL, item.url);
+        contentValues.put(DBEntry.PRODUCT_KEY, ProductKey.of(item.url));
 
-        long id = sqLiteDatabase.insert(DBEntry.TABLE, null, contentValues);
-        sqLiteDatabase.close();
-        return id;
+        return sqLiteDatabase.insert(DBEntry.TABLE, null, contentValues);
 
     }
 
     /**
-     * Checks whether an item is already in the database.
+     * Checks whether an item is already in the database, even with a different URL of the same
+     * product.
      * @param item  Item to search.
      * @return      {@code true} if the item is already in the database, {@code false} otherwise.
      */
@@ -151,16 +332,16 @@ public class DBHandler extends SQLiteOpenHelper {
         Cursor cursor = sqLiteDatabase.query(
                 DBEntry.TABLE,
                 select,
-                DBEntry.URL + "=?",
-                new String[]{item.url},
+                DBEntry.PRODUCT_KEY + "=?",
+                new String[]{ProductKey.of(item.url)},
                 null,
                 null,
                 null);
 
-        if (cursor.moveToNext()) {
-            return true;
-        } else {
-            return false;
+        try {
+            return cursor.moveToNext();
+        } finally {
+            cursor.close();
         }
 
     }
@@ -171,47 +352,86 @@ public class DBHandler extends SQLiteOpenHelper {
      */
     public void removeItem(AmazonItem item) {
 
-        String url = item.url;
+        String productKey = ProductKey.of(item.url);
 
         SQLiteDatabase sqLiteDatabase = getWritableDatabase();
 
         sqLiteDatabase.delete(
                 DBEntry.TABLE,
-                DBEntry.URL + "=?",
-                new String[]{url});
-        sqLiteDatabase.close();
+                DBEntry.PRODUCT_KEY + "=?",
+                new String[]{productKey});
 
     }
 
     /**
-     * Updates the items in the database using an array containing the updated items. Finally,
-     * updates the timestamp of the last update.
-     * @param items Array containing the updated items.
+     * Updates the items in the database using an array containing the updated items, and clears
+     * their failure state. Finally, updates the timestamp of the last update.<br>
+     * The whole array is written in a single transaction with one compiled statement. Only the
+     * prices and the currency are written, and a row which the update leaves as it is is not
+     * written at all.
+     * @param items Array containing the updated items. The {@code null} elements are skipped.
+     * @return  The number of rows which have changed.
      */
-    public void updateItems(AmazonItem[] items) {
+    public int updateItems(AmazonItem[] items) {
 
         SQLiteDatabase sqLiteDatabase = getWritableDatabase();
+        SQLiteStatement statement = sqLiteDatabase.compileStatement(UPDATE_ITEM);
+        int changed = 0;
+
+        // Let the list be read while the items are written:
+        sqLiteDatabase.beginTransactionNonExclusive();
+        try {
+            for (AmazonItem item : items) {
+
+                if (item == null) {
+                    continue;
+                }
+
+                bindPrice(statement, 1, item.currentPrice);
+                bindPrice(statement, 2, item.previousPrice);
+                if (item.currency == null) {
+                    statement.bindNull(3);
+                } else {
+                    statement.bindString(3, item.currency);
+                }
+                statement.bindString(4, ProductKey.of(item.url));
+                changed += statement.executeUpdateDelete();
 
-        for (AmazonItem item : items) {
+            }
+            sqLiteDatabase.setTransactionSuccessful();
+        } finally {
+            sqLiteDatabase.endTransaction();
+            statement.close();
+        }
 
-            ContentValues contentValues = new ContentValues();
-            contentValues.put(DBEntry.TITLE, item.title);
-            contentValues.put(DBEntry.CURRENT_PRICE, item.currentPrice);
-            contentValues.put(DBEntry.PREVIOUS_PRICE, item.previousPrice);
-            contentValues.put(DBEntry.URL, item.url);
+        updateTimestamp();
 
-            sqLiteDatabase.update(
-                    DBEntry.TABLE,
-                    contentValues,
-                    DBEntry.URL + "=?",
-                    new String[]{item.url}
-            );
+        return changed;
 
-        }
+    }
 
-        sqLiteDatabase.close();
+    /**
+     * Records that some items couldn't be looked up. Their data is left as it is, and their count
+     * of consecutive failures is increased.
+     * @param results   The results of the failed look ups.
+     */
+    public void setItemsFailed(List<LookUpResult> results) {
 
-        updateTimestamp();
+        SQLiteDatabase sqLiteDatabase = getWritableDatabase();
+        SQLiteStatement statement = sqLiteDatabase.compileStatement(UPDATE_FAILURE);
+
+        sqLiteDatabase.beginTransactionNonExclusive();
+        try {
+            for (LookUpResult result : results) {
+                statement.bindLong(1, result.statusCode);
+                statement.bindString(2, ProductKey.of(result.url));
+                statement.executeUpdateDelete();
+            }
+            sqLiteDatabase.setTransactionSuccessful();
+        } finally {
+            sqLiteDatabase.endTransaction();
+            statement.close();
+        }
 
     }
 
@@ -223,12 +443,33 @@ public class DBHandler extends SQLiteOpenHelper {
 
         SQLiteDatabase sqLiteDatabase = getWritableDatabase();
         sqLiteDatabase.delete(DBEntry.TABLE, null, null);
-        sqLiteDatabase.close();
 
         updateTimestamp();
 
     }
 
+    /**
+     * Puts a price in minor units, or {@code NULL} if the price is not known.
+     */
+    private static void putPrice(ContentValues contentValues, String column, long price) {
+        if (price == AmazonItem.NO_PRICE) {
+            contentValues.putNull(column);
+        } else {
+            contentValues.put(column, price);
+        }
+    }
+
+    /**
+     * Binds a price in minor units, or {@code NULL} if the price is not known.
+     */
+    private static void bindPrice(SQLiteStatement statement, int index, long price) {
+        if (price == AmazonItem.NO_PRICE) {
+            statement.bindNull(index);
+        } else {
+            statement.bindLong(index, price);
+        }
+    }
+
     /**
      * Sets the timestamp of the last update to the current time.
      */
@@ -0,0 +1,109 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Scrapes the data of an Amazon product from an instance of {@link org.jsoup.nodes.Document}. The
+ * whole page is parsed before being scraped, then the {@link ExtractionRules} of its marketplace,
+ * taken from the {@link SelectorProfiles} of {@link LookUpEngine}, are applied to it in a single
+ * pass. The price is taken from the {@link StructuredData} of the page, if any, and the rules are
+ * only applied for what it doesn't give: the title, if requested, and the price if the page has
+ * no structured data.<br>
+ * A parsed page takes several MB, so at most {@link LookUpEngine#getMaxLiveDocuments()} pages are
+ * parsed at the same time, while the requests of the other workers are left in flight.
+ */
+public class DocumentItemExtractor implements ItemExtractor {
+
+    /** Parses the prices, one instance for each thread, since it is reused. */
+    private static final ThreadLocal<PriceParser> PRICE_PARSER = new ThreadLocal<PriceParser>() {
+        @Override
+        protected PriceParser initialValue() {
+            return new PriceParser();
+        }
+    };
+
+    @Override
+    public void extract(InputStream in, String charset, LookUpResult result, boolean scrapeTitle)
+            throws IOException {
+
+        LookUpEngine engine = LookUpEngine.getInstance();
+        // Only the parsing is bounded, the download of the other pages can go on meanwhile:
+        try {
+            engine.acquireDocument();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to parse the page");
+        }
+        try {
+            parseAndExtract(engine, in, charset, result, scrapeTitle);
+        } finally {
+            engine.releaseDocument();
+        }
+
+    }
+
+    /**
+     * Parses and scrapes a page, once the engine has room for it in memory.
+     */
+    private static void parseAndExtract(LookUpEngine engine, InputStream in, String charset,
+            LookUpResult result, boolean scrapeTitle) throws IOException {
+
+        long start = System.nanoTime();
+        Document document = Jsoup.parse(in, charset, result.url);
+        ExtractionRules rules = engine.getSelectorProfiles().getRules(result.url);
+
+        // The rules are only applied for the fields which the structured data doesn't have. A
+        // robot check has no structured price, so it is still detected by the rules:
+        boolean structured = StructuredData.extract(document, result);
+        if (!structured || scrapeTitle) {
+            ExtractionRules.Match match = rules.apply(document, !structured, scrapeTitle);
+            if (match.robotCheck) {
+                result.throttled = true;
+                return;
+            }
+            if (!structured) {
+                parsePrice(match.getPriceText(), result);
+            }
+            if (scrapeTitle) {
+                result.title = match.getTitleText();
+            }
+            engine.getRuleStats().onPageExtracted(RateLimiter.getHost(result.url), rules,
+                    match.selectors, !structured, scrapeTitle);
+        }
+        engine.getExtractionStats().onPageExtracted(
+                structured ? ExtractionStats.Path.STRUCTURED_DATA
+                        : ExtractionStats.Path.DOCUMENT_SELECTORS,
+                result.price != AmazonItem.NO_PRICE, System.nanoTime() - start);
+
+    }
+
+    /**
+     * Parses a price, such as {@code "EUR 1.234,56"} or {@code "$1,234.56"}, and stores it in a
+     * result. See {@link PriceParser} for the formats accepted. If the text has no currency
+     * symbol, the currency of the marketplace of the result is used.
+     * @param price     The text of the price, or {@code null}.
+     * @param result    Where to store the price and its currency. Its URL selects the marketplace.
+     *                  If there is no price, they are left as they are.
+     */
+    public static void parsePrice(String price, LookUpResult result) {
+
+        if (price == null) {
+            return;
+        }
+
+        PriceParser parser = PRICE_PARSER.get();
+        String marketplaceCurrency =
+                PriceParser.getMarketplaceCurrency(RateLimiter.getHost(result.url));
+
+        if (parser.parse(price, marketplaceCurrency)) {
+            result.price = parser.getAmount();
+            result.currency = parser.getCurrency();
+        }
+
+    }
+
+}
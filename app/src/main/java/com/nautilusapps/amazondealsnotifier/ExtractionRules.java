@@ -0,0 +1,273 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.select.Evaluator;
+import org.jsoup.select.NodeFilter;
+import org.jsoup.select.NodeTraversor;
+import org.jsoup.select.QueryParser;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The rules which find the data of a product in the tree of its page. The CSS queries are parsed
+ * once, when the rules are created, and all of them are evaluated in a single pass over the tree,
+ * which stops as soon as every element needed has been found.<br>
+ * Each query is a list of alternative selectors. The first element matched by any of them, in
+ * document order, is the one found, and the selector which matched it, the first of the query if
+ * several do, is reported so that {@link RuleStats} can tell the ones which have stopped
+ * matching.<br>
+ * An instance can be used by several threads at the same time.
+ */
+public class ExtractionRules {
+
+    /**
+     * The first element matched by each rule, in document order. It is what
+     * {@code document.select(query).first()} would return for each query.
+     */
+    public static class Match {
+
+        /** The element which contains the price on sale, or {@code null}. */
+        public Element dealPrice;
+        /** The element which contains the current price, or {@code null}. */
+        public Element price;
+        /** The element which contains the title, or {@code null} if not found or not requested. */
+        public Element title;
+        /** Whether the page is a robot check instead of the page of a product. */
+        public boolean robotCheck;
+        /** Index of the selector which matched each field, or -1. */
+        final int[] selectors = { -1, -1, -1 };
+
+        /**
+         * Returns the text of the deal price, if found, otherwise the text of the current price,
+         * or {@code null} if neither has been found.
+         */
+        public String getPriceText() {
+            if (dealPrice != null) {
+                return dealPrice.text();
+            } else if (price != null) {
+                return price.text();
+            } else {
+                return null;
+            }
+        }
+
+        /**
+         * Returns the text of the title, or {@code null} if not found.
+         */
+        public String getTitleText() {
+            return (title != null) ? title.text() : null;
+        }
+
+    }
+
+    // Fields found by the rules:
+    static final int FIELD_DEAL_PRICE = 0;
+    static final int FIELD_PRICE = 1;
+    static final int FIELD_TITLE = 2;
+    /** Names of the fields, as used by the profiles and by {@link RuleStats}. */
+    static final String[] FIELD_NAMES = { "deal_price", "price", "title" };
+
+    private final String mDealPriceQuery;
+    private final String mPriceQuery;
+    private final String mTitleQuery;
+    private final String mRobotCheckQuery;
+    /** The selectors of each field, in the order of the queries. */
+    private final String[][] mSelectors;
+    private final Evaluator[][] mEvaluators;
+    private final Evaluator mRobotCheck;
+    /**
+     * The selectors compiled for {@link StreamingItemExtractor}, or {@code null} if unsupported.
+     */
+    private final StreamingItemExtractor.ElementPattern[][] mStreamingPatterns;
+
+    /**
+     * Compiles the rules.
+     * @param dealPriceQuery    Selects the elements which contain the price on sale.
+     * @param priceQuery        Selects the elements which contain the current price.
+     * @param titleQuery        Selects the elements which contain the title.
+     * @param robotCheckQuery   Selects an element which is only in the robot check page.
+     * @throws org.jsoup.select.Selector.SelectorParseException If a query is not valid.
+     */
+    public ExtractionRules(String dealPriceQuery, String priceQuery, String titleQuery,
+                           String robotCheckQuery) {
+
+        this.mDealPriceQuery = dealPriceQuery;
+        this.mPriceQuery = priceQuery;
+        this.mTitleQuery = titleQuery;
+        this.mRobotCheckQuery = robotCheckQuery;
+        this.mSelectors = new String[][] {
+                splitSelectors(dealPriceQuery),
+                splitSelectors(priceQuery),
+                splitSelectors(titleQuery) };
+        this.mEvaluators = new Evaluator[mSelectors.length][];
+        for (int field = 0; field < mSelectors.length; field++) {
+            mEvaluators[field] = new Evaluator[mSelectors[field].length];
+            for (int i = 0; i < mSelectors[field].length; i++) {
+                mEvaluators[field][i] = QueryParser.parse(mSelectors[field][i]);
+            }
+        }
+        this.mRobotCheck = QueryParser.parse(robotCheckQuery);
+
+        StreamingItemExtractor.ElementPattern[][] patterns =
+                new StreamingItemExtractor.ElementPattern[mSelectors.length + 1][];
+        try {
+            for (int field = 0; field < mSelectors.length; field++) {
+                patterns[field] =
+                        new StreamingItemExtractor.ElementPattern[mSelectors[field].length];
+                for (int i = 0; i < mSelectors[field].length; i++) {
+                    patterns[field][i] = StreamingItemExtractor.ElementPattern
+                            .compileSelector(mSelectors[field][i]);
+                }
+            }
+            patterns[mSelectors.length] =
+                    StreamingItemExtractor.ElementPattern.compile(robotCheckQuery);
+        } catch (IllegalArgumentException e) {
+            // The pages will be parsed instead:
+            patterns = null;
+        }
+        this.mStreamingPatterns = patterns;
+
+    }
+
+    /**
+     * Finds the elements of the product in a tree.
+     * @param root          The root of the tree, usually the document.
+     * @param scrapeTitle   Whether to look for the title besides the price.
+     * @return  The elements found.
+     */
+    public Match apply(Element root, boolean scrapeTitle) {
+        return apply(root, true, scrapeTitle);
+    }
+
+    /**
+     * Finds the elements of the product in a tree, looking only for the fields requested. The
+     * robot check is always looked for.
+     * @param root          The root of the tree, usually the document.
+     * @param scrapePrice   Whether to look for the prices, for example if they haven't been
+     *                      found in the {@link StructuredData} of the page.
+     * @param scrapeTitle   Whether to look for the title.
+     * @return  The elements found.
+     */
+    public Match apply(final Element root, final boolean scrapePrice, final boolean scrapeTitle) {
+
+        final Match match = new Match();
+
+        NodeTraversor.filter(new NodeFilter() {
+
+            @Override
+            public FilterResult head(Node node, int depth) {
+
+                if (!(node instanceof Element)) {
+                    return FilterResult.CONTINUE;
+                }
+                Element element = (Element) node;
+
+                if (scrapePrice && match.dealPrice == null &&
+                        matches(FIELD_DEAL_PRICE, element)) {
+                    match.dealPrice = element;
+                }
+                if (scrapePrice && match.price == null && matches(FIELD_PRICE, element)) {
+                    match.price = element;
+                }
+                if (scrapeTitle && match.title == null && matches(FIELD_TITLE, element)) {
+                    match.title = element;
+                }
+                if (mRobotCheck.matches(root, element)) {
+                    match.robotCheck = true;
+                    return FilterResult.STOP;
+                }
+
+                // The deal price takes precedence over the current price, so nothing else is
+                // needed once it has been found:
+                if ((!scrapePrice || match.dealPrice != null) &&
+                        (!scrapeTitle || match.title != null)) {
+                    return FilterResult.STOP;
+                }
+
+                return FilterResult.CONTINUE;
+
+            }
+
+            @Override
+            public FilterResult tail(Node node, int depth) {
+                return FilterResult.CONTINUE;
+            }
+
+            /**
+             * Tries the selectors of a field, recording the one which matches.
+             */
+            private boolean matches(int field, Element element) {
+                for (int i = 0; i < mEvaluators[field].length; i++) {
+                    if (mEvaluators[field][i].matches(root, element)) {
+                        match.selectors[field] = i;
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+        }, root);
+
+        return match;
+
+    }
+
+    public String getDealPriceQuery() { return mDealPriceQuery; }
+
+    public String getPriceQuery() { return mPriceQuery; }
+
+    public String getTitleQuery() { return mTitleQuery; }
+
+    public String getRobotCheckQuery() { return mRobotCheckQuery; }
+
+    /**
+     * Returns the selectors of a field, in the order of its query.
+     * @param field One of the {@code FIELD_} constants.
+     */
+    String[] getSelectors(int field) { return mSelectors[field]; }
+
+    /**
+     * Returns the patterns used by {@link StreamingItemExtractor}: one for each selector of the
+     * deal price, the price and the title, in the order of the queries, then the patterns of the
+     * robot check.
+     * @return  The patterns, or {@code null} if a query is not supported by the streaming
+     *          extractor.
+     */
+    StreamingItemExtractor.ElementPattern[][] getStreamingPatterns() { return mStreamingPatterns; }
+
+    /**
+     * Splits a CSS query into its alternative selectors, at the commas which are not inside
+     * brackets, parentheses or quotes.
+     */
+    static String[] splitSelectors(String query) {
+
+        List<String> selectors = new ArrayList<>();
+        int depth = 0;
+        char quote = 0;
+        int start = 0;
+
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '[' || c == '(') {
+                depth++;
+            } else if (c == ']' || c == ')') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                selectors.add(query.substring(start, i).trim());
+                start = i + 1;
+            }
+        }
+        selectors.add(query.substring(start).trim());
+
+        return selectors.toArray(new String[selectors.size()]);
+
+    }
+
+}
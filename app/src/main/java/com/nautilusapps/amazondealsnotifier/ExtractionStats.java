@@ -0,0 +1,80 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts, for each way the price can be found in a page, how many pages it has been used for, how
+ * many of them it has found the price in, and how long the extraction took. Each page is accounted
+ * to the path whose result has been kept: the structured data if the page has any, otherwise the
+ * selectors which the extractor has fallen back to. It can be updated by several threads at the
+ * same time.
+ */
+public class ExtractionStats {
+
+    /**
+     * A way of finding the price in a page.
+     */
+    public enum Path {
+        /** The machine-readable price embedded in the page, see {@link StructuredData}. */
+        STRUCTURED_DATA,
+        /** The selectors of the {@link ExtractionRules}, by {@link StreamingItemExtractor}. */
+        STREAMING_SELECTORS,
+        /** The selectors of the {@link ExtractionRules}, by {@link DocumentItemExtractor}. */
+        DOCUMENT_SELECTORS
+    }
+
+    private static final int PATHS = Path.values().length;
+    private final AtomicLongArray mPages = new AtomicLongArray(PATHS);
+    private final AtomicLongArray mHits = new AtomicLongArray(PATHS);
+    private final AtomicLongArray mNanos = new AtomicLongArray(PATHS);
+
+    /**
+     * Accounts a page.
+     * @param path  The path whose result has been kept.
+     * @param hit   Whether the price has been found.
+     * @param nanos Time taken to extract the data from the page, in nanoseconds, including the
+     *              time spent waiting for the body.
+     */
+    public void onPageExtracted(Path path, boolean hit, long nanos) {
+        mPages.incrementAndGet(path.ordinal());
+        if (hit) {
+            mHits.incrementAndGet(path.ordinal());
+        }
+        mNanos.addAndGet(path.ordinal(), nanos);
+    }
+
+    /**
+     * Returns the number of pages accounted to a path.
+     */
+    public long getPages(Path path) { return mPages.get(path.ordinal()); }
+
+    /**
+     * Returns the number of pages a path has found the price in.
+     */
+    public long getHits(Path path) { return mHits.get(path.ordinal()); }
+
+    /**
+     * Returns the mean time taken to extract the data of a page with a path, in millis, or 0 if
+     * the path hasn't been used.
+     */
+    public double getMeanLatency(Path path) {
+        long pages = getPages(path);
+        return (pages == 0) ? 0 : mNanos.get(path.ordinal()) / 1e6 / pages;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Path path : Path.values()) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(path.name().toLowerCase(Locale.ENGLISH)).append('=')
+                    .append(getHits(path)).append('/').append(getPages(path))
+                    .append(String.format(" %.1fms", getMeanLatency(path)));
+        }
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,101 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Downloads the pages of the products.
+ * @see UrlConnectionTransport
+ */
+public interface HttpTransport {
+
+    /**
+     * Represents a GET request.
+     */
+    class Request {
+
+        /** Default time to wait for a connection, in millis. */
+        public static final int DEFAULT_CONNECT_TIMEOUT = 15 * 1000;
+        /** Default time to wait for data once connected, in millis. */
+        public static final int DEFAULT_READ_TIMEOUT = 20 * 1000;
+
+        /** URL to request. */
+        public final String url;
+        /** Headers to send, besides the ones needed by the transport. */
+        public final Map<String, String> headers;
+        /** Time to wait for a connection, in millis. */
+        public int connectTimeout;
+        /** Time to wait for data once connected, in millis. */
+        public int readTimeout;
+
+        public Request(String url) {
+            this.url = url;
+            this.headers = new LinkedHashMap<>();
+            this.connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+            this.readTimeout = DEFAULT_READ_TIMEOUT;
+        }
+
+        /**
+         * Sets a header and returns the request.
+         */
+        public Request header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+    }
+
+    /**
+     * Represents a response. It must be closed once the body is no longer needed, even if the body
+     * hasn't been read completely.
+     */
+    interface Response extends Closeable {
+
+        /**
+         * Returns the HTTP status code.
+         */
+        int getStatusCode();
+
+        /**
+         * Returns the URL of the response, which differs from the URL of the request if the
+         * request has been redirected.
+         */
+        String getUrl();
+
+        /**
+         * Returns the value of a header, or {@code null} if the response doesn't have it.
+         */
+        String getHeader(String name);
+
+        /**
+         * Returns the charset declared by the response, or {@code null} if not declared.
+         */
+        String getCharset();
+
+        /**
+         * Returns the body, already decompressed.
+         */
+        InputStream getBody();
+
+        /**
+         * Releases the connection. If the body has been read completely, the connection can be
+         * reused by the next requests to the same host.
+         */
+        @Override
+        void close();
+
+    }
+
+    /**
+     * Sends a GET request and returns as soon as the headers of the response have been received.
+     * @param request   The request.
+     * @param stats     Where to account the bytes transferred, or {@code null}.
+     * @return  The response. Its status code may be an error code.
+     * @throws IOException  If the connection fails.
+     */
+    Response execute(Request request, TransferStats stats) throws IOException;
+
+}
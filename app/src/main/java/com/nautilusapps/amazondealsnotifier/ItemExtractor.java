@@ -0,0 +1,25 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Scrapes the data of an Amazon product from the body of its page.
+ * @see DocumentItemExtractor
+ * @see StreamingItemExtractor
+ */
+public interface ItemExtractor {
+
+    /**
+     * Scrapes the data of a product and stores it in the result. The extractor may stop reading
+     * the body as soon as it has found what it needs; the caller is in charge of closing it.
+     * @param in            Body of the page.
+     * @param charset       Charset of the page, or {@code null} if unknown.
+     * @param result        Where to store the data. Its URL is used as the base URI of the page.
+     * @param scrapeTitle   Whether to scrape the title besides the price.
+     * @throws IOException  If the body can't be read.
+     */
+    void extract(InputStream in, String charset, LookUpResult result, boolean scrapeTitle)
+            throws IOException;
+
+}
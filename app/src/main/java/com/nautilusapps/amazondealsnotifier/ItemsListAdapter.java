@@ -88,27 +88,28 @@ public class ItemsListAdapter extends RecyclerView.Adapter {
         AmazonItem item = this.mAmazonItems.get(position);
         Resources resources = holder.itemView.getResources();
         String title = item.title;
-        Float currentPrice = item.currentPrice;
-        Float previousPrice = item.previousPrice;
+        long currentPrice = item.currentPrice;
+        long previousPrice = item.previousPrice;
 
         if (title != null) {
             ((ItemHolder) holder).titleTextView.setText(title);
         }
 
-        if (currentPrice != null) {
+        if (currentPrice != AmazonItem.NO_PRICE) {
             ((ItemHolder) holder).currentPriceTextView.setText(
                     String.format(
                             resources.getString(R.string.title_current_price),
-                            String.format("%.2f", currentPrice)));
+                            Money.format(currentPrice, item.currency)));
         }
 
         // If there is a previous price:
-        if (currentPrice != null && previousPrice != null) {
+        if (currentPrice != AmazonItem.NO_PRICE && previousPrice != AmazonItem.NO_PRICE) {
 
-            Float difference = currentPrice - previousPrice;
-            Float percent =  difference / previousPrice * 100;
-            String priceVariation = String.format("%.2f", difference);
-            String priceVariationPercent = String.format("%.1f", percent);
+            long difference = currentPrice - previousPrice;
+            String priceVariation = Money.format(difference, item.currency);
+            String priceVariationPercent = (previousPrice != 0)
+                    ? String.format("%.1f", difference * 100.0 / previousPrice)
+                    : "";
 
             if (difference > 0) {
                 priceVariation = "+" + priceVariation;
@@ -184,7 +185,7 @@ public class ItemsListAdapter extends RecyclerView.Adapter {
                 super.onDismissed(transientBottomBar, event);
 
                 if (remove) {
-                    DBHandler dbHandler = new DBHandler(mContext);
+                    DBHandler dbHandler = DBHandler.getInstance(mContext);
                     dbHandler.removeItem(mItemToRemove);
                 }
 
@@ -0,0 +1,455 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Owns the threads used to look up Amazon products. The same bounded pool of workers is shared by
+ * every {@link AmazonItemLookUp} in the process, so a look up doesn't pay the cost of creating and
+ * tearing down its own threads.<br>
+ * The engine also keeps track of the pages being fetched, so that two look ups running at the same
+ * time fetch the page of a product only once.
+ */
+public class LookUpEngine {
+
+    /**
+     * Receives the result of a page fetched by another look up.
+     * @see #joinFlight(String, boolean, FlightListener)
+     */
+    interface FlightListener {
+
+        /**
+         * Called on the thread which fetched the page.
+         * @param result    The data scraped from the page, which must not be modified, or
+         *                  {@code null} if the look up fetching the page has been cancelled. The
+         *                  listener must then fetch the page itself.
+         */
+        void onFlightComplete(LookUpResult result);
+
+    }
+
+    /**
+     * A page being fetched, with the look ups waiting for it.
+     */
+    static final class Flight {
+
+        private final String mKey;
+        private final boolean mScrapeTitle;
+        private final List<FlightListener> mListeners = new ArrayList<>();
+
+        private Flight(String key, boolean scrapeTitle) {
+            this.mKey = key;
+            this.mScrapeTitle = scrapeTitle;
+        }
+
+    }
+
+    /**
+     * Creates daemon threads with a recognizable name.
+     */
+    private static class NamedThreadFactory implements ThreadFactory {
+
+        private final String mPrefix;
+        private final AtomicInteger mCount = new AtomicInteger(1);
+
+        public NamedThreadFactory(String prefix) { this.mPrefix = prefix; }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, mPrefix + "-" + mCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
+    /** Default number of concurrent look ups. */
+    public static final int DEFAULT_CONCURRENCY = 8;
+    /**
+     * How many times the configured concurrency the {@link AdaptiveConcurrencyLimiter} can reach
+     * while the marketplaces answer quickly. The workers are as many as its ceiling.
+     */
+    static final int CONCURRENCY_HEADROOM = 2;
+    /** Default max number of pages which can be parsed at the same time. */
+    public static final int DEFAULT_MAX_LIVE_DOCUMENTS = 4;
+    /** Time after which an idle worker is terminated, in millis. */
+    private static final long KEEP_ALIVE_TIME = 30 * 1000;
+    private static LookUpEngine sInstance;
+    /** Runs the fetch and parse tasks. */
+    private final ThreadPoolExecutor mWorkers;
+    /** Runs the asynchronous look ups, which wait for the workers. */
+    private final ExecutorService mDispatcher;
+    /** Hands the delayed tasks to the workers once their slot has come. */
+    private final ScheduledExecutorService mScheduler;
+    /** Spaces the requests to each marketplace. */
+    private final RateLimiter mRateLimiter;
+    /** Stops the requests to the marketplaces which keep refusing them. */
+    private final CircuitBreaker mCircuitBreaker;
+    /** Adjusts the number of requests in flight, up to the number of workers. */
+    private final AdaptiveConcurrencyLimiter mConcurrencyLimiter;
+    /** Number of concurrent look ups set with {@link #setConcurrency(int)}. */
+    private int mConcurrency;
+    /** Guards the count of the pages in memory. */
+    private final Object mDocumentsLock = new Object();
+    private int mMaxLiveDocuments;
+    private int mLiveDocuments;
+    private int mPeakLiveDocuments;
+    private volatile ItemExtractor mItemExtractor;
+    private volatile HttpTransport mHttpTransport;
+    private volatile SelectorProfiles mSelectorProfiles;
+    private volatile PageArchive mPageArchive;
+    /** Counts the hits of the selectors, to report the ones which have stopped matching. */
+    private final RuleStats mRuleStats;
+    /** Remembers the pages already scraped. */
+    private final PageCache mPageCache;
+    /** Counts the pages whose price has been found by each path of the extractors. */
+    private final ExtractionStats mExtractionStats = new ExtractionStats();
+    /** The pages being fetched, by product key. Guards itself. */
+    private final Map<String, Flight> mFlights = new HashMap<>();
+    /** Number of fetches joined by another look up, guarded by {@link #mFlights}. */
+    private long mJoinedFlights;
+
+    private LookUpEngine() {
+
+        this.mConcurrency = DEFAULT_CONCURRENCY;
+        this.mWorkers = new ThreadPoolExecutor(
+                DEFAULT_CONCURRENCY * CONCURRENCY_HEADROOM,
+                DEFAULT_CONCURRENCY * CONCURRENCY_HEADROOM,
+                KEEP_ALIVE_TIME,
+                TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new NamedThreadFactory("LookUpWorker"));
+        // Don't keep idle threads around between two updates:
+        this.mWorkers.allowCoreThreadTimeOut(true);
+
+        this.mDispatcher = Executors.newCachedThreadPool(new NamedThreadFactory("LookUp"));
+        this.mScheduler = Executors.newSingleThreadScheduledExecutor(
+                new NamedThreadFactory("LookUpScheduler"));
+        this.mRateLimiter = new RateLimiter();
+        this.mCircuitBreaker = new CircuitBreaker();
+        this.mConcurrencyLimiter =
+                new AdaptiveConcurrencyLimiter(DEFAULT_CONCURRENCY * CONCURRENCY_HEADROOM);
+
+        this.mMaxLiveDocuments = DEFAULT_MAX_LIVE_DOCUMENTS;
+        this.mLiveDocuments = 0;
+        this.mPeakLiveDocuments = 0;
+
+        this.mItemExtractor = new StreamingItemExtractor();
+        this.mHttpTransport = new UrlConnectionTransport();
+        this.mSelectorProfiles = SelectorProfiles.getBundled();
+        this.mRuleStats = new RuleStats();
+        this.mPageCache = new PageCache();
+
+    }
+
+    /**
+     * Returns the instance shared by the whole process.
+     */
+    public static synchronized LookUpEngine getInstance() {
+        if (sInstance == null) {
+            sInstance = new LookUpEngine();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Sets the number of concurrent look ups. The running tasks are not interrupted. The actual
+     * number of requests in flight is adjusted by the {@link AdaptiveConcurrencyLimiter} of the
+     * engine, which can go up to {@link #CONCURRENCY_HEADROOM} times as many while the
+     * marketplaces answer quickly, and well below it while they slow down.
+     * @param concurrency   Number of concurrent look ups, must be greater than 0.
+     */
+    public synchronized void setConcurrency(int concurrency) {
+
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("concurrency must be greater than 0");
+        }
+
+        int maxConcurrency = concurrency * CONCURRENCY_HEADROOM;
+        // The core size can't exceed the max size, so the order of the updates matters:
+        if (maxConcurrency > mWorkers.getMaximumPoolSize()) {
+            mWorkers.setMaximumPoolSize(maxConcurrency);
+            mWorkers.setCorePoolSize(maxConcurrency);
+        } else {
+            mWorkers.setCorePoolSize(maxConcurrency);
+            mWorkers.setMaximumPoolSize(maxConcurrency);
+        }
+        mConcurrencyLimiter.setMaxLimit(maxConcurrency);
+        this.mConcurrency = concurrency;
+
+    }
+
+    /**
+     * Returns the number of concurrent look ups set with {@link #setConcurrency(int)}.
+     */
+    public synchronized int getConcurrency() { return mConcurrency; }
+
+    /**
+     * Sets the engine used to scrape the pages. By default it is a {@link StreamingItemExtractor}.
+     * @param itemExtractor The extractor. It must be safe to use from several threads.
+     */
+    public void setItemExtractor(ItemExtractor itemExtractor) {
+        this.mItemExtractor = itemExtractor;
+        mPageCache.clear();
+    }
+
+    /**
+     * Returns the engine used to scrape the pages.
+     */
+    public ItemExtractor getItemExtractor() { return mItemExtractor; }
+
+    /**
+     * Sets the transport used to download the pages. By default it is an
+     * {@link UrlConnectionTransport}.
+     * @param httpTransport The transport. It must be safe to use from several threads.
+     */
+    public void setHttpTransport(HttpTransport httpTransport) {
+        this.mHttpTransport = httpTransport;
+    }
+
+    /**
+     * Returns the transport used to download the pages.
+     */
+    public HttpTransport getHttpTransport() { return mHttpTransport; }
+
+    /**
+     * Sets the rules used to find the data in the pages. By default they are the ones bundled with
+     * the app, see {@link SelectorProfiles#getBundled()}.
+     */
+    public void setSelectorProfiles(SelectorProfiles selectorProfiles) {
+        this.mSelectorProfiles = selectorProfiles;
+        mPageCache.clear();
+    }
+
+    /**
+     * Returns the rules used to find the data in the pages.
+     */
+    public SelectorProfiles getSelectorProfiles() { return mSelectorProfiles; }
+
+    /**
+     * Returns the cache of the pages already scraped, which also counts the hits and the misses.
+     */
+    public PageCache getPageCache() { return mPageCache; }
+
+    /**
+     * Sets the archive where the pages scraped are kept, to scrape them again offline. By default
+     * there is none.
+     * @param pageArchive   The archive, or {@code null} not to archive the pages.
+     */
+    public void setPageArchive(PageArchive pageArchive) { this.mPageArchive = pageArchive; }
+
+    /**
+     * Returns the archive where the pages scraped are kept, or {@code null} if there is none.
+     */
+    public PageArchive getPageArchive() { return mPageArchive; }
+
+    /**
+     * Returns the hits of the selectors, counted by the extractors.
+     */
+    public RuleStats getRuleStats() { return mRuleStats; }
+
+    /**
+     * Returns the pages, the hits and the latency of each path of the extractors.
+     */
+    public ExtractionStats getExtractionStats() { return mExtractionStats; }
+
+    /**
+     * Returns the limiter which spaces the requests to each marketplace. It is shared by every look
+     * up, so two look ups running at the same time don't exceed the rate of a marketplace.
+     */
+    public RateLimiter getRateLimiter() { return mRateLimiter; }
+
+    /**
+     * Returns the breaker which stops the requests to the marketplaces which keep refusing them,
+     * for example with a robot check. It is shared by every look up, so a marketplace which
+     * refused the requests of a look up is not hammered by the next one.
+     */
+    public CircuitBreaker getCircuitBreaker() { return mCircuitBreaker; }
+
+    /**
+     * Returns the limiter which adjusts the number of requests in flight from the latency and the
+     * errors observed. It can be used to check the current concurrency and throughput.
+     */
+    public AdaptiveConcurrencyLimiter getConcurrencyLimiter() { return mConcurrencyLimiter; }
+
+    /**
+     * Sets the max number of pages which can be parsed into a tree at the same time, regardless of
+     * the number of workers. A product page takes several MB once parsed, so this bounds the
+     * memory used by a look up, while the requests themselves are bounded only by the workers and
+     * the {@link AdaptiveConcurrencyLimiter}. The pages already in memory are not affected.
+     * @param maxLiveDocuments  Max number of pages in memory, must be greater than 0.
+     */
+    public void setMaxLiveDocuments(int maxLiveDocuments) {
+
+        if (maxLiveDocuments <= 0) {
+            throw new IllegalArgumentException("maxLiveDocuments must be greater than 0");
+        }
+
+        synchronized (mDocumentsLock) {
+            this.mMaxLiveDocuments = maxLiveDocuments;
+            mDocumentsLock.notifyAll();
+        }
+
+    }
+
+    /**
+     * Returns the max number of pages which can be in memory at the same time.
+     */
+    public int getMaxLiveDocuments() {
+        synchronized (mDocumentsLock) {
+            return mMaxLiveDocuments;
+        }
+    }
+
+    /**
+     * Returns the highest number of pages which have been in memory at the same time since the
+     * last call to {@link #resetPeakLiveDocuments()}.
+     */
+    public int getPeakLiveDocuments() {
+        synchronized (mDocumentsLock) {
+            return mPeakLiveDocuments;
+        }
+    }
+
+    /**
+     * Resets the highest number of pages which have been in memory at the same time.
+     */
+    public void resetPeakLiveDocuments() {
+        synchronized (mDocumentsLock) {
+            this.mPeakLiveDocuments = mLiveDocuments;
+        }
+    }
+
+    /**
+     * Blocks until a page can be loaded in memory. Every successful call must be followed by a
+     * call to {@link #releaseDocument()} once the page is no longer referenced.
+     * @throws InterruptedException If the calling thread is interrupted while waiting.
+     */
+    void acquireDocument() throws InterruptedException {
+        synchronized (mDocumentsLock) {
+            while (mLiveDocuments >= mMaxLiveDocuments) {
+                mDocumentsLock.wait();
+            }
+            mLiveDocuments++;
+            if (mLiveDocuments > mPeakLiveDocuments) {
+                mPeakLiveDocuments = mLiveDocuments;
+            }
+        }
+    }
+
+    /**
+     * Signals that a page acquired with {@link #acquireDocument()} is no longer in memory.
+     */
+    void releaseDocument() {
+        synchronized (mDocumentsLock) {
+            mLiveDocuments--;
+            mDocumentsLock.notifyAll();
+        }
+    }
+
+    /**
+     * Starts fetching the page of a product, unless another look up is already fetching it, in
+     * which case the listener is notified of its result. A fetch which doesn't scrape the title
+     * can't be joined by a look up which needs it.
+     * @param key           The key of the product, see {@link ProductKey}.
+     * @param scrapeTitle   Whether the title is needed besides the price.
+     * @param listener      Notified of the result, if the fetch of another look up is joined.
+     * @return  The flight which the caller must fetch the page for and then pass to
+     *          {@link #landFlight(Flight, LookUpResult)}, or {@code null} if the listener has
+     *          joined another flight.
+     */
+    Flight joinFlight(String key, boolean scrapeTitle, FlightListener listener) {
+
+        synchronized (mFlights) {
+
+            Flight flight = mFlights.get(key);
+            if (flight != null && (flight.mScrapeTitle || !scrapeTitle)) {
+                flight.mListeners.add(listener);
+                mJoinedFlights++;
+                return null;
+            }
+
+            // A flight which can't be joined is left in place, for the ones already waiting:
+            Flight newFlight = new Flight(key, scrapeTitle);
+            if (flight == null) {
+                mFlights.put(key, newFlight);
+            }
+            return newFlight;
+
+        }
+
+    }
+
+    /**
+     * Stops waiting for the page of a product, joined with
+     * {@link #joinFlight(String, boolean, FlightListener)}.
+     */
+    void leaveFlight(String key, FlightListener listener) {
+        synchronized (mFlights) {
+            Flight flight = mFlights.get(key);
+            if (flight != null) {
+                flight.mListeners.remove(listener);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of times a look up has waited for the page of a product fetched by
+     * another look up running at the same time, instead of fetching it again.
+     */
+    public long getJoinedFlights() {
+        synchronized (mFlights) {
+            return mJoinedFlights;
+        }
+    }
+
+    /**
+     * Ends a flight and hands its result to the look ups which have joined it.
+     * @param result    The data scraped from the page, or {@code null} if the fetch has been
+     *                  abandoned, in which case the look ups waiting for it must fetch the page
+     *                  themselves.
+     */
+    void landFlight(Flight flight, LookUpResult result) {
+
+        List<FlightListener> listeners;
+        synchronized (mFlights) {
+            if (mFlights.get(flight.mKey) == flight) {
+                mFlights.remove(flight.mKey);
+            }
+            listeners = new ArrayList<>(flight.mListeners);
+            flight.mListeners.clear();
+        }
+
+        for (FlightListener listener : listeners) {
+            listener.onFlightComplete(result);
+        }
+
+    }
+
+    /**
+     * Returns the executor which runs the fetch and parse tasks.
+     */
+    ExecutorService getWorkers() { return mWorkers; }
+
+    /**
+     * Returns the executor which runs the asynchronous look ups.
+     */
+    ExecutorService getDispatcher() { return mDispatcher; }
+
+    /**
+     * Returns the executor which delays the tasks until the rate limiter lets them go. Its tasks
+     * must be short, they should only hand the actual work to the workers.
+     */
+    ScheduledExecutorService getScheduler() { return mScheduler; }
+
+}
@@ -0,0 +1,96 @@
+package com.nautilusapps.amazondealsnotifier;
+
+/**
+ * Represents the data scraped from the page of an Amazon product. It is small and doesn't keep any
+ * reference to the page it was scraped from.
+ */
+public class LookUpResult {
+
+    /**
+     * What the server sent instead of the page of the product, if anything.
+     */
+    public enum PageType {
+        /** No page has been received, for example because of a connection error. */
+        NONE,
+        /** The page of the product, which the data has been scraped from. */
+        PRODUCT,
+        /** A robot check, sent by Amazon when it suspects that the requests are automated. */
+        ROBOT_CHECK,
+        /** An error page telling that the product doesn't exist, such as HTTP 404. */
+        NOT_FOUND,
+        /** A page which is not the one of a product, such as a search, after a redirect. */
+        NOT_PRODUCT,
+        /** Any other error page, such as HTTP 503. */
+        ERROR,
+        /** No request has been sent, since the marketplace is refusing them. */
+        SKIPPED
+    }
+
+    /** URL of the product. */
+    public final String url;
+    /** Title of the product, or {@code null} if not found or not requested. */
+    public String title;
+    /** Price of the product, in minor units, or {@link AmazonItem#NO_PRICE} if not found. */
+    public long price;
+    /** ISO 4217 code of the currency of the price, or {@code null} if not known. */
+    public String currency;
+    /**
+     * Whether the page of the product has been downloaded and parsed. Only then the price can be
+     * trusted, even if not found.
+     */
+    public boolean successful;
+    /** What has been received, which tells why the look up has failed. */
+    public PageType pageType;
+    /** HTTP status code of the page, or 0 if no response has been received. */
+    public int statusCode;
+    /**
+     * Whether Amazon refused the request, by answering with an error such as HTTP 503 or with a
+     * robot check instead of the page of the product.
+     */
+    public boolean throttled;
+    /** Number of times the page has been requested. */
+    public int attempts;
+
+    /**
+     * Instantiates an unsuccessful result.
+     * @param url   URL of the product.
+     */
+    public LookUpResult(String url) {
+        this.url = url;
+        this.title = null;
+        this.price = AmazonItem.NO_PRICE;
+        this.currency = null;
+        this.successful = false;
+        this.pageType = PageType.NONE;
+        this.statusCode = 0;
+        this.throttled = false;
+        this.attempts = 0;
+    }
+
+    /**
+     * Instantiates a copy of a result for another URL of the same product.
+     * @param url       URL of the product.
+     * @param result    The result to copy.
+     */
+    public LookUpResult(String url, LookUpResult result) {
+        this.url = url;
+        this.title = result.title;
+        this.price = result.price;
+        this.currency = result.currency;
+        this.successful = result.successful;
+        this.pageType = result.pageType;
+        this.statusCode = result.statusCode;
+        this.throttled = result.throttled;
+        this.attempts = result.attempts;
+    }
+
+    /**
+     * Classifies a page once it has been scraped: unless the extractor has found a robot check,
+     * it is the page of the product.
+     */
+    void onScraped() {
+        this.pageType = throttled ? PageType.ROBOT_CHECK : PageType.PRODUCT;
+        this.successful = !throttled;
+    }
+
+}
@@ -18,6 +18,7 @@ import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.Toolbar;
 import android.support.v7.widget.helper.ItemTouchHelper;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
@@ -26,6 +27,12 @@ import android.widget.ScrollView;
 import android.widget.TextView;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.LinkedList;
@@ -39,6 +46,9 @@ import java.util.regex.Pattern;
  */
 public class MainActivity extends AppCompatActivity {
 
+    private static final String TAG = "MainActivity";
+    /** Whether the hits of the selectors have been loaded in this process. */
+    private static boolean sRuleStatsLoaded = false;
     private SwipeRefreshLayout mItemsListSwipeRefreshLayout;
     private RecyclerView mItemsOnSaleList, mItemsNotDiscountedList;
     private TextView mItemsOnSaleSubheader, mItemsNotDiscountedSubheader;
@@ -73,8 +83,8 @@ public class MainActivity extends AppCompatActivity {
 
                     /**
                      * Tries to update the items list. If fails, shows an error message. If
-                     * successful, shows a success message, refreshes the items list, and
-                     * schedules the next update.
+                     * successful, even partially, shows how many items have been updated,
+                     * refreshes the items list, and schedules the next update.
                      */
                     @SuppressLint("StaticFieldLeak")
                     @Override
@@ -82,16 +92,16 @@ public class MainActivity extends AppCompatActivity {
 
                         new AsyncTask<Void, Void, Void>() {
 
-                            boolean successful = false;
+                            UpdateReport report = null;
 
                             @Override
                             protected Void doInBackground(Void... voids) {
 
                                 // Try to update the items in the database:
-                                if(updateItems(getApplicationContext(), 0)) {
+                                report = updateItems(getApplicationContext(), 0);
+                                if (!report.isFailed()) {
                                     UpdateService.scheduleUpdate(getApplicationContext(),
                                             getUpdateFrequency(getApplicationContext()));
-                                    successful = true;
                                 }
 
                                 return null;
@@ -104,11 +114,24 @@ public class MainActivity extends AppCompatActivity {
                                 super.onPostExecute(aVoid);
                                 mItemsListSwipeRefreshLayout.setRefreshing(false);
 
-                                if (successful) {
-                                    refreshList();
+                                // The list is only built again if some prices have changed:
+                                if (report.isComplete()) {
+                                    if (!report.getChangedItems().isEmpty()) {
+                                        refreshList();
+                                    }
                                     Snackbar.make(findViewById(android.R.id.content),
                                             getString(R.string.msg_update_successful),
                                             Snackbar.LENGTH_SHORT).show();
+                                } else if (!report.isFailed()) {
+                                    if (!report.getChangedItems().isEmpty()) {
+                                        refreshList();
+                                    }
+                                    Snackbar.make(findViewById(android.R.id.content),
+                                            String.format(
+                                                    getString(R.string.msg_update_partial),
+                                                    report.getUpdated(),
+                                                    report.getTotal()),
+                                            Snackbar.LENGTH_LONG).show();
                                 } else {
                                     Snackbar.make(findViewById(android.R.id.content),
                                             getString(R.string.error_update_unsuccessful),
@@ -394,36 +417,138 @@ public class MainActivity extends AppCompatActivity {
 
     }
 
+    public static int getLookUpConcurrency(Context context) {
+
+        Resources resources = context.getResources();
+
+        SharedPreferences sharedPreferences = context.getSharedPreferences(
+                context.getString(R.string.sharedpref_file_name),
+                MODE_PRIVATE
+        );
+
+        String lookUpConcurrencyIndex = sharedPreferences.getString(
+                context.getString(R.string.pref_key_lookup_concurrency),
+                context.getString(R.string.pref_default_lookup_concurrency));
+
+        int index = Integer.valueOf(lookUpConcurrencyIndex);
+
+        return resources.getIntArray(R.array.pref_real_values_lookup_concurrency)[index];
+
+    }
+
     /**
-     * Tries to update the items in the database. If any item could not be updated because of a
-     * connection error, returns {@code false}. If the update has been done completely, returns
-     * {@code true}.
-     * @param maxDelay  Max time to wait between each connection.
-     * @return  {@code true} if every item has been updated correctly, {@code false} in case of a
-     *          connection error.
+     * Tries to update the items in the database. Each item which fails is attempted again with
+     * backoff, without fetching again the items already updated. The items which have been looked
+     * up are saved even if some others have failed; the ones which failed keep their data and
+     * their failure is recorded.
+     * @param maxDelay  Max time to wait between two requests to the same marketplace.
+     * @return  How many items have been updated and how many have failed.
      */
-    public static boolean updateItems(Context context, int maxDelay) {
+    public static UpdateReport updateItems(Context context, int maxDelay) {
 
-        DBHandler dbHandler = new DBHandler(context);
+        DBHandler dbHandler = DBHandler.getInstance(context);
         // Get the items from the database:
         List<AmazonItem> oldAmazonItemsList = dbHandler.getItems();
         AmazonItem[] oldAmazonItems = oldAmazonItemsList
                 .toArray(new AmazonItem[oldAmazonItemsList.size()]);
 
+        LookUpEngine.getInstance().setConcurrency(getLookUpConcurrency(context));
+        loadRuleStats(context);
+        setUpPageArchive(context);
         AmazonItemLookUp amazonItemLookUp = new AmazonItemLookUp(oldAmazonItems, maxDelay);
         AmazonItem[] updatedAmazonItems = amazonItemLookUp.updateAmazonItems();
+        LookUpResult[] results = amazonItemLookUp.getLookUpResults();
+        saveRuleStats(context);
+        Log.i(TAG, "Page cache: " + LookUpEngine.getInstance().getPageCache());
+        Log.i(TAG, "Extraction paths: " + LookUpEngine.getInstance().getExtractionStats());
+        Log.i(TAG, "Concurrency: " + LookUpEngine.getInstance().getConcurrencyLimiter());
+        Log.i(TAG, "Transfer: " + amazonItemLookUp.getTransferStats());
+
+        // Collect the lookups which have failed, and the items whose prices have changed:
+        List<LookUpResult> failedResults = new ArrayList<>();
+        List<AmazonItem> changedItems = new ArrayList<>();
+        for (int i = 0; i < updatedAmazonItems.length; i++) {
+            if (updatedAmazonItems[i] == null) {
+                failedResults.add(results[i]);
+            } else if (!updatedAmazonItems[i].hasSamePrices(oldAmazonItems[i])) {
+                changedItems.add(updatedAmazonItems[i]);
+            }
+        }
+
+        // Update the items in the database, even if some have failed. The rows left as they are
+        // are not written:
+        int changedRows = dbHandler.updateItems(updatedAmazonItems);
+        if (failedResults.size() > 0) {
+            dbHandler.setItemsFailed(failedResults);
+        }
+        Log.i(TAG, "Rows written: " + changedRows);
 
-        // Check if any lookup has failed:
-        for (AmazonItem item : updatedAmazonItems) {
-            if (item == null) {
-                return false;
+        return new UpdateReport(updatedAmazonItems.length - failedResults.size(),
+                failedResults.size(), changedItems);
+
+    }
+
+    /**
+     * Loads the hits of the selectors counted by the previous updates, the first time.
+     */
+    private static synchronized void loadRuleStats(Context context) {
+
+        if (!sRuleStatsLoaded) {
+            File file = new File(context.getFilesDir(), RuleStats.FILE_NAME);
+            if (file.exists()) {
+                try {
+                    InputStream in = new FileInputStream(file);
+                    try {
+                        LookUpEngine.getInstance().getRuleStats().load(in);
+                    } finally {
+                        in.close();
+                    }
+                } catch (IOException e) {
+                    // Start counting again.
+                }
             }
+            sRuleStatsLoaded = true;
         }
 
-        // Update the items in the database:
-        dbHandler.updateItems(updatedAmazonItems);
+    }
 
-        return true;
+    /**
+     * Archives the pages scraped in the cache of the app, where the system can delete them when
+     * the storage is low.
+     */
+    private static synchronized void setUpPageArchive(Context context) {
+        LookUpEngine engine = LookUpEngine.getInstance();
+        if (engine.getPageArchive() == null) {
+            engine.setPageArchive(new PageArchive(
+                    new File(context.getCacheDir(), PageArchive.DIRECTORY_NAME),
+                    PageArchive.DEFAULT_MAX_BYTES));
+        }
+    }
+
+    /**
+     * Saves the hits of the selectors, and reports the selectors which have stopped matching:
+     * Amazon has probably changed the layout of its pages.
+     */
+    private static void saveRuleStats(Context context) {
+
+        RuleStats ruleStats = LookUpEngine.getInstance().getRuleStats();
+
+        File file = new File(context.getFilesDir(), RuleStats.FILE_NAME);
+        try {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                ruleStats.save(out);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            // The counts will be saved at the next update.
+        }
+
+        List<String> staleRules = ruleStats.getStaleRules();
+        if (!staleRules.isEmpty()) {
+            Log.w(TAG, "Selectors which stopped matching: " + staleRules);
+        }
 
     }
 
@@ -434,7 +559,7 @@ public class MainActivity extends AppCompatActivity {
     private void refreshList() {
 
         // Get the items from the database:
-        DBHandler dbHandler = new DBHandler(getApplicationContext());
+        DBHandler dbHandler = DBHandler.getInstance(getApplicationContext());
         List<AmazonItem> items = dbHandler.getItems();
 
         List<AmazonItem> itemsOnSale = new ArrayList<>();
@@ -508,8 +633,7 @@ public class MainActivity extends AppCompatActivity {
      * @return      {@code true} if the item is on sale, {@code false} otherwise.
      */
     private static boolean isItemOnSale(AmazonItem item) {
-        return item != null && item.currentPrice != null && item.previousPrice != null &&
-                item.currentPrice < item.previousPrice;
+        return item != null && item.isOnSale();
     }
 
     /**
@@ -519,7 +643,7 @@ public class MainActivity extends AppCompatActivity {
      */
     public static List<AmazonItem> getItemsOnSale(Context context) {
 
-        DBHandler dbHandler = new DBHandler(context);
+        DBHandler dbHandler = DBHandler.getInstance(context);
         List<AmazonItem> items = dbHandler.getItems();
         List<AmazonItem> itemsOnSale = new LinkedList<>();
 
@@ -0,0 +1,72 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * Formats the amounts of money kept in the minor unit of their currency, as {@link AmazonItem}
+ * does, without converting them to floating point.
+ */
+public class Money {
+
+    private Money() {}
+
+    /**
+     * Formats an amount with the digits of its currency and the decimal separator of the default
+     * locale, such as {@code "549,99"} or {@code "-12.50"}. No currency symbol is added.
+     * @param amount    The amount, in minor units.
+     * @param currency  The ISO 4217 code of the currency, or {@code null} if not known.
+     */
+    public static String format(long amount, String currency) {
+        return format(amount, currency, Locale.getDefault());
+    }
+
+    /**
+     * Formats an amount with the decimal separator of a locale.
+     * @see #format(long, String)
+     */
+    public static String format(long amount, String currency, Locale locale) {
+
+        int fractionDigits = PriceParser.getFractionDigits(currency);
+        long divisor = 1;
+        for (int i = 0; i < fractionDigits; i++) {
+            divisor *= 10;
+        }
+
+        StringBuilder builder = new StringBuilder();
+        if (amount < 0) {
+            builder.append('-');
+        }
+        long units = Math.abs(amount / divisor);
+        long minorUnits = Math.abs(amount % divisor);
+        builder.append(units);
+
+        if (fractionDigits > 0) {
+            builder.append(new DecimalFormatSymbols(locale).getDecimalSeparator());
+            String fraction = String.valueOf(minorUnits);
+            for (int i = fraction.length(); i < fractionDigits; i++) {
+                builder.append('0');
+            }
+            builder.append(fraction);
+        }
+
+        return builder.toString();
+
+    }
+
+    /**
+     * Converts an amount expressed in units, as stored before the prices were kept in minor
+     * units, rounding to the nearest minor unit.
+     * @param value     The amount, in units, such as {@code 549.99}.
+     * @param currency  The ISO 4217 code of the currency, or {@code null} if not known.
+     * @return  The amount, in minor units.
+     */
+    public static long fromUnits(double value, String currency) {
+        double multiplier = 1;
+        for (int i = 0; i < PriceParser.getFractionDigits(currency); i++) {
+            multiplier *= 10;
+        }
+        return Math.round(value * multiplier);
+    }
+
+}
@@ -0,0 +1,427 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps on disk the last page downloaded for each product, compressed with gzip, so that the data
+ * can be scraped again without network access, for example with new rules after Amazon has changed
+ * the layout of its pages, or to benchmark and test the extractors on real pages.<br>
+ * A page is archived as far as the extractor has read it: the whole page if the data was not
+ * found, otherwise the part which contains it. The archive is bounded in size: once full, the
+ * least recently used pages are deleted. It can be used by several threads at the same time.
+ */
+public class PageArchive {
+
+    /**
+     * An archived page.
+     */
+    public static class Page {
+
+        /** URL the page was downloaded from. */
+        public final String url;
+        /** Charset of the page, or {@code null} if unknown. */
+        public final String charset;
+        private final File mFile;
+
+        private Page(String url, String charset, File file) {
+            this.url = url;
+            this.charset = charset;
+            this.mFile = file;
+        }
+
+        /**
+         * Opens the body of the page, decompressed. The caller is in charge of closing it.
+         * @throws IOException  If the page can't be read, for example because it has been
+         *                      evicted in the meanwhile.
+         */
+        public InputStream open() throws IOException {
+            InputStream in = new GZIPInputStream(new FileInputStream(mFile), BUFFER_SIZE);
+            try {
+                readHeader(in);
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+            return in;
+        }
+
+    }
+
+    /**
+     * Copies the bytes read from a body into a temporary file of the archive. A failure to write
+     * the file stops the copy, without affecting the reading.
+     */
+    public class Recorder extends FilterInputStream {
+
+        private final String mFileName;
+        private final File mTemporaryFile;
+        private OutputStream mOut;
+
+        private Recorder(InputStream in, String fileName, String url, String charset) {
+
+            super(in);
+            this.mFileName = fileName;
+            this.mTemporaryFile = new File(mDirectory, fileName + TEMPORARY_SUFFIX);
+
+            try {
+                mDirectory.mkdirs();
+                mOut = new GZIPOutputStream(new FileOutputStream(mTemporaryFile), BUFFER_SIZE);
+                writeHeader(mOut, url, charset);
+            } catch (IOException e) {
+                abort();
+            }
+
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1 && mOut != null) {
+                try {
+                    mOut.write(b);
+                } catch (IOException e) {
+                    abort();
+                }
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0 && mOut != null) {
+                try {
+                    mOut.write(b, off, n);
+                } catch (IOException e) {
+                    abort();
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // The skipped bytes must be archived too:
+            byte[] buffer = new byte[(int) Math.min(n, BUFFER_SIZE)];
+            int read = read(buffer, 0, buffer.length);
+            return Math.max(read, 0);
+        }
+
+        @Override
+        public boolean markSupported() { return false; }
+
+        /**
+         * Replaces the archived page of the product with the bytes read so far, and evicts the
+         * least recently used pages if the archive is full. The body is not closed.
+         */
+        public void commit() {
+
+            if (mOut == null) {
+                return;
+            }
+
+            try {
+                mOut.close();
+                mOut = null;
+                add(mFileName, mTemporaryFile);
+            } catch (IOException e) {
+                abort();
+            }
+
+        }
+
+        /**
+         * Discards the bytes read so far. The archived page of the product, if any, is kept.
+         */
+        public void abort() {
+            if (mOut != null) {
+                try {
+                    mOut.close();
+                } catch (IOException e) {
+                    // The file is deleted anyway.
+                }
+                mOut = null;
+            }
+            mTemporaryFile.delete();
+        }
+
+    }
+
+    /** Default max size of the archive, in bytes. */
+    public static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+    /** Name of the directory of the archive, in the cache of the app. */
+    public static final String DIRECTORY_NAME = "pages";
+    private static final String FILE_SUFFIX = ".html.gz";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 8192;
+    private final File mDirectory;
+    private final long mMaxBytes;
+    /** Size of each archived page, by file name, from the least recently used. */
+    private Map<String, Long> mFiles;
+    private long mTotalBytes;
+
+    /**
+     * @param directory The directory of the archive, which is created if needed. It must not be
+     *                  used for anything else.
+     * @param maxBytes  Max size of the archive, in bytes.
+     */
+    public PageArchive(File directory, long maxBytes) {
+        this.mDirectory = directory;
+        this.mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Wraps the body of a page, so that the bytes read are archived once
+     * {@link Recorder#commit()} is called.
+     * @param url       URL of the page, which selects the product.
+     * @param charset   Charset of the page, or {@code null} if unknown.
+     * @param body      Body of the page.
+     */
+    public Recorder record(String url, String charset, InputStream body) {
+        return new Recorder(body, getFileName(url), url, charset);
+    }
+
+    /**
+     * Returns the archived page of a product, or {@code null} if there is none. The page becomes
+     * the most recently used.
+     * @param url   URL of the product. Any URL of the same product can be used.
+     * @throws IOException  If the page can't be read.
+     */
+    public Page get(String url) throws IOException {
+
+        String fileName = getFileName(url);
+        File file = new File(mDirectory, fileName);
+
+        synchronized (this) {
+            Map<String, Long> files = getFiles();
+            if (!files.containsKey(fileName)) {
+                return null;
+            }
+            // Move the page to the end of the order, which is kept across restarts by the time:
+            files.put(fileName, files.remove(fileName));
+            file.setLastModified(System.currentTimeMillis());
+        }
+
+        return readPage(file);
+
+    }
+
+    /**
+     * Returns the archived pages, from the least recently used.
+     * @throws IOException  If a page can't be read.
+     */
+    public List<Page> getPages() throws IOException {
+
+        List<String> fileNames;
+        synchronized (this) {
+            fileNames = new ArrayList<>(getFiles().keySet());
+        }
+
+        List<Page> pages = new ArrayList<>();
+        for (String fileName : fileNames) {
+            File file = new File(mDirectory, fileName);
+            if (file.exists()) {
+                pages.add(readPage(file));
+            }
+        }
+        return pages;
+
+    }
+
+    /**
+     * Scrapes again the archived page of a product, without network access.
+     * @param url           URL of the product. Any URL of the same product can be used.
+     * @param extractor     The extractor to use.
+     * @param scrapeTitle   Whether to scrape the title besides the price.
+     * @return  The data scraped, or {@code null} if the page is not archived.
+     * @throws IOException  If the page can't be read.
+     */
+    public LookUpResult extract(String url, ItemExtractor extractor, boolean scrapeTitle)
+            throws IOException {
+
+        Page page = get(url);
+        if (page == null) {
+            return null;
+        }
+
+        LookUpResult result = new LookUpResult(page.url);
+        InputStream in = page.open();
+        try {
+            extractor.extract(in, page.charset, result, scrapeTitle);
+        } finally {
+            in.close();
+        }
+        result.onScraped();
+
+        return result;
+
+    }
+
+    /**
+     * Returns the size of the archive on disk, in bytes.
+     */
+    public synchronized long getTotalBytes() {
+        getFiles();
+        return mTotalBytes;
+    }
+
+    /**
+     * Deletes every archived page.
+     */
+    public synchronized void clear() {
+        for (String fileName : getFiles().keySet()) {
+            new File(mDirectory, fileName).delete();
+        }
+        mFiles.clear();
+        mTotalBytes = 0;
+    }
+
+    /**
+     * Moves a page written by a {@link Recorder} into the archive and evicts the least recently
+     * used pages until the archive fits its max size. The page just added is always kept.
+     */
+    private synchronized void add(String fileName, File temporaryFile) throws IOException {
+
+        Map<String, Long> files = getFiles();
+        File file = new File(mDirectory, fileName);
+
+        Long oldSize = files.remove(fileName);
+        if (oldSize != null) {
+            mTotalBytes -= oldSize;
+        }
+        // Renaming onto an existing file fails on some platforms:
+        file.delete();
+        if (!temporaryFile.renameTo(file)) {
+            throw new IOException("Can't rename " + temporaryFile);
+        }
+        files.put(fileName, file.length());
+        mTotalBytes += file.length();
+
+        while (mTotalBytes > mMaxBytes && files.size() > 1) {
+            Map.Entry<String, Long> eldest = files.entrySet().iterator().next();
+            new File(mDirectory, eldest.getKey()).delete();
+            mTotalBytes -= eldest.getValue();
+            files.remove(eldest.getKey());
+        }
+
+    }
+
+    /**
+     * Returns the archived pages, loading them from the directory the first time, from the least
+     * recently used.
+     */
+    private Map<String, Long> getFiles() {
+
+        if (mFiles != null) {
+            return mFiles;
+        }
+
+        mFiles = new LinkedHashMap<>();
+        mTotalBytes = 0;
+
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return mFiles;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File file1, File file2) {
+                long time1 = file1.lastModified();
+                long time2 = file2.lastModified();
+                return (time1 < time2) ? -1 : ((time1 == time2) ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            // A temporary file left by an interrupted look up is overwritten by the next one:
+            if (file.getName().endsWith(FILE_SUFFIX)) {
+                mFiles.put(file.getName(), file.length());
+                mTotalBytes += file.length();
+            }
+        }
+
+        return mFiles;
+
+    }
+
+    private static Page readPage(File file) throws IOException {
+        InputStream in = new GZIPInputStream(new FileInputStream(file), BUFFER_SIZE);
+        try {
+            String[] header = readHeader(in);
+            return new Page(header[0], header[1].isEmpty() ? null : header[1], file);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the URL and the charset of a page, one per line, before its body.
+     */
+    private static void writeHeader(OutputStream out, String url, String charset)
+            throws IOException {
+        out.write((url + "\n" + ((charset != null) ? charset : "") + "\n").getBytes(UTF_8));
+    }
+
+    /**
+     * Reads the URL and the charset written by {@link #writeHeader(OutputStream, String, String)},
+     * leaving the stream at the beginning of the body.
+     */
+    private static String[] readHeader(InputStream in) throws IOException {
+        String[] header = new String[2];
+        for (int i = 0; i < header.length; i++) {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b == -1) {
+                    throw new IOException("Truncated page header");
+                }
+                line.write(b);
+            }
+            header[i] = new String(line.toByteArray(), UTF_8);
+        }
+        return header;
+    }
+
+    /**
+     * Returns the name of the file of the product of a URL.
+     */
+    private static String getFileName(String url) {
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // Every platform provides it.
+            throw new IllegalStateException(e);
+        }
+
+        byte[] hash = digest.digest(ProductKey.of(url).getBytes(UTF_8));
+        StringBuilder fileName = new StringBuilder(hash.length * 2 + FILE_SUFFIX.length());
+        for (byte b : hash) {
+            fileName.append(Character.forDigit((b >> 4) & 0xF, 16))
+                    .append(Character.forDigit(b & 0xF, 16));
+        }
+        return fileName.append(FILE_SUFFIX).toString();
+
+    }
+
+}
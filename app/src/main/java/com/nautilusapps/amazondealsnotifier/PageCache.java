@@ -0,0 +1,327 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the last result scraped from the page of each product, so that a page which hasn't
+ * changed is not scraped again:
+ * <ul>
+ *     <li>The validators sent by the server, {@code ETag} and {@code Last-Modified}, are sent back
+ *     in a conditional request. If the server answers {@code 304 Not Modified}, the page is
+ *     neither downloaded nor parsed.</li>
+ *     <li>Otherwise, the part of the page which the result was scraped from is hashed. The
+ *     extractor only depends on those bytes, so if they are the same the rest of the page is not
+ *     downloaded and nothing is parsed.</li>
+ * </ul>
+ * The entries are kept in memory, by product key, and the least recently used ones are dropped
+ * once the cache is full. It can be used by several threads at the same time.
+ */
+public class PageCache {
+
+    /**
+     * What is remembered of a page.
+     */
+    static final class Entry {
+
+        private final String mEtag;
+        private final String mLastModified;
+        /** Hash of the bytes which the result was scraped from. */
+        private final byte[] mHash;
+        /** Number of bytes which the result was scraped from. */
+        private final long mLength;
+        /** Whether the extractor read the page to the end. */
+        private final boolean mComplete;
+        private final boolean mHasTitle;
+        private final LookUpResult mResult;
+
+        private Entry(String etag, String lastModified, byte[] hash, long length,
+                      boolean complete, boolean hasTitle, LookUpResult result) {
+            this.mEtag = etag;
+            this.mLastModified = lastModified;
+            this.mHash = hash;
+            this.mLength = length;
+            this.mComplete = complete;
+            this.mHasTitle = hasTitle;
+            this.mResult = result;
+        }
+
+        /**
+         * Copies the data scraped from the page into a result, which is set as successful and as
+         * coming from the page of the product.
+         */
+        void copyTo(LookUpResult result, boolean scrapeTitle) {
+            if (scrapeTitle) {
+                result.title = mResult.title;
+            }
+            result.price = mResult.price;
+            result.currency = mResult.currency;
+            result.successful = true;
+            result.pageType = LookUpResult.PageType.PRODUCT;
+        }
+
+    }
+
+    /**
+     * Hashes and counts the bytes read from a stream, and remembers whether its end was reached.
+     */
+    static final class HashingInputStream extends FilterInputStream {
+
+        private final MessageDigest mDigest;
+        private long mCount;
+        private boolean mComplete;
+
+        private HashingInputStream(InputStream in) {
+            super(in);
+            this.mDigest = newDigest();
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) {
+                mComplete = true;
+            } else {
+                mDigest.update((byte) b);
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n == -1) {
+                mComplete = true;
+            } else if (n > 0) {
+                mDigest.update(b, off, n);
+                mCount += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // The skipped bytes must be hashed too:
+            byte[] buffer = new byte[(int) Math.min(n, BUFFER_SIZE)];
+            int read = read(buffer, 0, buffer.length);
+            return Math.max(read, 0);
+        }
+
+        @Override
+        public boolean markSupported() { return false; }
+
+    }
+
+    /** Default max number of pages remembered. */
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+    private static final String HASH_ALGORITHM = "SHA-1";
+    private static final int BUFFER_SIZE = 8192;
+    private final int mMaxEntries;
+    private final Map<String, Entry> mEntries;
+    private final AtomicLong mNotModified = new AtomicLong();
+    private final AtomicLong mUnchanged = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+
+    public PageCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries    Max number of pages remembered, must be greater than 0.
+     */
+    public PageCache(final int maxEntries) {
+
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be greater than 0");
+        }
+
+        this.mMaxEntries = maxEntries;
+        this.mEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PageCache.Entry> eldest) {
+                return size() > mMaxEntries;
+            }
+        };
+
+    }
+
+    /**
+     * Returns what is remembered of the page of a product, or {@code null} if it can't be used.
+     * @param key           The key of the product, see {@link ProductKey}.
+     * @param scrapeTitle   Whether the title is needed besides the price.
+     */
+    Entry get(String key, boolean scrapeTitle) {
+        Entry entry;
+        synchronized (mEntries) {
+            entry = mEntries.get(key);
+        }
+        return (entry == null || (scrapeTitle && !entry.mHasTitle)) ? null : entry;
+    }
+
+    /**
+     * Makes a request conditional on the page having changed since it was scraped.
+     */
+    static void addValidators(Entry entry, HttpTransport.Request request) {
+        if (entry.mEtag != null) {
+            request.header("If-None-Match", entry.mEtag);
+        }
+        if (entry.mLastModified != null) {
+            request.header("If-Modified-Since", entry.mLastModified);
+        }
+    }
+
+    /**
+     * Accounts a page which the server has not sent again, since it has not been modified.
+     */
+    void onNotModified() { mNotModified.incrementAndGet(); }
+
+    /**
+     * Compares the beginning of a page with the bytes which the result was scraped from.
+     * @param entry The entry of the page.
+     * @param body  The body of the page, which is read only as far as needed.
+     * @return  {@code null} if the page is unchanged, so that the result of the entry can be
+     *          used. Otherwise the whole body to scrape, including the bytes already read.
+     * @throws IOException  If the body can't be read.
+     */
+    InputStream match(Entry entry, InputStream body) throws IOException {
+
+        byte[] prefix = new byte[(int) Math.min(entry.mLength, Integer.MAX_VALUE)];
+        int length = 0;
+        while (length < prefix.length) {
+            int n = body.read(prefix, length, prefix.length - length);
+            if (n == -1) {
+                break;
+            }
+            length += n;
+        }
+
+        boolean unchanged = length == prefix.length;
+        if (unchanged) {
+            MessageDigest digest = newDigest();
+            digest.update(prefix, 0, length);
+            unchanged = Arrays.equals(digest.digest(), entry.mHash);
+        }
+
+        // A page read to the end must also end at the same point:
+        int next = -1;
+        if (unchanged && entry.mComplete) {
+            next = body.read();
+            unchanged = next == -1;
+        }
+
+        if (unchanged) {
+            mUnchanged.incrementAndGet();
+            return null;
+        }
+
+        mMisses.incrementAndGet();
+        InputStream read = new ByteArrayInputStream(prefix, 0, length);
+        if (next != -1) {
+            read = new SequenceInputStream(read, new ByteArrayInputStream(new byte[]{(byte) next}));
+        }
+        return new SequenceInputStream(read, body);
+
+    }
+
+    /**
+     * Accounts a page which is not in the cache.
+     */
+    void onMiss() { mMisses.incrementAndGet(); }
+
+    /**
+     * Wraps the body of a page, so that the bytes scraped can be remembered with
+     * {@link #put(String, HttpTransport.Response, HashingInputStream, LookUpResult, boolean)}.
+     */
+    static HashingInputStream record(InputStream body) {
+        return new HashingInputStream(body);
+    }
+
+    /**
+     * Remembers the result scraped from a page.
+     * @param key           The key of the product, see {@link ProductKey}.
+     * @param response      The response, whose validators are kept.
+     * @param body          The body, as returned by {@link #record(InputStream)}, after the
+     *                      result has been scraped.
+     * @param result        The result, which is copied.
+     * @param scrapeTitle   Whether the title has been scraped.
+     */
+    void put(String key, HttpTransport.Response response, HashingInputStream body,
+             LookUpResult result, boolean scrapeTitle) {
+
+        Entry entry = new Entry(
+                response.getHeader("ETag"),
+                response.getHeader("Last-Modified"),
+                body.mDigest.digest(),
+                body.mCount,
+                body.mComplete,
+                scrapeTitle,
+                new LookUpResult(result.url, result));
+
+        synchronized (mEntries) {
+            mEntries.put(key, entry);
+        }
+
+    }
+
+    /**
+     * Forgets every page, for example because the rules used to scrape them have changed.
+     */
+    public void clear() {
+        synchronized (mEntries) {
+            mEntries.clear();
+        }
+    }
+
+    /**
+     * Returns the number of pages which the server has not sent again, since they had not been
+     * modified.
+     */
+    public long getNotModifiedHits() { return mNotModified.get(); }
+
+    /**
+     * Returns the number of pages which were sent again, but whose scraped part was unchanged.
+     */
+    public long getUnchangedHits() { return mUnchanged.get(); }
+
+    /**
+     * Returns the number of pages which have been scraped.
+     */
+    public long getMisses() { return mMisses.get(); }
+
+    /**
+     * Returns the fraction of the pages which have not been scraped again, between 0 and 1.
+     */
+    public double getHitRatio() {
+        long hits = getNotModifiedHits() + getUnchangedHits();
+        long total = hits + getMisses();
+        return (total == 0) ? 0 : (double) hits / total;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // Every platform provides it.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "notModified=" + getNotModifiedHits() +
+                ", unchanged=" + getUnchangedHits() +
+                ", misses=" + getMisses() +
+                String.format(", hitRatio=%.2f", getHitRatio());
+    }
+
+}
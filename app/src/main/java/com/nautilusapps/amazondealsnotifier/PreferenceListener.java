@@ -33,6 +33,13 @@ public class PreferenceListener implements Preference.OnPreferenceChangeListener
                     MainActivity.getUpdateFrequency(context));
         }
 
+        // If the user changes the number of concurrent connections, resizes the workers pool:
+        if (preference
+                .getKey()
+                .equals(context.getString(R.string.pref_key_lookup_concurrency))) {
+            LookUpEngine.getInstance().setConcurrency(MainActivity.getLookUpConcurrency(context));
+        }
+
         return true;
 
     }
@@ -0,0 +1,283 @@
+package com.nautilusapps.amazondealsnotifier;
+
+/**
+ * Parses the price shown in the page of a product, such as {@code "EUR 1.234,56"},
+ * {@code "$1,234.56"} or {@code "￥ 1,234"}, in a single pass over its characters. The amount is
+ * returned as a {@code long} in the minor unit of the currency, for example in cents, so that it
+ * is exact; the currency, if written, is recognized from its symbol or code.<br>
+ * The decimal separator is told apart from the grouping separator by its position: the last
+ * separator is the decimal one if it is followed by one or two digits, or if it differs from the
+ * ones before it; a separator followed by three digits groups the thousands.<br>
+ * Parsing allocates nothing, so an instance should be reused for many prices. An instance is not
+ * thread safe: each thread must use its own.
+ */
+public class PriceParser {
+
+    /** Amount returned when there is no price. */
+    public static final long NO_AMOUNT = -1;
+    /** Max number of digits of an amount, so that it fits a {@code long}. */
+    private static final int MAX_DIGITS = 18;
+    /** Fraction digits of the currencies not listed in {@link #ZERO_DECIMAL_CURRENCIES}. */
+    private static final int DEFAULT_FRACTION_DIGITS = 2;
+    /** Currencies without a minor unit. */
+    private static final String[] ZERO_DECIMAL_CURRENCIES = { "JPY" };
+    /**
+     * Symbols and codes of the currencies, with their ISO 4217 code. The longer symbols come
+     * first, so that {@code "CDN$"} is not read as {@code "$"}.
+     */
+    private static final String[][] CURRENCY_SYMBOLS = {
+            { "CDN$", "CAD" }, { "R$", "BRL" }, { "US$", "USD" }, { "A$", "AUD" },
+            { "EUR", "EUR" }, { "GBP", "GBP" }, { "USD", "USD" }, { "JPY", "JPY" },
+            { "CAD", "CAD" }, { "INR", "INR" }, { "BRL", "BRL" }, { "MXN", "MXN" },
+            { "AUD", "AUD" }, { "SEK", "SEK" }, { "PLN", "PLN" }, { "TRY", "TRY" },
+            { "Rs.", "INR" }, { "€", "EUR" }, { "£", "GBP" }, { "¥", "JPY" }, { "￥", "JPY" },
+            { "₹", "INR" }, { "₺", "TRY" }, { "zł", "PLN" }, { "kr", "SEK" }, { "$", "USD" }
+    };
+    /** First characters of the symbols, upper case, to skip quickly the other characters. */
+    private static final String CURRENCY_FIRST_CHARS;
+    static {
+        StringBuilder firstChars = new StringBuilder();
+        for (String[] symbol : CURRENCY_SYMBOLS) {
+            char c = Character.toUpperCase(symbol[0].charAt(0));
+            if (firstChars.indexOf(String.valueOf(c)) == -1) {
+                firstChars.append(c);
+            }
+        }
+        CURRENCY_FIRST_CHARS = firstChars.toString();
+    }
+    /** Currencies of the Amazon marketplaces, by host, used when a price has no symbol. */
+    private static final String[][] MARKETPLACE_CURRENCIES = {
+            { "amazon.it", "EUR" }, { "amazon.de", "EUR" }, { "amazon.fr", "EUR" },
+            { "amazon.es", "EUR" }, { "amazon.nl", "EUR" }, { "amazon.co.uk", "GBP" },
+            { "amazon.com", "USD" }, { "amazon.ca", "CAD" }, { "amazon.com.mx", "MXN" },
+            { "amazon.com.br", "BRL" }, { "amazon.co.jp", "JPY" }, { "amazon.in", "INR" },
+            { "amazon.com.au", "AUD" }, { "amazon.se", "SEK" }, { "amazon.pl", "PLN" },
+            { "amazon.com.tr", "TRY" }
+    };
+
+    private long mAmount;
+    private String mCurrency;
+    private int mFractionDigits;
+
+    public PriceParser() {
+        reset();
+    }
+
+    /**
+     * Parses a price, whose currency is unknown if not written.
+     * @see #parse(CharSequence, String)
+     */
+    public boolean parse(CharSequence text) {
+        return parse(text, null);
+    }
+
+    /**
+     * Parses a price. Only the first number of the text is read, so of a range such as
+     * {@code "EUR 10,00 - EUR 20,00"} the lower bound is returned.
+     * @param text              The text of the price, or {@code null}.
+     * @param defaultCurrency   The currency used if the text has no symbol, or {@code null}.
+     * @return  {@code true} if a price has been found. Its amount and its currency are then
+     *          returned by {@link #getAmount()} and {@link #getCurrency()}.
+     */
+    public boolean parse(CharSequence text, String defaultCurrency) {
+
+        reset();
+        if (text == null) {
+            return false;
+        }
+
+        String currency = null;
+        long value = 0;
+        int digits = 0;
+        // Digits after the last separator, and the separators seen:
+        int digitsAfterSeparator = 0;
+        char firstSeparator = 0;
+        char lastSeparator = 0;
+        int separators = 0;
+        boolean numberEnded = false;
+
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+
+            char c = text.charAt(i);
+
+            if (c >= '0' && c <= '9' && !numberEnded) {
+                if (++digits > MAX_DIGITS) {
+                    return false;
+                }
+                value = value * 10 + (c - '0');
+                digitsAfterSeparator++;
+                continue;
+            }
+
+            if (digits > 0 && !numberEnded) {
+                // A separator continues the number only if a digit follows:
+                if (isSeparator(c) && i + 1 < length && isDigit(text.charAt(i + 1))) {
+                    if (separators == 0) {
+                        firstSeparator = c;
+                    }
+                    lastSeparator = c;
+                    separators++;
+                    digitsAfterSeparator = 0;
+                    continue;
+                }
+                numberEnded = true;
+                if (currency != null) {
+                    break;
+                }
+            }
+
+            if (currency == null && CURRENCY_FIRST_CHARS.indexOf(Character.toUpperCase(c)) != -1) {
+                int symbol = matchCurrency(text, i);
+                if (symbol != -1) {
+                    currency = CURRENCY_SYMBOLS[symbol][1];
+                    i += CURRENCY_SYMBOLS[symbol][0].length() - 1;
+                    if (numberEnded) {
+                        break;
+                    }
+                }
+            }
+
+        }
+
+        if (digits == 0) {
+            return false;
+        }
+
+        if (currency == null) {
+            currency = defaultCurrency;
+        }
+        int fractionDigits = getFractionDigits(currency);
+
+        // Decide whether the last separator is the decimal one:
+        int decimals = 0;
+        if (separators > 0 && fractionDigits > 0) {
+            boolean isDecimal;
+            if (digitsAfterSeparator == 3) {
+                // Thousands, unless they follow a different grouping separator:
+                isDecimal = separators > 1 && lastSeparator != firstSeparator &&
+                        lastSeparator != ' ';
+            } else {
+                isDecimal = lastSeparator != '\'' &&
+                        (separators == 1 || lastSeparator != firstSeparator);
+            }
+            if (isDecimal) {
+                decimals = digitsAfterSeparator;
+            }
+        }
+
+        // Scale the value to the minor unit:
+        for (int i = decimals; i < fractionDigits; i++) {
+            if (value > Long.MAX_VALUE / 10) {
+                return false;
+            }
+            value *= 10;
+        }
+        for (int i = fractionDigits; i < decimals; i++) {
+            value /= 10;
+        }
+
+        this.mAmount = value;
+        this.mCurrency = currency;
+        this.mFractionDigits = fractionDigits;
+        return true;
+
+    }
+
+    /**
+     * Returns the amount of the last price parsed, in the minor unit of its currency, or
+     * {@link #NO_AMOUNT} if no price has been found.
+     */
+    public long getAmount() { return mAmount; }
+
+    /**
+     * Returns the ISO 4217 code of the currency of the last price parsed, or {@code null} if not
+     * known.
+     */
+    public String getCurrency() { return mCurrency; }
+
+    /**
+     * Returns the number of digits of the minor unit of the last price parsed: the amount must be
+     * divided by {@code 10^fractionDigits} to get the price.
+     */
+    public int getFractionDigits() { return mFractionDigits; }
+
+    /**
+     * Returns the number of digits of the minor unit of a currency, such as 2 for cents.
+     * @param currency  The ISO 4217 code, or {@code null} if not known.
+     */
+    public static int getFractionDigits(String currency) {
+        for (String zeroDecimalCurrency : ZERO_DECIMAL_CURRENCIES) {
+            if (zeroDecimalCurrency.equals(currency)) {
+                return 0;
+            }
+        }
+        return DEFAULT_FRACTION_DIGITS;
+    }
+
+    /**
+     * Returns the currency of an Amazon marketplace.
+     * @param host  The host, as returned by {@link RateLimiter#getHost(String)}.
+     * @return  The ISO 4217 code, or {@code null} if the marketplace is unknown.
+     */
+    public static String getMarketplaceCurrency(String host) {
+        for (String[] marketplace : MARKETPLACE_CURRENCIES) {
+            if (marketplace[0].equals(host)) {
+                return marketplace[1];
+            }
+        }
+        return null;
+    }
+
+    private void reset() {
+        this.mAmount = NO_AMOUNT;
+        this.mCurrency = null;
+        this.mFractionDigits = DEFAULT_FRACTION_DIGITS;
+    }
+
+    /**
+     * Returns the index of the currency symbol which starts at the given offset of the text, or
+     * -1. The letters are compared ignoring case.
+     */
+    private static int matchCurrency(CharSequence text, int offset) {
+
+        symbols:
+        for (int s = 0; s < CURRENCY_SYMBOLS.length; s++) {
+            String symbol = CURRENCY_SYMBOLS[s][0];
+            if (offset + symbol.length() > text.length()) {
+                continue;
+            }
+            for (int i = 0; i < symbol.length(); i++) {
+                if (Character.toUpperCase(text.charAt(offset + i)) !=
+                        Character.toUpperCase(symbol.charAt(i))) {
+                    continue symbols;
+                }
+            }
+            // A code must be a whole word, so that "TRY" is not found in "Entry":
+            int end = offset + symbol.length();
+            if ((Character.isLetter(symbol.charAt(0)) && offset > 0 &&
+                    Character.isLetter(text.charAt(offset - 1))) ||
+                    (Character.isLetter(symbol.charAt(symbol.length() - 1)) &&
+                            end < text.length() && Character.isLetter(text.charAt(end)))) {
+                continue;
+            }
+            return s;
+        }
+
+        return -1;
+
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Checks whether a character can separate the groups of digits or the fractional part:
+     * points, commas, spaces, including the non-breaking ones, and apostrophes.
+     */
+    private static boolean isSeparator(char c) {
+        return c == '.' || c == ',' || c == ' ' || c == '\u00A0' || c == '\u202F' || c == '\'';
+    }
+
+}
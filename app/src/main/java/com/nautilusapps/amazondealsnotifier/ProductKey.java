@@ -0,0 +1,100 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Builds the key which identifies a product regardless of the URL it has been shared with: the
+ * marketplace and the ASIN, such as {@code "amazon.it/B07D95FNRK"}. The links to the same product
+ * with different paths or tracking parameters, such as {@code ref=} or {@code pf_rd_*}, have the
+ * same key.
+ */
+public class ProductKey {
+
+    /** Paths which contain the ASIN of the product. */
+    private static final Pattern ASIN_PATTERN = Pattern.compile(
+            "/(?:dp|gp/product|gp/aw/d|exec/obidos/ASIN|o/ASIN)/([A-Z0-9]{10})(?=[/?#]|$)",
+            Pattern.CASE_INSENSITIVE);
+    /** Prefixes of the host which don't change the marketplace. */
+    private static final String[] HOST_PREFIXES = { "www.", "smile.", "m." };
+
+    private ProductKey() {}
+
+    /**
+     * Returns the key of the product of a URL.
+     * @param url   The URL of the product, or {@code null}.
+     * @return  The marketplace and the ASIN, separated by a slash. If the URL has no ASIN, its
+     *          host, path and query, since the query may be what identifies the product; if the
+     *          URL is not valid, the URL itself.
+     */
+    public static String of(String url) {
+
+        if (url == null) {
+            return null;
+        }
+
+        URL parsed;
+        try {
+            parsed = new URL(url.trim());
+        } catch (MalformedURLException e) {
+            return url.trim();
+        }
+
+        String host = getMarketplace(parsed.getHost());
+        if (parsed.getPort() != -1) {
+            host += ":" + parsed.getPort();
+        }
+
+        String path = parsed.getPath();
+        Matcher matcher = ASIN_PATTERN.matcher(path);
+        if (matcher.find()) {
+            return host + "/" + matcher.group(1).toUpperCase(Locale.ENGLISH);
+        }
+
+        String query = parsed.getQuery();
+        return (query != null) ? host + path + "?" + query : host + path;
+
+    }
+
+    /**
+     * Returns the marketplace of a host, such as {@code "amazon.it"} for
+     * {@code "www.amazon.it"}, {@code "smile.amazon.it"} or {@code "m.amazon.it"}. Every class
+     * which keeps a state per marketplace must use it, so that the hosts of the same marketplace
+     * share it.
+     * @param host  The host of a URL.
+     * @return  The host in lower case, without the prefixes which don't change the marketplace.
+     */
+    public static String getMarketplace(String host) {
+
+        host = host.toLowerCase(Locale.ENGLISH);
+        for (String prefix : HOST_PREFIXES) {
+            if (host.startsWith(prefix)) {
+                return host.substring(prefix.length());
+            }
+        }
+        return host;
+
+    }
+
+    /**
+     * Checks whether a URL points at the page of a product, that is whether it has an ASIN.
+     * @param url   The URL, or {@code null}.
+     */
+    public static boolean hasAsin(String url) {
+
+        if (url == null) {
+            return false;
+        }
+
+        try {
+            return ASIN_PATTERN.matcher(new URL(url.trim()).getPath()).find();
+        } catch (MalformedURLException e) {
+            return false;
+        }
+
+    }
+
+}
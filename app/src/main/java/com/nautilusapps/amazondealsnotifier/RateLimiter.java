@@ -0,0 +1,170 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Spaces the requests sent to each Amazon marketplace with a schedule of slots per host, so that
+ * the requests to a marketplace never come in bursts, not even after the host has been idle, while
+ * the requests to the other marketplaces go ahead in parallel.<br>
+ * The limiter doesn't block: {@link #reserve(String, long, long)} books the next free slot of the
+ * host and returns how long to wait for it. When a marketplace starts refusing the requests, it is
+ * penalized with a longer interval, which is slowly reduced as the requests succeed again.
+ */
+public class RateLimiter {
+
+    /**
+     * The state of the requests to a host.
+     */
+    private static class Bucket {
+
+        /** Time at which the next request can be sent, in millis. */
+        long nextFreeTime;
+        /** Min interval imposed because the host refused the requests, in millis, or 0. */
+        long penaltyInterval;
+        /** Time before which no request can be sent because of the penalty, in millis. */
+        long blockedUntil;
+
+    }
+
+    /** Interval imposed the first time a host refuses the requests, in millis. */
+    static final long INITIAL_PENALTY = 5 * 1000;
+    /** Max interval imposed to a host which keeps refusing the requests, in millis. */
+    static final long MAX_PENALTY = 5 * 60 * 1000;
+    /** Factor applied to the penalty after each successful request. */
+    private static final double RECOVERY_FACTOR = 0.9;
+    /** Penalty under which the host is no longer penalized, in millis. */
+    private static final long MIN_PENALTY = 250;
+    private final Map<String, Bucket> mBuckets = new HashMap<>();
+    private final Random mRandom = new Random();
+
+    /**
+     * Books the next slot to send a request to a host.
+     * @param host          The host, as returned by {@link #getHost(String)}.
+     * @param minInterval   Min time between two requests to the host, in millis.
+     * @param maxInterval   Max time between two requests to the host, in millis. The actual
+     *                      interval is picked at random between the min and the max.
+     * @return  Time to wait before sending the request, in millis.
+     */
+    public long reserve(String host, long minInterval, long maxInterval) {
+        return reserve(host, minInterval, maxInterval, System.currentTimeMillis());
+    }
+
+    synchronized long reserve(String host, long minInterval, long maxInterval, long now) {
+
+        Bucket bucket = getBucket(host);
+
+        minInterval = Math.max(minInterval, bucket.penaltyInterval);
+        maxInterval = Math.max(maxInterval, minInterval);
+
+        // The time the host has been idle is not saved up:
+        if (now > bucket.nextFreeTime) {
+            bucket.nextFreeTime = now;
+        }
+
+        long slot = bucket.nextFreeTime;
+
+        long interval = minInterval;
+        if (maxInterval > minInterval) {
+            interval += (long) (mRandom.nextDouble() * (maxInterval - minInterval + 1));
+        }
+        bucket.nextFreeTime += interval;
+
+        return Math.max(0, slot - now);
+
+    }
+
+    /**
+     * Penalizes a host which refused a request, for example with HTTP 503 or with a robot check.
+     * The interval between the requests to the host is doubled, up to {@link #MAX_PENALTY}, and no
+     * request is sent for that long.
+     * @param host  The host, as returned by {@link #getHost(String)}.
+     */
+    public void onThrottled(String host) {
+        onThrottled(host, System.currentTimeMillis());
+    }
+
+    synchronized void onThrottled(String host, long now) {
+
+        Bucket bucket = getBucket(host);
+
+        bucket.penaltyInterval = (bucket.penaltyInterval == 0)
+                ? INITIAL_PENALTY
+                : Math.min(bucket.penaltyInterval * 2, MAX_PENALTY);
+        bucket.blockedUntil = Math.max(bucket.blockedUntil, now + bucket.penaltyInterval);
+        bucket.nextFreeTime = Math.max(bucket.nextFreeTime, bucket.blockedUntil);
+
+    }
+
+    /**
+     * Reduces the penalty of a host which accepted a request.
+     * @param host  The host, as returned by {@link #getHost(String)}.
+     */
+    public synchronized void onSuccess(String host) {
+
+        Bucket bucket = mBuckets.get(host);
+        if (bucket == null || bucket.penaltyInterval == 0) {
+            return;
+        }
+
+        bucket.penaltyInterval = (long) (bucket.penaltyInterval * RECOVERY_FACTOR);
+        if (bucket.penaltyInterval < MIN_PENALTY) {
+            bucket.penaltyInterval = 0;
+        }
+
+    }
+
+    /**
+     * Returns how long a request to a host, already booked, must still be delayed because the host
+     * has been penalized in the meantime.
+     * @param host  The host, as returned by {@link #getHost(String)}.
+     * @return  Time to wait, in millis, or 0 if the request can be sent.
+     */
+    public long getBlockedDelay(String host) {
+        return getBlockedDelay(host, System.currentTimeMillis());
+    }
+
+    synchronized long getBlockedDelay(String host, long now) {
+        Bucket bucket = mBuckets.get(host);
+        return (bucket == null) ? 0 : Math.max(0, bucket.blockedUntil - now);
+    }
+
+    /**
+     * Returns the penalty of a host, in millis, or 0 if the host isn't penalized.
+     * @param host  The host, as returned by {@link #getHost(String)}.
+     */
+    public synchronized long getPenalty(String host) {
+        Bucket bucket = mBuckets.get(host);
+        return (bucket == null) ? 0 : bucket.penaltyInterval;
+    }
+
+    private Bucket getBucket(String host) {
+        Bucket bucket = mBuckets.get(host);
+        if (bucket == null) {
+            bucket = new Bucket();
+            mBuckets.put(host, bucket);
+        }
+        return bucket;
+    }
+
+    /**
+     * Returns the key of the marketplace of a URL, such as {@code "amazon.it"}.
+     * @param url   The URL of a product.
+     * @return  The marketplace of the host of the URL, see
+     *          {@link ProductKey#getMarketplace(String)}, or an empty string if the URL is not
+     *          valid.
+     */
+    public static String getHost(String url) {
+
+        try {
+            return ProductKey.getMarketplace(new URL(url).getHost());
+        } catch (MalformedURLException e) {
+            return "";
+        }
+
+    }
+
+}
@@ -0,0 +1,100 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import java.net.HttpURLConnection;
+import java.util.Random;
+
+/**
+ * Decides whether the look up of an item which failed is attempted again, and after how long. The
+ * delay grows exponentially with the number of attempts and is randomized, so that the items which
+ * failed together are not attempted again all at the same time.<br>
+ * Only the failures which may be temporary are attempted again: connection errors, server errors
+ * and throttling. A page which doesn't exist is not.
+ */
+public class RetryPolicy {
+
+    /** Default max number of attempts for each item, including the first one. */
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    /** Default delay before the first retry, in millis. */
+    public static final long DEFAULT_BASE_DELAY = 2 * 1000;
+    /** Default max delay before a retry, in millis. */
+    public static final long DEFAULT_MAX_DELAY = 60 * 1000;
+    /** Status code sent by a server which is refusing the requests because they are too many. */
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private final int mMaxAttempts;
+    private final long mBaseDelay;
+    private final long mMaxDelay;
+    private final Random mRandom = new Random();
+
+    /**
+     * Instantiates a policy with the default values.
+     */
+    public RetryPolicy() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY);
+    }
+
+    /**
+     * @param maxAttempts   Max number of attempts for each item, including the first one. 1
+     *                      means no retry.
+     * @param baseDelay     Delay before the first retry, in millis. It is doubled at each retry.
+     * @param maxDelay      Max delay before a retry, in millis.
+     */
+    public RetryPolicy(int maxAttempts, long baseDelay, long maxDelay) {
+
+        if (maxAttempts <= 0) {
+            throw new IllegalArgumentException("maxAttempts must be greater than 0");
+        }
+
+        this.mMaxAttempts = maxAttempts;
+        this.mBaseDelay = baseDelay;
+        this.mMaxDelay = maxDelay;
+
+    }
+
+    /**
+     * Checks whether an item should be looked up again.
+     * @param result    The result of the last attempt.
+     * @param attempts  Number of attempts made so far, including the last one.
+     */
+    public boolean shouldRetry(LookUpResult result, int attempts) {
+        return !result.successful && attempts < mMaxAttempts && isTransient(result);
+    }
+
+    /**
+     * Returns the time to wait before the next attempt. It is picked at random between half and
+     * the whole of {@code baseDelay * 2^(attempts - 1)}, up to the max delay.
+     * @param attempts  Number of attempts made so far, at least 1.
+     * @return  The delay, in millis.
+     */
+    public long getDelay(int attempts) {
+
+        long delay = mBaseDelay;
+        for (int i = 1; i < attempts && delay < mMaxDelay; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, mMaxDelay);
+
+        return delay / 2 + (long) (mRandom.nextDouble() * (delay - delay / 2));
+
+    }
+
+    /**
+     * Returns the max number of attempts for each item, including the first one.
+     */
+    public int getMaxAttempts() { return mMaxAttempts; }
+
+    /**
+     * Checks whether a failure may be temporary. A look up skipped because the marketplace is
+     * refusing the requests would be skipped again, so it is not.
+     */
+    private static boolean isTransient(LookUpResult result) {
+        if (result.pageType == LookUpResult.PageType.SKIPPED) {
+            return false;
+        }
+        return result.throttled ||
+                result.statusCode == 0 ||
+                result.statusCode == HTTP_TOO_MANY_REQUESTS ||
+                result.statusCode >= HttpURLConnection.HTTP_INTERNAL_ERROR;
+    }
+
+}
@@ -0,0 +1,228 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Counts how many pages of each marketplace each selector of the {@link ExtractionRules} has
+ * matched, so that the selectors which have stopped matching, usually because Amazon has changed
+ * the layout of its pages, can be reported. The counts are kept per marketplace, like the rules,
+ * so a layout change on one marketplace isn't hidden by the others. The counts can be saved and
+ * loaded again, so they are kept across the updates. It can be updated by several threads at the
+ * same time.
+ */
+public class RuleStats {
+
+    /**
+     * The counts of a selector.
+     */
+    private static class Counter {
+
+        /** Number of pages the selector has been tried on. */
+        long tries;
+        /** Number of pages the selector has matched. */
+        long hits;
+        /** Number of pages the selector has been tried on since it last matched. */
+        long misses;
+
+    }
+
+    /** Name of the file where the counts are saved. */
+    public static final String FILE_NAME = "rule_stats.properties";
+    /** Min number of hits for a selector to be considered stale. */
+    static final int MIN_HITS = 5;
+    /** Min number of pages without hits for a selector to be considered stale. */
+    static final int MIN_MISSES = 20;
+    /**
+     * Number of times the usual interval between two hits which a selector must go without hits
+     * to be considered stale.
+     */
+    private static final int STALE_FACTOR = 4;
+    private static final String SEPARATOR = ",";
+    private final Map<String, Counter> mCounters = new HashMap<>();
+
+    /**
+     * Accounts the selectors tried on a page and the ones which matched.
+     * @see #onPageExtracted(String, ExtractionRules, int[], boolean, boolean)
+     */
+    public void onPageExtracted(String marketplace, ExtractionRules rules, int[] selectors,
+                                boolean scrapeTitle) {
+        onPageExtracted(marketplace, rules, selectors, true, scrapeTitle);
+    }
+
+    /**
+     * Accounts the selectors tried on a page and the ones which matched. For each field, every
+     * selector of the rules is accounted as tried, unless the field has not been looked for: the
+     * title when not scraped, the prices when taken from the {@link StructuredData} of the page,
+     * and the price when the deal price has been found without it.
+     * @param marketplace   The marketplace of the page, as returned by
+     *                      {@link RateLimiter#getHost(String)}.
+     * @param rules         The rules applied to the page.
+     * @param selectors     Index of the selector which matched each field, or -1.
+     * @param scrapePrice   Whether the prices have been looked for.
+     * @param scrapeTitle   Whether the title has been looked for.
+     */
+    public synchronized void onPageExtracted(String marketplace, ExtractionRules rules,
+                                             int[] selectors, boolean scrapePrice,
+                                             boolean scrapeTitle) {
+
+        for (int field = 0; field < selectors.length; field++) {
+
+            if (field == ExtractionRules.FIELD_TITLE && !scrapeTitle) {
+                continue;
+            }
+            if (field != ExtractionRules.FIELD_TITLE && !scrapePrice) {
+                continue;
+            }
+            if (field == ExtractionRules.FIELD_PRICE &&
+                    selectors[ExtractionRules.FIELD_DEAL_PRICE] != -1 && selectors[field] == -1) {
+                continue;
+            }
+
+            String[] fieldSelectors = rules.getSelectors(field);
+            for (int i = 0; i < fieldSelectors.length; i++) {
+                Counter counter = getCounter(getKey(marketplace,
+                        ExtractionRules.FIELD_NAMES[field], fieldSelectors[i]));
+                counter.tries++;
+                if (i == selectors[field]) {
+                    counter.hits++;
+                    counter.misses = 0;
+                } else {
+                    counter.misses++;
+                }
+            }
+
+        }
+
+    }
+
+    /**
+     * Returns the number of pages of a marketplace a selector has matched.
+     * @param marketplace   The marketplace, such as {@code "amazon.it"}.
+     * @param field         The name of the field, such as {@code "price"}.
+     * @param selector      The selector.
+     */
+    public synchronized long getHits(String marketplace, String field, String selector) {
+        Counter counter = mCounters.get(getKey(marketplace, field, selector));
+        return (counter == null) ? 0 : counter.hits;
+    }
+
+    /**
+     * Checks whether a selector which used to match has stopped matching: it has not matched
+     * several times as many pages of a marketplace as it usually takes between two hits.
+     * @param marketplace   The marketplace, such as {@code "amazon.it"}.
+     * @param field         The name of the field, such as {@code "price"}.
+     * @param selector      The selector.
+     */
+    public synchronized boolean isStale(String marketplace, String field, String selector) {
+        Counter counter = mCounters.get(getKey(marketplace, field, selector));
+        return counter != null && isStale(counter);
+    }
+
+    private static boolean isStale(Counter counter) {
+
+        if (counter.hits < MIN_HITS || counter.misses < MIN_MISSES) {
+            return false;
+        }
+
+        long interval = (counter.tries - counter.misses) / counter.hits;
+        return counter.misses >= STALE_FACTOR * interval;
+
+    }
+
+    /**
+     * Returns the selectors which have stopped matching, as {@code marketplace:field:selector}.
+     */
+    public synchronized List<String> getStaleRules() {
+        List<String> stale = new ArrayList<>();
+        for (Map.Entry<String, Counter> entry : mCounters.entrySet()) {
+            if (isStale(entry.getValue())) {
+                stale.add(entry.getKey());
+            }
+        }
+        return stale;
+    }
+
+    /**
+     * Replaces the counts with the ones saved with {@link #save(OutputStream)}. The entries which
+     * are not valid are ignored. The stream is not closed.
+     * @throws IOException  If the stream can't be read.
+     */
+    public void load(InputStream in) throws IOException {
+
+        Properties properties = new Properties();
+        properties.load(in);
+
+        synchronized (this) {
+            mCounters.clear();
+            for (String key : properties.stringPropertyNames()) {
+                String[] values = properties.getProperty(key).split(SEPARATOR);
+                if (values.length != 3) {
+                    continue;
+                }
+                try {
+                    Counter counter = new Counter();
+                    counter.tries = Long.parseLong(values[0]);
+                    counter.hits = Long.parseLong(values[1]);
+                    counter.misses = Long.parseLong(values[2]);
+                    mCounters.put(key, counter);
+                } catch (NumberFormatException e) {
+                    // Skip the entry.
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Saves the counts. The stream is not closed.
+     * @throws IOException  If the stream can't be written.
+     */
+    public void save(OutputStream out) throws IOException {
+
+        Properties properties = new Properties();
+        synchronized (this) {
+            for (Map.Entry<String, Counter> entry : mCounters.entrySet()) {
+                Counter counter = entry.getValue();
+                properties.setProperty(entry.getKey(),
+                        counter.tries + SEPARATOR + counter.hits + SEPARATOR + counter.misses);
+            }
+        }
+
+        properties.store(out, null);
+
+    }
+
+    private Counter getCounter(String key) {
+        Counter counter = mCounters.get(key);
+        if (counter == null) {
+            counter = new Counter();
+            mCounters.put(key, counter);
+        }
+        return counter;
+    }
+
+    private static String getKey(String marketplace, String field, String selector) {
+        return marketplace + ":" + field + ":" + selector;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Counter> entry : mCounters.entrySet()) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(entry.getKey()).append('=').append(entry.getValue().hits)
+                    .append('/').append(entry.getValue().tries);
+        }
+        return builder.toString();
+    }
+
+}
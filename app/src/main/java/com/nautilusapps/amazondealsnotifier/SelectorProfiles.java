@@ -0,0 +1,308 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The {@link ExtractionRules} of each marketplace and product category, loaded from a file such as
+ * {@code selector_profiles.ini}, which describes its own format. The rules of every profile are
+ * compiled when the file is loaded, so a page is only matched against the rules of its own
+ * marketplace.<br>
+ * An instance is immutable and can be used by several threads at the same time.
+ */
+public class SelectorProfiles {
+
+    /** Name of the file bundled with the app. */
+    public static final String FILE_NAME = "selector_profiles.ini";
+    /** Profile of any marketplace. */
+    static final String DEFAULT_PROFILE = "default";
+    /** Section which maps the search aliases of the URLs to the categories. */
+    private static final String ALIASES_SECTION = "aliases";
+    private static final String KEY_DEAL_PRICE = "deal_price";
+    private static final String KEY_PRICE = "price";
+    private static final String KEY_TITLE = "title";
+    private static final String KEY_ROBOT_CHECK = "robot_check";
+    /** Separates the marketplace from the category in the name of a profile. */
+    private static final char CATEGORY_SEPARATOR = ':';
+    private static final String CHARSET = "UTF-8";
+    private static SelectorProfiles sBundled;
+
+    /** Maps the search aliases to the categories. */
+    private final Map<String, String> mAliases;
+    /** The compiled rules, by marketplace and category, or only by marketplace. */
+    private final Map<String, ExtractionRules> mRules;
+
+    private SelectorProfiles(Map<String, Map<String, String>> sections) {
+
+        this.mAliases = new HashMap<>();
+        this.mRules = new HashMap<>();
+
+        Map<String, String> aliases = sections.remove(ALIASES_SECTION);
+        if (aliases != null) {
+            mAliases.putAll(aliases);
+        }
+
+        if (!sections.containsKey(DEFAULT_PROFILE)) {
+            throw new IllegalArgumentException("Missing profile: " + DEFAULT_PROFILE);
+        }
+
+        // Collect the marketplaces and their categories:
+        Map<String, Set<String>> categories = new LinkedHashMap<>();
+        categories.put(DEFAULT_PROFILE, new LinkedHashSet<String>());
+        for (String name : sections.keySet()) {
+            int separator = name.indexOf(CATEGORY_SEPARATOR);
+            String domain = (separator == -1) ? name : name.substring(0, separator);
+            if (!categories.containsKey(domain)) {
+                categories.put(domain, new LinkedHashSet<String>());
+            }
+            if (separator != -1) {
+                categories.get(domain).add(name.substring(separator + 1));
+            }
+        }
+        // The categories of any marketplace apply to every marketplace:
+        for (Map.Entry<String, Set<String>> entry : categories.entrySet()) {
+            if (!entry.getKey().equals(DEFAULT_PROFILE)) {
+                entry.getValue().addAll(categories.get(DEFAULT_PROFILE));
+            }
+        }
+
+        // Compile the rules of every marketplace, for each category and for an unknown one:
+        for (Map.Entry<String, Set<String>> entry : categories.entrySet()) {
+
+            String domain = entry.getKey();
+            List<Map<String, String>> all = new ArrayList<>();
+
+            for (String category : entry.getValue()) {
+                Map<String, String> queries = resolve(sections, domain, category);
+                mRules.put(domain + CATEGORY_SEPARATOR + category, compile(queries));
+                all.add(queries);
+            }
+
+            all.add(resolve(sections, domain, null));
+            mRules.put(domain, compile(merge(all)));
+
+        }
+
+    }
+
+    /**
+     * Returns the profiles bundled with the app. They are loaded and compiled only once.
+     * @throws IllegalStateException    If the bundled file is missing or not valid.
+     */
+    public static synchronized SelectorProfiles getBundled() {
+
+        if (sBundled == null) {
+            InputStream in = SelectorProfiles.class.getResourceAsStream("/" + FILE_NAME);
+            if (in == null) {
+                throw new IllegalStateException("Missing resource: " + FILE_NAME);
+            }
+            try {
+                sBundled = load(in);
+            } catch (IOException | IllegalArgumentException e) {
+                throw new IllegalStateException("Invalid resource: " + FILE_NAME, e);
+            } finally {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Already read.
+                }
+            }
+        }
+
+        return sBundled;
+
+    }
+
+    /**
+     * Loads and compiles the profiles from a stream. The stream is not closed.
+     * @throws IOException              If the stream can't be read.
+     * @throws IllegalArgumentException If the content is not valid.
+     */
+    public static SelectorProfiles load(InputStream in) throws IOException {
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, CHARSET));
+        Map<String, Map<String, String>> sections = new LinkedHashMap<>();
+        Map<String, String> section = null;
+
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            if (line.startsWith("[") && line.endsWith("]")) {
+                String name = line.substring(1, line.length() - 1).trim()
+                        .toLowerCase(Locale.ENGLISH);
+                section = new LinkedHashMap<>();
+                sections.put(name, section);
+                continue;
+            }
+
+            int equals = line.indexOf('=');
+            if (equals == -1) {
+                throw new IllegalArgumentException("Invalid line " + lineNumber + ": " + line);
+            }
+            String key = line.substring(0, equals).trim().toLowerCase(Locale.ENGLISH);
+            String value = line.substring(equals + 1).trim();
+
+            if (section == null) {
+                throw new IllegalArgumentException("Key outside a profile at line " + lineNumber);
+            }
+            section.put(key, value);
+
+        }
+
+        return new SelectorProfiles(sections);
+
+    }
+
+    /**
+     * Returns the rules of any marketplace and any category.
+     */
+    public ExtractionRules getDefaultRules() { return mRules.get(DEFAULT_PROFILE); }
+
+    /**
+     * Returns the rules for the page of a product.
+     * @param url   The URL of the product. Its host selects the marketplace and its {@code s}
+     *              parameter, if any, selects the category.
+     * @return  The most specific rules available.
+     */
+    public ExtractionRules getRules(String url) {
+
+        String domain = RateLimiter.getHost(url);
+        String category = getCategory(url);
+
+        if (!mRules.containsKey(domain)) {
+            domain = DEFAULT_PROFILE;
+        }
+
+        ExtractionRules rules = null;
+        if (category != null) {
+            rules = mRules.get(domain + CATEGORY_SEPARATOR + category);
+        }
+
+        return (rules != null) ? rules : mRules.get(domain);
+
+    }
+
+    /**
+     * Returns the category of a product from the search alias in its URL, or {@code null} if the
+     * URL has no known alias.
+     */
+    String getCategory(String url) {
+
+        String query;
+        try {
+            query = new URL(url).getQuery();
+        } catch (MalformedURLException e) {
+            return null;
+        }
+        if (query == null) {
+            return null;
+        }
+
+        for (String parameter : query.split("&")) {
+            if (parameter.startsWith("s=")) {
+                return mAliases.get(parameter.substring("s=".length()).toLowerCase(Locale.ENGLISH));
+            }
+        }
+
+        return null;
+
+    }
+
+    /**
+     * Returns the queries of a profile, taking the keys it doesn't define from the more generic
+     * profiles.
+     * @param category  The category, or {@code null} for the rules of the marketplace only.
+     */
+    private static Map<String, String> resolve(Map<String, Map<String, String>> sections,
+                                               String domain, String category) {
+
+        List<String> names = new ArrayList<>();
+        if (category != null) {
+            names.add(domain + CATEGORY_SEPARATOR + category);
+        }
+        names.add(domain);
+        if (category != null) {
+            names.add(DEFAULT_PROFILE + CATEGORY_SEPARATOR + category);
+        }
+        names.add(DEFAULT_PROFILE);
+
+        Map<String, String> queries = new HashMap<>();
+        for (String key : new String[]{ KEY_DEAL_PRICE, KEY_PRICE, KEY_TITLE, KEY_ROBOT_CHECK }) {
+            for (String name : names) {
+                Map<String, String> section = sections.get(name);
+                if (section != null && section.containsKey(key)) {
+                    queries.put(key, section.get(key));
+                    break;
+                }
+            }
+            if (!queries.containsKey(key)) {
+                throw new IllegalArgumentException("Missing " + key + " in " + DEFAULT_PROFILE);
+            }
+        }
+
+        return queries;
+
+    }
+
+    /**
+     * Joins the queries of several profiles, so that an element matched by any of them is
+     * matched.
+     */
+    private static Map<String, String> merge(List<Map<String, String>> profiles) {
+
+        Map<String, Set<String>> selectors = new HashMap<>();
+        for (Map<String, String> profile : profiles) {
+            for (Map.Entry<String, String> entry : profile.entrySet()) {
+                if (!selectors.containsKey(entry.getKey())) {
+                    selectors.put(entry.getKey(), new LinkedHashSet<String>());
+                }
+                for (String selector : ExtractionRules.splitSelectors(entry.getValue())) {
+                    selectors.get(entry.getKey()).add(selector);
+                }
+            }
+        }
+
+        Map<String, String> merged = new HashMap<>();
+        for (Map.Entry<String, Set<String>> entry : selectors.entrySet()) {
+            StringBuilder query = new StringBuilder();
+            for (String selector : entry.getValue()) {
+                if (query.length() > 0) {
+                    query.append(',');
+                }
+                query.append(selector);
+            }
+            merged.put(entry.getKey(), query.toString());
+        }
+
+        return merged;
+
+    }
+
+    private static ExtractionRules compile(Map<String, String> queries) {
+        return new ExtractionRules(
+                queries.get(KEY_DEAL_PRICE),
+                queries.get(KEY_PRICE),
+                queries.get(KEY_TITLE),
+                queries.get(KEY_ROBOT_CHECK));
+    }
+
+}
@@ -79,6 +79,8 @@ public class SettingsActivity extends AppCompatPreferenceActivity {
             updateSummaryAndValue(findPreference(getString(R.string.pref_key_enable_vibration)));
             updateSummaryAndValue(findPreference(getString(R.string.
                     pref_key_update_frequency)));
+            updateSummaryAndValue(findPreference(getString(R.string.
+                    pref_key_lookup_concurrency)));
 
             // Define the behavior for the button to empty the list:
             Preference emptyItemsListPreference = findPreference(
@@ -98,10 +100,8 @@ public class SettingsActivity extends AppCompatPreferenceActivity {
                                     new DialogInterface.OnClickListener() {
                                         @Override
                                         public void onClick(DialogInterface dialog, int which) {
-                                            DBHandler dbHandler = new DBHandler(
-                                                    preference.getContext()
-                                            );
-                                            dbHandler.emptyTable();
+                                            DBHandler.getInstance(preference.getContext())
+                                                    .emptyTable();
                                         }
                                     });
 
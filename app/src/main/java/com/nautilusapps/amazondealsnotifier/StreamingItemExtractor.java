@@ -0,0 +1,734 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import org.jsoup.parser.Parser;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Scrapes the data of an Amazon product while its page is being read, without building the tree
+ * of the page. The start tags are matched against the {@link ExtractionRules} of its marketplace,
+ * the same used by {@link DocumentItemExtractor}, and the reading stops as soon as the title and
+ * the price have been found. Since the price and the title are near the top of a product page,
+ * most of the page is never downloaded. The reading stops as well if the page is a robot
+ * check.<br>
+ * The price is taken from the {@link StructuredData} of the page, if any: it is exact and it is
+ * found without waiting for a deal price. The selectors of the price are used only if the page has
+ * no structured data.<br>
+ * Only simple selectors are supported: a tag name, followed by any number of {@code [attr=value]},
+ * {@code [attr*=value]} and {@code .class}, joined with commas. The pages whose rules use anything
+ * else are handed to a {@link DocumentItemExtractor}.<br>
+ * If the response doesn't declare a charset, it is taken from the {@code <meta>} tags at the start
+ * of the page, as jsoup does, and UTF-8 is used if there is none.
+ */
+public class StreamingItemExtractor implements ItemExtractor {
+
+    /**
+     * Matches a start tag against a simple CSS selector. As in jsoup, the tag names, the attribute
+     * values and the classes are compared ignoring case.
+     */
+    static class ElementPattern {
+
+        private final String mTag;
+        private final String[] mAttributeNames;
+        private final String[] mAttributeValues;
+        private final boolean[] mAttributeContains;
+        private final String[] mClasses;
+
+        private ElementPattern(String tag, List<String> attributeNames,
+                               List<String> attributeValues, List<Boolean> attributeContains,
+                               List<String> classes) {
+            this.mTag = tag;
+            this.mAttributeNames = attributeNames.toArray(new String[attributeNames.size()]);
+            this.mAttributeValues = attributeValues.toArray(new String[attributeValues.size()]);
+            this.mAttributeContains = new boolean[attributeContains.size()];
+            for (int i = 0; i < mAttributeContains.length; i++) {
+                mAttributeContains[i] = attributeContains.get(i);
+            }
+            this.mClasses = classes.toArray(new String[classes.size()]);
+        }
+
+        /**
+         * Compiles a comma-separated list of simple selectors.
+         * @param query The CSS query.
+         * @return  A pattern for each selector.
+         * @throws IllegalArgumentException If the query uses an unsupported syntax.
+         */
+        static ElementPattern[] compile(String query) {
+
+            String[] selectors = ExtractionRules.splitSelectors(query);
+            ElementPattern[] patterns = new ElementPattern[selectors.length];
+
+            for (int i = 0; i < selectors.length; i++) {
+                patterns[i] = compileSelector(selectors[i]);
+            }
+
+            return patterns;
+
+        }
+
+        /**
+         * Compiles a simple selector.
+         * @throws IllegalArgumentException If the selector uses an unsupported syntax.
+         */
+        static ElementPattern compileSelector(String selector) {
+
+            List<String> names = new ArrayList<>();
+            List<String> values = new ArrayList<>();
+            List<Boolean> contains = new ArrayList<>();
+            List<String> classes = new ArrayList<>();
+
+            int i = 0;
+            while (i < selector.length() && Character.isLetterOrDigit(selector.charAt(i))) {
+                i++;
+            }
+            String tag = (i > 0) ? selector.substring(0, i).toLowerCase(Locale.ENGLISH) : null;
+
+            while (i < selector.length()) {
+                char c = selector.charAt(i);
+                if (c == '[') {
+                    int equals = selector.indexOf('=', i);
+                    if (equals == -1) {
+                        throw new IllegalArgumentException("Unsupported selector: " + selector);
+                    }
+                    // A quoted value may contain a ']':
+                    int valueStart = equals + 1;
+                    while (valueStart < selector.length() && isSpace(selector.charAt(valueStart))) {
+                        valueStart++;
+                    }
+                    int end = -1;
+                    if (valueStart < selector.length() && (selector.charAt(valueStart) == '"' ||
+                            selector.charAt(valueStart) == '\'')) {
+                        int closingQuote =
+                                selector.indexOf(selector.charAt(valueStart), valueStart + 1);
+                        if (closingQuote != -1) {
+                            end = selector.indexOf(']', closingQuote);
+                        }
+                    } else {
+                        end = selector.indexOf(']', i);
+                    }
+                    if (end == -1 || equals > end) {
+                        throw new IllegalArgumentException("Unsupported selector: " + selector);
+                    }
+                    boolean isContains = selector.charAt(equals - 1) == '*';
+                    names.add(selector.substring(i + 1, isContains ? equals - 1 : equals)
+                            .trim().toLowerCase(Locale.ENGLISH));
+                    values.add(unquote(selector.substring(equals + 1, end).trim())
+                            .toLowerCase(Locale.ENGLISH));
+                    contains.add(isContains);
+                    i = end + 1;
+                } else if (c == '.') {
+                    int end = i + 1;
+                    while (end < selector.length() && selector.charAt(end) != '.' &&
+                            selector.charAt(end) != '[') {
+                        end++;
+                    }
+                    classes.add(selector.substring(i + 1, end).toLowerCase(Locale.ENGLISH));
+                    i = end;
+                } else {
+                    throw new IllegalArgumentException("Unsupported selector: " + selector);
+                }
+            }
+
+            return new ElementPattern(tag, names, values, contains, classes);
+
+        }
+
+        /**
+         * Removes the quotes around the value of an attribute selector, as jsoup does.
+         */
+        private static String unquote(String value) {
+            if (value.length() >= 2 && (value.charAt(0) == '"' || value.charAt(0) == '\'') &&
+                    value.charAt(value.length() - 1) == value.charAt(0)) {
+                return value.substring(1, value.length() - 1);
+            }
+            return value;
+        }
+
+        /**
+         * Checks whether a start tag matches the selector.
+         * @param tag   The parsed start tag.
+         */
+        boolean matches(StartTag tag) {
+
+            if (mTag != null && !mTag.equals(tag.name)) {
+                return false;
+            }
+
+            for (int i = 0; i < mAttributeNames.length; i++) {
+                String value = tag.getAttribute(mAttributeNames[i]);
+                if (value == null) {
+                    return false;
+                }
+                value = value.trim().toLowerCase(Locale.ENGLISH);
+                if (mAttributeContains[i] ? !value.contains(mAttributeValues[i])
+                        : !value.equals(mAttributeValues[i])) {
+                    return false;
+                }
+            }
+
+            if (mClasses.length > 0) {
+                String classAttribute = tag.getAttribute("class");
+                if (classAttribute == null) {
+                    return false;
+                }
+                String[] tagClasses = classAttribute.toLowerCase(Locale.ENGLISH).split("\\s+");
+                for (String required : mClasses) {
+                    boolean found = false;
+                    for (String tagClass : tagClasses) {
+                        if (tagClass.equals(required)) {
+                            found = true;
+                            break;
+                        }
+                    }
+                    if (!found) {
+                        return false;
+                    }
+                }
+            }
+
+            return true;
+
+        }
+
+    }
+
+    /**
+     * A start tag, parsed from the text between {@code <} and {@code >}. The instance is reused
+     * for each tag of a page.
+     */
+    static class StartTag {
+
+        /** Lower case name of the tag. */
+        String name;
+        /** Whether the tag is closed by {@code />}. */
+        boolean selfClosing;
+        private final List<String> mNames = new ArrayList<>();
+        private final List<String> mValues = new ArrayList<>();
+
+        /**
+         * Parses the text of a start tag, without the angle brackets.
+         */
+        void parse(CharSequence text) {
+
+            mNames.clear();
+            mValues.clear();
+
+            int length = text.length();
+            selfClosing = length > 0 && text.charAt(length - 1) == '/';
+            if (selfClosing) {
+                length--;
+            }
+
+            int i = 0;
+            while (i < length && !isSpace(text.charAt(i))) {
+                i++;
+            }
+            name = text.subSequence(0, i).toString().toLowerCase(Locale.ENGLISH);
+
+            while (i < length) {
+
+                while (i < length && isSpace(text.charAt(i))) {
+                    i++;
+                }
+                int start = i;
+                while (i < length && text.charAt(i) != '=' && !isSpace(text.charAt(i))) {
+                    i++;
+                }
+                if (i == start) {
+                    i++;
+                    continue;
+                }
+                String attributeName =
+                        text.subSequence(start, i).toString().toLowerCase(Locale.ENGLISH);
+
+                while (i < length && isSpace(text.charAt(i))) {
+                    i++;
+                }
+                String value = "";
+                if (i < length && text.charAt(i) == '=') {
+                    i++;
+                    while (i < length && isSpace(text.charAt(i))) {
+                        i++;
+                    }
+                    if (i < length && (text.charAt(i) == '"' || text.charAt(i) == '\'')) {
+                        char quote = text.charAt(i);
+                        int end = i + 1;
+                        while (end < length && text.charAt(end) != quote) {
+                            end++;
+                        }
+                        value = text.subSequence(i + 1, end).toString();
+                        i = end + 1;
+                    } else {
+                        start = i;
+                        while (i < length && !isSpace(text.charAt(i))) {
+                            i++;
+                        }
+                        value = text.subSequence(start, i).toString();
+                    }
+                }
+
+                mNames.add(attributeName);
+                mValues.add(Parser.unescapeEntities(value, true));
+
+            }
+
+        }
+
+        /**
+         * Returns the value of an attribute, or {@code null} if the tag doesn't have it.
+         * @param attributeName Lower case name of the attribute.
+         */
+        String getAttribute(String attributeName) {
+            int index = mNames.indexOf(attributeName);
+            return (index == -1) ? null : mValues.get(index);
+        }
+
+    }
+
+    /**
+     * Number of characters to read after the current price has been found, looking for a deal
+     * price, before stopping. The deal price, if any, is in the same block of the current price.
+     */
+    private static final int DEAL_PRICE_LOOKAHEAD = 16 * 1024;
+    private static final String DEFAULT_CHARSET = "UTF-8";
+    /** Number of bytes at the start of a page searched for its charset, the same as jsoup. */
+    private static final int CHARSET_SNIFF_LENGTH = 5 * 1024;
+    /** Elements whose content is not markup. */
+    private static final String[] RAW_TEXT_TAGS = { "script", "style", "textarea", "title" };
+
+    // Fields which can be captured:
+    private static final int FIELD_NONE = -1;
+    private static final int FIELD_DEAL_PRICE = ExtractionRules.FIELD_DEAL_PRICE;
+    private static final int FIELD_PRICE = ExtractionRules.FIELD_PRICE;
+    private static final int FIELD_TITLE = ExtractionRules.FIELD_TITLE;
+    /** Index of the patterns of the robot check. */
+    private static final int FIELD_ROBOT_CHECK = 3;
+
+    // Scanner states:
+    private static final int STATE_TEXT = 0;
+    private static final int STATE_TAG = 1;
+    private static final int STATE_COMMENT = 2;
+    private static final int STATE_RAW_TEXT = 3;
+
+    @Override
+    public void extract(InputStream in, String charset, LookUpResult result, boolean scrapeTitle)
+            throws IOException {
+
+        ExtractionRules rules =
+                LookUpEngine.getInstance().getSelectorProfiles().getRules(result.url);
+        ElementPattern[][] patterns = rules.getStreamingPatterns();
+        if (patterns == null) {
+            new DocumentItemExtractor().extract(in, charset, result, scrapeTitle);
+            return;
+        }
+        long start = System.nanoTime();
+        int[] selectors = { -1, -1, -1 };
+
+        InputStream body = in;
+        if (charset == null) {
+            BufferedInputStream buffered = new BufferedInputStream(in, CHARSET_SNIFF_LENGTH);
+            charset = sniffCharset(buffered);
+            body = buffered;
+        }
+        Reader reader =
+                new InputStreamReader(body, (charset != null) ? charset : DEFAULT_CHARSET);
+        char[] buffer = new char[8192];
+        StringBuilder tagText = new StringBuilder();
+        StringBuilder captureText = new StringBuilder();
+        StartTag startTag = new StartTag();
+        String[] found = new String[3];
+        // The content of the JSON-LD block being read, or null:
+        StringBuilder jsonText = null;
+        boolean structured = false;
+
+        int state = STATE_TEXT;
+        char quote = 0;
+        String rawTextEnd = null;
+        int rawTextMatched = 0;
+        int captureField = FIELD_NONE;
+        String captureTag = null;
+        int captureDepth = 0;
+        long charsRead = 0;
+        long priceFoundAt = -1;
+
+        int n;
+        scan:
+        while ((n = reader.read(buffer)) != -1) {
+
+            for (int i = 0; i < n; i++) {
+
+                char c = buffer[i];
+
+                switch (state) {
+
+                    case STATE_TEXT:
+                        if (c == '<') {
+                            state = STATE_TAG;
+                            tagText.setLength(0);
+                            quote = 0;
+                        } else if (captureField != FIELD_NONE) {
+                            captureText.append(c);
+                        }
+                        break;
+
+                    case STATE_TAG:
+                        if (tagText.length() == 0 && !(Character.isLetter(c) || c == '/' ||
+                                c == '!' || c == '?')) {
+                            // Not a tag, just a '<' in the text:
+                            state = STATE_TEXT;
+                            if (captureField != FIELD_NONE) {
+                                captureText.append('<').append(c);
+                            }
+                        } else if (quote != 0) {
+                            if (c == quote) {
+                                quote = 0;
+                            }
+                            tagText.append(c);
+                        } else if ((c == '"' || c == '\'') && endsWithEquals(tagText)) {
+                            quote = c;
+                            tagText.append(c);
+                        } else if (c == '>') {
+                            state = STATE_TEXT;
+
+                            if (tagText.charAt(0) == '/') {
+                                // End tag:
+                                if (captureField != FIELD_NONE &&
+                                        tagNameEquals(tagText, 1, captureTag) &&
+                                        --captureDepth == 0) {
+                                    found[captureField] = normalizeText(captureText);
+                                    captureField = FIELD_NONE;
+                                    if (found[FIELD_PRICE] != null && priceFoundAt == -1) {
+                                        priceFoundAt = charsRead + i;
+                                    }
+                                }
+                            } else if (tagText.charAt(0) != '!' && tagText.charAt(0) != '?') {
+                                // Start tag:
+                                startTag.parse(tagText);
+                                if (matchesAny(patterns[FIELD_ROBOT_CHECK], startTag)) {
+                                    // Amazon sent a robot check instead of the page:
+                                    result.throttled = true;
+                                    return;
+                                }
+                                if (!structured && StructuredData.isPriceInput(startTag.name,
+                                        startTag.getAttribute("id"))) {
+                                    structured = StructuredData.parseAmount(
+                                            startTag.getAttribute("value"), null, result);
+                                }
+                                if (captureField != FIELD_NONE) {
+                                    if (startTag.name.equals(captureTag) &&
+                                            !startTag.selfClosing) {
+                                        captureDepth++;
+                                    }
+                                } else {
+                                    int field = matchField(patterns, startTag, found,
+                                            scrapeTitle, selectors);
+                                    if (field != FIELD_NONE && !startTag.selfClosing) {
+                                        captureField = field;
+                                        captureTag = startTag.name;
+                                        captureDepth = 1;
+                                        captureText.setLength(0);
+                                    }
+                                }
+                                rawTextEnd = getRawTextEnd(startTag);
+                                if (rawTextEnd != null) {
+                                    state = STATE_RAW_TEXT;
+                                    rawTextMatched = 0;
+                                    if (!structured && StructuredData.isJsonLd(startTag.name,
+                                            startTag.getAttribute("type"))) {
+                                        jsonText = new StringBuilder();
+                                    }
+                                }
+                            }
+
+                            if (isComplete(found, structured, scrapeTitle, priceFoundAt,
+                                    charsRead + i)) {
+                                break scan;
+                            }
+                        } else {
+                            tagText.append(c);
+                            if (tagText.length() == 3 && tagText.charAt(0) == '!' &&
+                                    tagText.charAt(1) == '-' && tagText.charAt(2) == '-') {
+                                state = STATE_COMMENT;
+                                tagText.setLength(0);
+                            }
+                        }
+                        break;
+
+                    case STATE_COMMENT:
+                        // Look for "-->":
+                        if (c == '>' && tagText.length() >= 2) {
+                            state = STATE_TEXT;
+                        } else if (c == '-') {
+                            tagText.append(c);
+                        } else {
+                            tagText.setLength(0);
+                        }
+                        break;
+
+                    case STATE_RAW_TEXT:
+                        // Skip the content until the end tag, unless it's JSON-LD:
+                        if (jsonText != null) {
+                            if (jsonText.length() < StructuredData.MAX_JSON_LENGTH) {
+                                jsonText.append(c);
+                            } else {
+                                jsonText = null;
+                            }
+                        }
+                        if (Character.toLowerCase(c) == rawTextEnd.charAt(rawTextMatched)) {
+                            rawTextMatched++;
+                            if (rawTextMatched == rawTextEnd.length()) {
+                                state = STATE_TAG;
+                                tagText.setLength(0);
+                                tagText.append(rawTextEnd, 1, rawTextEnd.length());
+                                if (jsonText != null) {
+                                    jsonText.setLength(jsonText.length() - rawTextEnd.length());
+                                    structured = StructuredData.parseJsonLd(jsonText, result);
+                                    jsonText = null;
+                                }
+                            }
+                        } else {
+                            rawTextMatched = (c == '<') ? 1 : 0;
+                        }
+                        break;
+
+                }
+
+            }
+
+            charsRead += n;
+
+        }
+
+        // The structured price, if any, has already been stored:
+        if (!structured) {
+            DocumentItemExtractor.parsePrice((found[FIELD_DEAL_PRICE] != null)
+                    ? found[FIELD_DEAL_PRICE] : found[FIELD_PRICE], result);
+        }
+        if (scrapeTitle) {
+            result.title = found[FIELD_TITLE];
+        }
+
+        // Count only the selectors whose element has been read to the end:
+        for (int field = 0; field < selectors.length; field++) {
+            if (found[field] == null) {
+                selectors[field] = -1;
+            }
+        }
+        LookUpEngine engine = LookUpEngine.getInstance();
+        engine.getRuleStats().onPageExtracted(RateLimiter.getHost(result.url), rules, selectors,
+                !structured, scrapeTitle);
+        engine.getExtractionStats().onPageExtracted(
+                structured ? ExtractionStats.Path.STRUCTURED_DATA
+                        : ExtractionStats.Path.STREAMING_SELECTORS,
+                result.price != AmazonItem.NO_PRICE, System.nanoTime() - start);
+
+    }
+
+    /**
+     * Returns the field whose patterns match the start tag, if that field hasn't been found yet.
+     * The patterns of each field are tried in the order of the query, and the index of the one
+     * which matches is stored in {@code selectors}.
+     */
+    private static int matchField(ElementPattern[][] patterns, StartTag tag,
+                                  String[] found, boolean scrapeTitle, int[] selectors) {
+
+        for (int field = FIELD_DEAL_PRICE; field <= FIELD_TITLE; field++) {
+            if (found[field] != null || (field == FIELD_TITLE && !scrapeTitle)) {
+                continue;
+            }
+            for (int i = 0; i < patterns[field].length; i++) {
+                if (patterns[field][i].matches(tag)) {
+                    selectors[field] = i;
+                    return field;
+                }
+            }
+        }
+
+        return FIELD_NONE;
+
+    }
+
+    private static boolean matchesAny(ElementPattern[] patterns, StartTag tag) {
+        for (ElementPattern pattern : patterns) {
+            if (pattern.matches(tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the reading can stop: the title has been found, if requested, and either the
+     * structured price or the deal price has been found, or the current price has been found and
+     * there is no deal price near it.
+     */
+    private static boolean isComplete(String[] found, boolean structured, boolean scrapeTitle,
+                                      long priceFoundAt, long position) {
+
+        if (scrapeTitle && found[FIELD_TITLE] == null) {
+            return false;
+        }
+
+        return structured || found[FIELD_DEAL_PRICE] != null ||
+                (priceFoundAt != -1 && position - priceFoundAt > DEAL_PRICE_LOOKAHEAD);
+
+    }
+
+    /**
+     * Returns the end tag which closes the raw text started by the tag, such as
+     * {@code "</script"}, or {@code null} if the content of the tag is markup.
+     */
+    private static String getRawTextEnd(StartTag tag) {
+
+        if (tag.selfClosing) {
+            return null;
+        }
+
+        for (String rawTextTag : RAW_TEXT_TAGS) {
+            if (rawTextTag.equals(tag.name)) {
+                return "</" + rawTextTag;
+            }
+        }
+
+        return null;
+
+    }
+
+    /**
+     * Reads the charset declared by the {@code <meta>} tags at the start of a page, either with
+     * the {@code charset} attribute or with {@code http-equiv="Content-Type"}. The bytes read are
+     * given back to the stream.
+     * @return  The charset, or {@code null} if none is declared or it is not supported.
+     */
+    static String sniffCharset(BufferedInputStream in) throws IOException {
+
+        byte[] head = new byte[CHARSET_SNIFF_LENGTH];
+        in.mark(head.length);
+        int length = 0;
+        int n;
+        while (length < head.length && (n = in.read(head, length, head.length - length)) != -1) {
+            length += n;
+        }
+        in.reset();
+
+        // The tags are in ASCII in any charset which jsoup would detect this way:
+        String text = new String(head, 0, length, "ISO-8859-1");
+        String lowerText = text.toLowerCase(Locale.ENGLISH);
+        StartTag tag = new StartTag();
+
+        int start = 0;
+        while ((start = lowerText.indexOf("<meta", start)) != -1) {
+
+            int end = lowerText.indexOf('>', start);
+            if (end == -1) {
+                break;
+            }
+            tag.parse(text.substring(start + 1, end));
+            start = end;
+
+            String charset = tag.getAttribute("charset");
+            String httpEquiv = tag.getAttribute("http-equiv");
+            if (charset == null && httpEquiv != null &&
+                    httpEquiv.trim().equalsIgnoreCase("content-type")) {
+                charset = UrlConnectionTransport.parseCharset(tag.getAttribute("content"));
+            }
+            if (charset == null) {
+                continue;
+            }
+
+            charset = charset.trim().replace("\"", "").replace("'", "");
+            try {
+                if (Charset.isSupported(charset)) {
+                    return charset;
+                }
+            } catch (IllegalCharsetNameException e) {
+                // Look for another declaration.
+            }
+
+        }
+
+        return null;
+
+    }
+
+    /**
+     * Checks whether the text of a tag ends with {@code =}, ignoring the spaces after it, so that
+     * the next quote starts the value of an attribute.
+     */
+    private static boolean endsWithEquals(CharSequence tagText) {
+        int i = tagText.length() - 1;
+        while (i >= 0 && isSpace(tagText.charAt(i))) {
+            i--;
+        }
+        return i >= 0 && tagText.charAt(i) == '=';
+    }
+
+    /**
+     * Checks whether the tag name at the given offset of the tag text is equal to the name.
+     */
+    private static boolean tagNameEquals(CharSequence tagText, int offset, String name) {
+
+        int end = offset;
+        while (end < tagText.length() && !isSpace(tagText.charAt(end))) {
+            end++;
+        }
+
+        if (end - offset != name.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.toLowerCase(tagText.charAt(offset + i)) != name.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+
+    }
+
+    /**
+     * Decodes the entities of a text and collapses its whitespaces, as
+     * {@link org.jsoup.nodes.Element#text()} does.
+     */
+    private static String normalizeText(CharSequence text) {
+
+        String decoded = Parser.unescapeEntities(text.toString(), false);
+        StringBuilder normalized = new StringBuilder(decoded.length());
+        boolean lastWasSpace = true;
+
+        for (int i = 0; i < decoded.length(); i++) {
+            char c = decoded.charAt(i);
+            if (isSpace(c)) {
+                if (!lastWasSpace) {
+                    normalized.append(' ');
+                    lastWasSpace = true;
+                }
+            } else {
+                normalized.append(c);
+                lastWasSpace = false;
+            }
+        }
+
+        int length = normalized.length();
+        if (length > 0 && normalized.charAt(length - 1) == ' ') {
+            normalized.setLength(length - 1);
+        }
+
+        return normalized.toString();
+
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+}
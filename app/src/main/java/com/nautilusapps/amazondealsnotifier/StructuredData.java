@@ -0,0 +1,274 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+/**
+ * Reads the price which Amazon embeds in its product pages in a machine-readable form, besides the
+ * text shown to the user:
+ * <ul>
+ *     <li>the value of the hidden input {@code #twister-plus-price-data-price}, such as
+ *     {@code 549.99};</li>
+ *     <li>the offer of the JSON-LD block, {@code <script type="application/ld+json">}, with its
+ *     {@code price} and {@code priceCurrency}.</li>
+ * </ul>
+ * These amounts always have a point as decimal separator and no grouping, so they are parsed
+ * exactly without guessing the format of the marketplace. The extractors try them first and fall
+ * back to the {@link ExtractionRules} only when the page has none.
+ */
+public class StructuredData {
+
+    /** Id of the hidden input which holds the price. */
+    static final String PRICE_INPUT_ID = "twister-plus-price-data-price";
+    /** Type of the scripts which hold JSON-LD. */
+    static final String JSON_LD_TYPE = "application/ld+json";
+    /** Max length of a JSON-LD block which is read, in characters. */
+    static final int MAX_JSON_LENGTH = 64 * 1024;
+    /** Members of an offer which hold its price, from the preferred one. */
+    private static final String[] PRICE_MEMBERS = { "price", "lowPrice" };
+    private static final String CURRENCY_MEMBER = "priceCurrency";
+    /** Max number of digits of an amount, so that it fits in a long. */
+    private static final int MAX_DIGITS = 18;
+
+    private StructuredData() {}
+
+    /**
+     * Checks whether a start tag is the hidden input which holds the price.
+     * @param tag   Lower case name of the tag.
+     * @param id    Value of its {@code id} attribute, or {@code null}.
+     */
+    static boolean isPriceInput(String tag, String id) {
+        return "input".equals(tag) && PRICE_INPUT_ID.equals(id);
+    }
+
+    /**
+     * Checks whether a start tag opens a JSON-LD block.
+     * @param tag   Lower case name of the tag.
+     * @param type  Value of its {@code type} attribute, or {@code null}.
+     */
+    static boolean isJsonLd(String tag, String type) {
+        return "script".equals(tag) && type != null && JSON_LD_TYPE.equalsIgnoreCase(type.trim());
+    }
+
+    /**
+     * Reads the first structured price of a page, in the order of the page.
+     * @param document  The page of the product.
+     * @param result    Where to store the price and its currency. Its URL selects the marketplace.
+     * @return  {@code true} if a price has been found.
+     */
+    static boolean extract(Document document, LookUpResult result) {
+
+        for (Element element : document.select(
+                "input#" + PRICE_INPUT_ID + ", script[type=" + JSON_LD_TYPE + "]")) {
+            boolean found = element.tagName().equals("input")
+                    ? parseAmount(element.attr("value"), null, result)
+                    : parseJsonLd(element.data(), result);
+            if (found) {
+                return true;
+            }
+        }
+
+        return false;
+
+    }
+
+    /**
+     * Reads the price of the offer of a JSON-LD block.
+     * @param json      The content of the block.
+     * @param result    Where to store the price and its currency. Its URL selects the marketplace,
+     *                  whose currency is used if the block has none.
+     * @return  {@code true} if a price has been found.
+     */
+    static boolean parseJsonLd(CharSequence json, LookUpResult result) {
+
+        String currency = findMember(json, CURRENCY_MEMBER);
+        for (String member : PRICE_MEMBERS) {
+            if (parseAmount(findMember(json, member), currency, result)) {
+                return true;
+            }
+        }
+
+        return false;
+
+    }
+
+    /**
+     * Parses a machine-readable amount, such as {@code "549.99"} or {@code "1234"}, exactly.
+     * @param amount    The amount, with a point as decimal separator, or {@code null}.
+     * @param currency  ISO 4217 code of its currency, or {@code null} to use the one of the
+     *                  marketplace.
+     * @param result    Where to store the price and its currency. Its URL selects the marketplace.
+     *                  If the amount is not valid, they are left as they are.
+     * @return  {@code true} if the amount is valid.
+     */
+    static boolean parseAmount(String amount, String currency, LookUpResult result) {
+
+        if (amount == null) {
+            return false;
+        }
+        if (currency == null || !isCurrencyCode(currency)) {
+            currency = PriceParser.getMarketplaceCurrency(RateLimiter.getHost(result.url));
+        }
+        int fractionDigits = PriceParser.getFractionDigits(currency);
+
+        amount = amount.trim();
+        long value = 0;
+        int digits = 0;
+        int decimals = -1;
+        for (int i = 0; i < amount.length(); i++) {
+            char c = amount.charAt(i);
+            if (c == '.' && decimals == -1 && digits > 0) {
+                decimals = 0;
+            } else if (c >= '0' && c <= '9') {
+                // Digits beyond the minor unit are dropped:
+                if (decimals == fractionDigits) {
+                    continue;
+                }
+                if (++digits > MAX_DIGITS) {
+                    return false;
+                }
+                value = value * 10 + (c - '0');
+                if (decimals != -1) {
+                    decimals++;
+                }
+            } else {
+                return false;
+            }
+        }
+        if (digits == 0) {
+            return false;
+        }
+
+        for (int i = Math.max(decimals, 0); i < fractionDigits; i++) {
+            value *= 10;
+        }
+
+        result.price = value;
+        result.currency = currency;
+        return true;
+
+    }
+
+    /**
+     * Returns the value of the first member of a JSON text with the given name, at any depth, if
+     * it is a string or a number.
+     * @return  The string, unescaped, or the number as written, or {@code null} if there is no
+     *          such member or its value is of another type.
+     */
+    static String findMember(CharSequence json, String name) {
+
+        int length = json.length();
+        StringBuilder string = new StringBuilder();
+        int i = 0;
+
+        while (i < length) {
+
+            if (json.charAt(i) != '"') {
+                i++;
+                continue;
+            }
+
+            i = readString(json, i, string);
+            if (i == -1) {
+                return null;
+            }
+
+            // Only a name is followed by a colon:
+            int next = skipSpaces(json, i);
+            if (next >= length || json.charAt(next) != ':' || !name.contentEquals(string)) {
+                continue;
+            }
+
+            int value = skipSpaces(json, next + 1);
+            if (value >= length) {
+                return null;
+            }
+            char c = json.charAt(value);
+            if (c == '"') {
+                return (readString(json, value, string) == -1) ? null : string.toString();
+            }
+            if (c == '-' || (c >= '0' && c <= '9')) {
+                int end = value;
+                while (end < length && "+-.0123456789eE".indexOf(json.charAt(end)) != -1) {
+                    end++;
+                }
+                return json.subSequence(value, end).toString();
+            }
+            return null;
+
+        }
+
+        return null;
+
+    }
+
+    /**
+     * Reads the string which starts with the quote at the given offset.
+     * @param string    Where to store the string, unescaped.
+     * @return  The offset after the closing quote, or -1 if the string is not terminated.
+     */
+    private static int readString(CharSequence json, int offset, StringBuilder string) {
+
+        string.setLength(0);
+        int length = json.length();
+
+        for (int i = offset + 1; i < length; i++) {
+            char c = json.charAt(i);
+            if (c == '"') {
+                return i + 1;
+            }
+            if (c != '\\') {
+                string.append(c);
+                continue;
+            }
+            if (++i >= length) {
+                return -1;
+            }
+            c = json.charAt(i);
+            switch (c) {
+                case 'b': string.append('\b'); break;
+                case 'f': string.append('\f'); break;
+                case 'n': string.append('\n'); break;
+                case 'r': string.append('\r'); break;
+                case 't': string.append('\t'); break;
+                case 'u':
+                    if (i + 4 >= length) {
+                        return -1;
+                    }
+                    try {
+                        string.append((char) Integer.parseInt(
+                                json.subSequence(i + 1, i + 5).toString(), 16));
+                    } catch (NumberFormatException e) {
+                        return -1;
+                    }
+                    i += 4;
+                    break;
+                default:
+                    string.append(c);
+            }
+        }
+
+        return -1;
+
+    }
+
+    private static int skipSpaces(CharSequence json, int offset) {
+        while (offset < json.length() && Character.isWhitespace(json.charAt(offset))) {
+            offset++;
+        }
+        return offset;
+    }
+
+    private static boolean isCurrencyCode(String currency) {
+        if (currency.length() != 3) {
+            return false;
+        }
+        for (int i = 0; i < 3; i++) {
+            if (currency.charAt(i) < 'A' || currency.charAt(i) > 'Z') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,52 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the requests and the bytes transferred by a look up. It can be updated by several threads
+ * at the same time.
+ */
+public class TransferStats {
+
+    private final AtomicLong mRequests = new AtomicLong();
+    private final AtomicLong mBytesReceived = new AtomicLong();
+    private final AtomicLong mBytesDecoded = new AtomicLong();
+
+    /**
+     * Accounts a request.
+     */
+    public void addRequest() { mRequests.incrementAndGet(); }
+
+    /**
+     * Accounts the bytes of a body, as received from the network.
+     */
+    public void addBytesReceived(long bytes) { mBytesReceived.addAndGet(bytes); }
+
+    /**
+     * Accounts the bytes of a body, after decompression.
+     */
+    public void addBytesDecoded(long bytes) { mBytesDecoded.addAndGet(bytes); }
+
+    /**
+     * Returns the number of requests sent.
+     */
+    public long getRequests() { return mRequests.get(); }
+
+    /**
+     * Returns the number of bytes of the bodies received from the network.
+     */
+    public long getBytesReceived() { return mBytesReceived.get(); }
+
+    /**
+     * Returns the number of bytes of the bodies after decompression.
+     */
+    public long getBytesDecoded() { return mBytesDecoded.get(); }
+
+    @Override
+    public String toString() {
+        return "requests=" + getRequests() +
+                ", received=" + getBytesReceived() +
+                ", decoded=" + getBytesDecoded();
+    }
+
+}
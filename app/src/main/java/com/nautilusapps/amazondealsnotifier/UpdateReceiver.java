@@ -8,15 +8,12 @@ import java.util.List;
 /**
  * Receives the device boot or an app update.<br>
  * If enabled, tries to update the items in the database and checks if there are any items on sale.
- * In that case shows a notification. If the update fails for more than {@link #MAX_ATTEMPTS} times,
- * the items are not updated.<br>
+ * In that case shows a notification. The items which fail are attempted again by the look up; if
+ * some of them still fail, the others are updated anyway.<br>
  * If the app is replaced (e.g. updated) reschedules the next update of the items table.
  */
 public class UpdateReceiver extends BroadcastReceiver {
 
-    /** Max number of update attempts. */
-    private final int MAX_ATTEMPTS = 3;
-
     @Override
     public void onReceive(Context context, Intent intent) {
 
@@ -27,16 +24,12 @@ public class UpdateReceiver extends BroadcastReceiver {
             // Check if update-on-boot is enabled:
             if (MainActivity.getUpdateOnBoot(context)) {
 
-                int attempts = 0, maxDelay = 500;
-
-                // Try to update the items in the database, increasing the delay if it fails:
-                while (!MainActivity.updateItems(context, maxDelay * attempts) &&
-                        attempts < MAX_ATTEMPTS) {
-                    attempts++;
-                }
+                // Try to update the items in the database, as fast as the limiters of the look
+                // up allow:
+                UpdateReport report = MainActivity.updateItems(context, 0);
 
-                // If there is any item on sale, show the notification:
-                List<AmazonItem> itemsOnSale = MainActivity.getItemsOnSale(context);
+                // If the update has put any item on sale, show the notification:
+                List<AmazonItem> itemsOnSale = report.getChangedItemsOnSale();
                 if (itemsOnSale.size() > 0) {
                     UpdateService.showItemsOnSaleNotification(context, itemsOnSale);
                 }
@@ -0,0 +1,88 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reports how an update of the items went. The items which have been looked up successfully are
+ * saved even if some others have failed, so an update can be partially successful.<br>
+ * It also carries the items whose prices the update has changed, so that the list and the
+ * notifications don't need to read the whole table again.
+ */
+public class UpdateReport {
+
+    private final int mUpdated;
+    private final int mFailed;
+    private final List<AmazonItem> mChangedItems;
+
+    /**
+     * @param updated   Number of items updated.
+     * @param failed    Number of items which couldn't be looked up.
+     */
+    public UpdateReport(int updated, int failed) {
+        this(updated, failed, Collections.<AmazonItem>emptyList());
+    }
+
+    /**
+     * @param updated       Number of items updated.
+     * @param failed        Number of items which couldn't be looked up.
+     * @param changedItems  The updated items whose prices have changed, as saved.
+     */
+    public UpdateReport(int updated, int failed, List<AmazonItem> changedItems) {
+        this.mUpdated = updated;
+        this.mFailed = failed;
+        this.mChangedItems = Collections.unmodifiableList(new ArrayList<>(changedItems));
+    }
+
+    /**
+     * Returns the number of items updated.
+     */
+    public int getUpdated() { return mUpdated; }
+
+    /**
+     * Returns the number of items which couldn't be looked up, and keep their previous data.
+     */
+    public int getFailed() { return mFailed; }
+
+    /**
+     * Returns the number of items which were to be updated.
+     */
+    public int getTotal() { return mUpdated + mFailed; }
+
+    /**
+     * Returns the items whose prices the update has changed, as saved.
+     */
+    public List<AmazonItem> getChangedItems() { return mChangedItems; }
+
+    /**
+     * Returns the items which the update has changed and which are on sale, such as the ones whose
+     * price has just dropped.
+     */
+    public List<AmazonItem> getChangedItemsOnSale() {
+        List<AmazonItem> itemsOnSale = new ArrayList<>();
+        for (AmazonItem item : mChangedItems) {
+            if (item.isOnSale()) {
+                itemsOnSale.add(item);
+            }
+        }
+        return itemsOnSale;
+    }
+
+    /**
+     * Checks whether every item has been updated.
+     */
+    public boolean isComplete() { return mFailed == 0; }
+
+    /**
+     * Checks whether no item could be updated, although there were items to update. It usually
+     * means that the device is offline.
+     */
+    public boolean isFailed() { return mUpdated == 0 && mFailed > 0; }
+
+    @Override
+    public String toString() {
+        return "updated=" + mUpdated + ", failed=" + mFailed + ", changed=" + mChangedItems.size();
+    }
+
+}
@@ -27,27 +27,21 @@ import java.util.List;
 public class UpdateService extends GcmTaskService {
 
     private static final String TAG = UpdateService.class.getCanonicalName();
-    /** Max number of update attempts. */
-    private final int MAX_ATTEMPTS = 2;
 
     @Override
     public int onRunTask(TaskParams taskParams) {
 
-        int attempts = 0, maxDelay = 500;
-
-        // Try to update the items in the database:
-        while (!MainActivity.updateItems(getApplicationContext(), maxDelay * attempts) &&
-                attempts < MAX_ATTEMPTS) {
-            attempts++;
-        }
-
-        // If has failed, reschedule the task with back-off.
-        if (attempts == MAX_ATTEMPTS - 1) {
+        // Try to update the items in the database. The items which fail are already attempted
+        // again by the look up, and the ones updated are saved anyway. Only if no item could be
+        // updated, reschedule the task with back-off. The requests are paced by the rate limiter
+        // and the concurrency limiter of the look up, without a random delay:
+        UpdateReport report = MainActivity.updateItems(getApplicationContext(), 0);
+        if (report.isFailed()) {
             return GcmNetworkManager.RESULT_RESCHEDULE;
         }
 
-        // If there is any item on sale, show the notification:
-        List<AmazonItem> itemsOnSale = MainActivity.getItemsOnSale(getApplicationContext());
+        // If the update has put any item on sale, show the notification:
+        List<AmazonItem> itemsOnSale = report.getChangedItemsOnSale();
         if (itemsOnSale.size() > 0 &&
                 MainActivity.getEnableNotifications(getApplicationContext())) {
             showItemsOnSaleNotification(getApplicationContext(), itemsOnSale);
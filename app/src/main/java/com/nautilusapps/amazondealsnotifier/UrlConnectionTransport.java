@@ -0,0 +1,296 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Implements {@link HttpTransport} with {@link java.net.HttpURLConnection}.
+ * <ul>
+ *     <li>The connections are kept alive and pooled per host by the platform, so the requests to
+ *     the same marketplace reuse them.</li>
+ *     <li>Every HTTPS connection is created by the same {@code SSLSocketFactory}, so the TLS
+ *     sessions are resumed instead of being negotiated again.</li>
+ *     <li>The responses are requested compressed with gzip or deflate, and decompressed while
+ *     being read.</li>
+ * </ul>
+ */
+public class UrlConnectionTransport implements HttpTransport {
+
+    /**
+     * Counts the bytes read from a stream into {@link TransferStats}.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private final TransferStats mStats;
+        private final boolean mDecoded;
+
+        /**
+         * @param decoded   Whether the stream is decompressed, or as received from the network.
+         */
+        CountingInputStream(InputStream in, TransferStats stats, boolean decoded) {
+            super(in);
+            this.mStats = stats;
+            this.mDecoded = decoded;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        private void count(long bytes) {
+            if (mDecoded) {
+                mStats.addBytesDecoded(bytes);
+            } else {
+                mStats.addBytesReceived(bytes);
+            }
+        }
+
+    }
+
+    /**
+     * Wraps an open connection.
+     */
+    private static class UrlConnectionResponse implements Response {
+
+        private final HttpURLConnection mConnection;
+        private final int mStatusCode;
+        private final InputStream mRawBody;
+        private final InputStream mBody;
+
+        UrlConnectionResponse(HttpURLConnection connection, TransferStats stats)
+                throws IOException {
+
+            this.mConnection = connection;
+            this.mStatusCode = connection.getResponseCode();
+
+            InputStream raw = (mStatusCode >= 400)
+                    ? connection.getErrorStream()
+                    : connection.getInputStream();
+            if (raw == null) {
+                raw = new InputStream() {
+                    @Override
+                    public int read() { return -1; }
+                };
+            }
+            if (stats != null) {
+                raw = new CountingInputStream(raw, stats, false);
+            }
+            this.mRawBody = raw;
+
+            // A response without a body may still have the encoding of the page:
+            InputStream body = (mStatusCode == HttpURLConnection.HTTP_NOT_MODIFIED)
+                    ? raw
+                    : decode(raw, connection.getContentEncoding());
+            if (stats != null) {
+                body = new CountingInputStream(body, stats, true);
+            }
+            this.mBody = body;
+
+        }
+
+        @Override
+        public int getStatusCode() { return mStatusCode; }
+
+        @Override
+        public String getUrl() { return mConnection.getURL().toString(); }
+
+        @Override
+        public String getHeader(String name) { return mConnection.getHeaderField(name); }
+
+        @Override
+        public String getCharset() { return parseCharset(mConnection.getContentType()); }
+
+        @Override
+        public InputStream getBody() { return mBody; }
+
+        /**
+         * Releases the connection. If only a few bytes of the body are left unread, they are read
+         * so that the connection can be reused; otherwise the connection is closed, instead of
+         * letting the platform read the rest of the body.
+         */
+        @Override
+        public void close() {
+
+            boolean drained = false;
+            try {
+                byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+                long read = 0;
+                while (read <= DRAIN_LIMIT) {
+                    int n = mRawBody.read(buffer);
+                    if (n == -1) {
+                        drained = true;
+                        break;
+                    }
+                    read += n;
+                }
+                mBody.close();
+            } catch (IOException e) {
+                // The connection is discarded.
+            }
+
+            if (!drained) {
+                mConnection.disconnect();
+            }
+
+        }
+
+    }
+
+    /** Max number of unread bytes discarded to allow a connection to be reused. */
+    private static final long DRAIN_LIMIT = 8 * 1024;
+    private static final int DRAIN_BUFFER_SIZE = 2 * 1024;
+    private static final String ACCEPT_ENCODING = "gzip, deflate";
+    private final SSLSocketFactory mSslSocketFactory;
+
+    public UrlConnectionTransport() {
+
+        SSLSocketFactory sslSocketFactory;
+        try {
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, null, null);
+            sslSocketFactory = sslContext.getSocketFactory();
+        } catch (GeneralSecurityException e) {
+            sslSocketFactory = HttpsURLConnection.getDefaultSSLSocketFactory();
+        }
+        this.mSslSocketFactory = sslSocketFactory;
+
+    }
+
+    @Override
+    public Response execute(Request request, TransferStats stats) throws IOException {
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(request.url).openConnection();
+
+        if (connection instanceof HttpsURLConnection) {
+            ((HttpsURLConnection) connection).setSSLSocketFactory(mSslSocketFactory);
+        }
+        connection.setConnectTimeout(request.connectTimeout);
+        connection.setReadTimeout(request.readTimeout);
+        connection.setInstanceFollowRedirects(true);
+        connection.setRequestProperty("Accept-Encoding", ACCEPT_ENCODING);
+        for (Map.Entry<String, String> header : request.headers.entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+
+        if (stats != null) {
+            stats.addRequest();
+        }
+
+        try {
+            return new UrlConnectionResponse(connection, stats);
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+
+    }
+
+    /**
+     * Wraps a body in a stream which decompresses it, according to its content encoding.
+     */
+    static InputStream decode(InputStream body, String contentEncoding)
+            throws IOException {
+
+        if (contentEncoding == null) {
+            return body;
+        }
+
+        switch (contentEncoding.trim().toLowerCase(Locale.ENGLISH)) {
+            case "gzip":
+                return new GZIPInputStream(body);
+            case "deflate":
+                return inflate(body);
+            default:
+                return body;
+        }
+
+    }
+
+    /**
+     * Wraps a body encoded with deflate in a stream which inflates it. The encoding stands for
+     * the zlib format, but some servers send the raw deflate data, so the zlib header is checked
+     * first. The inflater is released when the stream is closed.
+     */
+    private static InputStream inflate(InputStream body) throws IOException {
+
+        PushbackInputStream in = new PushbackInputStream(body, 2);
+        byte[] header = new byte[2];
+        int read = 0;
+        while (read < header.length) {
+            int n = in.read(header, read, header.length - read);
+            if (n == -1) {
+                break;
+            }
+            read += n;
+        }
+        in.unread(header, 0, read);
+
+        // The compression method is deflate and the two bytes are a multiple of 31:
+        boolean zlib = read == header.length && (header[0] & 0x0F) == 8 &&
+                ((header[0] & 0xFF) << 8 | (header[1] & 0xFF)) % 31 == 0;
+
+        final Inflater inflater = new Inflater(!zlib);
+        return new InflaterInputStream(in, inflater) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+
+    }
+
+    /**
+     * Returns the charset of a content type such as {@code "text/html; charset=UTF-8"}, or
+     * {@code null} if not specified.
+     */
+    static String parseCharset(String contentType) {
+
+        if (contentType == null) {
+            return null;
+        }
+
+        for (String parameter : contentType.split(";")) {
+            parameter = parameter.trim();
+            if (parameter.toLowerCase(Locale.ENGLISH).startsWith("charset=")) {
+                String charset = parameter.substring("charset=".length()).trim();
+                charset = charset.replace("\"", "").replace("'", "");
+                return charset.isEmpty() ? null : charset;
+            }
+        }
+
+        return null;
+
+    }
+
+}
@@ -0,0 +1,140 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+    /**
+     * Sends a batch of requests as large as the limit, all with the same latency.
+     */
+    private static long sendBatch(AdaptiveConcurrencyLimiter limiter, long latency, long now)
+            throws InterruptedException {
+
+        int limit = limiter.getLimit();
+        for (int i = 0; i < limit; i++) {
+            limiter.acquire();
+        }
+        now += latency;
+        for (int i = 0; i < limit; i++) {
+            limiter.release(latency, now);
+        }
+
+        return now;
+
+    }
+
+    @Test
+    public void increaseWhileHealthy() throws InterruptedException {
+
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(16);
+        assertEquals(AdaptiveConcurrencyLimiter.INITIAL_LIMIT, limiter.getLimit());
+
+        long now = 0;
+        for (int i = 0; i < 5; i++) {
+            now = sendBatch(limiter, 300, now);
+        }
+
+        // Almost one more request per batch:
+        assertTrue(limiter.getLimit() >= AdaptiveConcurrencyLimiter.INITIAL_LIMIT + 3);
+        assertEquals(0, limiter.getInFlight());
+
+        // Never above the max:
+        for (int i = 0; i < 50; i++) {
+            now = sendBatch(limiter, 300, now);
+        }
+        assertEquals(16, limiter.getLimit());
+
+    }
+
+    @Test
+    public void halveOnThrottling() throws InterruptedException {
+
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(16);
+        long now = 0;
+        for (int i = 0; i < 20; i++) {
+            now = sendBatch(limiter, 300, now);
+        }
+        int limit = limiter.getLimit();
+
+        // Several requests dropped by the same congestion halve the limit only once:
+        for (int i = 0; i < 3; i++) {
+            limiter.acquire();
+        }
+        now += 1000;
+        limiter.releaseDropped(now);
+        limiter.releaseDropped(now + 10);
+        limiter.releaseDropped(now + 20);
+
+        assertEquals(limit / 2, limiter.getLimit());
+
+    }
+
+    @Test
+    public void decreaseWhenLatencyGrows() throws InterruptedException {
+
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(16);
+        long now = 0;
+        for (int i = 0; i < 20; i++) {
+            now = sendBatch(limiter, 300, now);
+        }
+        int limit = limiter.getLimit();
+
+        for (int i = 0; i < 10; i++) {
+            now = sendBatch(limiter, 3000, now);
+        }
+
+        assertTrue(limiter.getLimit() < limit);
+        assertTrue(limiter.getLimit() >= 1);
+
+    }
+
+    @Test
+    public void lowerMaxLimit() throws InterruptedException {
+
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(16);
+        limiter.setMaxLimit(2);
+        assertEquals(2, limiter.getLimit());
+
+        limiter.acquire();
+        limiter.releaseUnsent();
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(2, limiter.getLimit());
+
+    }
+
+    @Test
+    public void engineCeilingAboveConcurrency() {
+
+        LookUpEngine engine = LookUpEngine.getInstance();
+        try {
+            engine.setConcurrency(4);
+            assertEquals(4, engine.getConcurrency());
+            // The limiter can go above the configured concurrency, and the workers follow it:
+            AdaptiveConcurrencyLimiter limiter = engine.getConcurrencyLimiter();
+            assertEquals(4 * LookUpEngine.CONCURRENCY_HEADROOM, limiter.getMaxLimit());
+        } finally {
+            engine.setConcurrency(LookUpEngine.DEFAULT_CONCURRENCY);
+        }
+
+    }
+
+    @Test
+    public void measureThroughput() throws InterruptedException {
+
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4);
+        assertEquals(0, limiter.getThroughput(0), 0);
+
+        long now = 0;
+        for (int i = 0; i < 10; i++) {
+            limiter.acquire();
+            now += 500;
+            limiter.release(500, now);
+        }
+
+        assertEquals(2.0, limiter.getThroughput(now + 500), 0.01);
+
+    }
+
+}
@@ -0,0 +1,182 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the page of a product is fetched once for all the items which point at it, within
+ * a look up and across look ups running at the same time.
+ */
+public class AmazonItemLookUpCoalescingTest {
+
+    private static final String FIXTURE = "product_page.html";
+    private static final String[] VARIANTS = {
+            "https://www.amazon.it/dp/B07D95FNRK",
+            "https://www.amazon.it/dp/B07D95FNRK?th=1&psc=1",
+            "https://www.amazon.it/Puro-Lino-Camicia/dp/B07D95FNRK/ref=sr_1_3",
+    };
+    private static final String OTHER_PRODUCT = "https://www.amazon.it/dp/B01N5IB20Q";
+
+    /**
+     * Serves the fixture for every URL and records the URLs requested. The responses can be held
+     * until {@link #release()} is called.
+     */
+    private static class FixtureTransport implements HttpTransport {
+
+        private final byte[] mPage;
+        private final List<String> mRequests = new ArrayList<>();
+        private final CountDownLatch mGate;
+
+        FixtureTransport(boolean held) throws IOException {
+            this.mPage = FixtureServer.readFixture(FIXTURE).getBytes("UTF-8");
+            this.mGate = new CountDownLatch(held ? 1 : 0);
+        }
+
+        void release() { mGate.countDown(); }
+
+        synchronized List<String> getRequests() { return new ArrayList<>(mRequests); }
+
+        @Override
+        public Response execute(final Request request, TransferStats stats) throws IOException {
+
+            synchronized (this) {
+                mRequests.add(request.url);
+            }
+            try {
+                mGate.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+
+            return new Response() {
+                @Override
+                public int getStatusCode() { return 200; }
+                @Override
+                public String getUrl() { return request.url; }
+                @Override
+                public String getHeader(String name) { return null; }
+                @Override
+                public String getCharset() { return "UTF-8"; }
+                @Override
+                public InputStream getBody() { return new ByteArrayInputStream(mPage); }
+                @Override
+                public void close() {}
+            };
+
+        }
+
+    }
+
+    private LookUpEngine mEngine;
+    private HttpTransport mDefaultTransport;
+
+    @Before
+    public void setUp() {
+        mEngine = LookUpEngine.getInstance();
+        mDefaultTransport = mEngine.getHttpTransport();
+    }
+
+    @After
+    public void tearDown() {
+        mEngine.setHttpTransport(mDefaultTransport);
+    }
+
+    @Test
+    public void fetchEachProductOnce() throws IOException {
+
+        FixtureTransport transport = new FixtureTransport(false);
+        mEngine.setHttpTransport(transport);
+
+        String[] urls = { VARIANTS[0], OTHER_PRODUCT, VARIANTS[1], VARIANTS[2] };
+        AmazonItemLookUp lookUp = new AmazonItemLookUp(urls);
+        lookUp.setRetryPolicy(new RetryPolicy(1, 0, 0));
+        AmazonItem[] items = lookUp.getAmazonItems();
+
+        assertEquals(2, transport.getRequests().size());
+        for (int i = 0; i < items.length; i++) {
+            assertNotNull(items[i]);
+            assertEquals(54999, items[i].currentPrice);
+            // Each item keeps its own URL:
+            assertEquals(urls[i], items[i].url);
+            assertEquals(urls[i], lookUp.getLookUpResults()[i].url);
+        }
+
+    }
+
+    @Test
+    public void joinFetchOfConcurrentLookUp() throws Exception {
+
+        FixtureTransport transport = new FixtureTransport(true);
+        mEngine.setHttpTransport(transport);
+        long joined = mEngine.getJoinedFlights();
+
+        AmazonItemLookUp first = new AmazonItemLookUp(new String[]{ VARIANTS[0] });
+        first.setRetryPolicy(new RetryPolicy(1, 0, 0));
+        Future<AmazonItem[]> firstItems = first.getAmazonItemsAsync(null);
+        while (transport.getRequests().isEmpty()) {
+            Thread.sleep(5);
+        }
+
+        AmazonItemLookUp second = new AmazonItemLookUp(new String[]{ VARIANTS[1] });
+        second.setRetryPolicy(new RetryPolicy(1, 0, 0));
+        Future<AmazonItem[]> secondItems = second.getAmazonItemsAsync(null);
+        while (mEngine.getJoinedFlights() == joined) {
+            Thread.sleep(5);
+        }
+
+        transport.release();
+
+        assertEquals(54999, firstItems.get(10, TimeUnit.SECONDS)[0].currentPrice);
+        AmazonItem item = secondItems.get(10, TimeUnit.SECONDS)[0];
+        assertEquals(54999, item.currentPrice);
+        assertEquals(VARIANTS[1], item.url);
+        assertEquals(1, transport.getRequests().size());
+
+    }
+
+    @Test
+    public void fetchAgainIfFirstLookUpIsCancelled() throws Exception {
+
+        FixtureTransport transport = new FixtureTransport(true);
+        mEngine.setHttpTransport(transport);
+        long joined = mEngine.getJoinedFlights();
+
+        AmazonItemLookUp first = new AmazonItemLookUp(new String[]{ VARIANTS[0] });
+        first.setRetryPolicy(new RetryPolicy(1, 0, 0));
+        Future<AmazonItem[]> firstItems = first.getAmazonItemsAsync(null);
+        while (transport.getRequests().isEmpty()) {
+            Thread.sleep(5);
+        }
+
+        AmazonItemLookUp second = new AmazonItemLookUp(new String[]{ VARIANTS[1] });
+        second.setRetryPolicy(new RetryPolicy(1, 0, 0));
+        Future<AmazonItem[]> secondItems = second.getAmazonItemsAsync(null);
+        while (mEngine.getJoinedFlights() == joined) {
+            Thread.sleep(5);
+        }
+
+        // The second look up fetches the page itself:
+        firstItems.cancel(true);
+        while (transport.getRequests().size() < 2) {
+            Thread.sleep(5);
+        }
+        transport.release();
+
+        AmazonItem item = secondItems.get(10, TimeUnit.SECONDS)[0];
+        assertNotNull(item);
+        assertEquals(54999, item.currentPrice);
+
+    }
+
+}
@@ -0,0 +1,121 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that a look up keeps a bounded number of pages in memory, regardless of the number of
+ * items. The pages are served by a local {@link FixtureServer}.
+ */
+public class AmazonItemLookUpMemoryTest {
+
+    private static final String FIXTURE = "product_page.html";
+    /** Size of the filler of each page, so that each parsed page takes several MB. */
+    private static final int FILLER_KB = 1024;
+    private static final int N_ITEMS = 40;
+    private static final int MAX_LIVE_DOCUMENTS = 2;
+
+    private FixtureServer mServer;
+    private LookUpEngine mEngine;
+    private ItemExtractor mDefaultExtractor;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new FixtureServer();
+        mEngine = LookUpEngine.getInstance();
+        // Build the whole tree of each page:
+        mDefaultExtractor = mEngine.getItemExtractor();
+        mEngine.setItemExtractor(new DocumentItemExtractor());
+        mEngine.setConcurrency(8);
+        mEngine.setMaxLiveDocuments(MAX_LIVE_DOCUMENTS);
+        mEngine.resetPeakLiveDocuments();
+    }
+
+    @After
+    public void tearDown() {
+        mEngine.setItemExtractor(mDefaultExtractor);
+        mEngine.setMaxLiveDocuments(LookUpEngine.DEFAULT_MAX_LIVE_DOCUMENTS);
+        mEngine.setConcurrency(LookUpEngine.DEFAULT_CONCURRENCY);
+        mServer.stop();
+    }
+
+    @Test
+    public void liveDocumentsAreBounded() {
+
+        String[] urls = new String[N_ITEMS];
+        for (int i = 0; i < urls.length; i++) {
+            // Different products, which are not coalesced into a single request:
+            urls[i] = mServer.url(FIXTURE, 64) + "&id=" + i;
+        }
+
+        AmazonItem[] items = new AmazonItemLookUp(urls).getAmazonItems();
+
+        for (AmazonItem item : items) {
+            assertNotNull(item);
+            assertEquals(54999, item.currentPrice);
+        }
+        assertTrue(mEngine.getPeakLiveDocuments() <= MAX_LIVE_DOCUMENTS);
+
+    }
+
+    @Test
+    public void heapUsageIsBounded() throws Exception {
+
+        long baseline = usedHeap();
+
+        // Measure the footprint of a single parsed page:
+        Document document = Jsoup.connect(mServer.url(FIXTURE, FILLER_KB)).maxBodySize(0).get();
+        long documentFootprint = usedHeap() - baseline;
+        assertNotNull(document.title());
+        document = null;
+
+        String[] urls = new String[N_ITEMS];
+        for (int i = 0; i < urls.length; i++) {
+            urls[i] = mServer.url(FIXTURE, FILLER_KB) + "&id=" + i;
+        }
+
+        final long[] peak = { 0 };
+        AmazonItemLookUp lookUp = new AmazonItemLookUp(urls);
+        lookUp.setOnItemLookedUpListener(new AmazonItemLookUp.OnItemLookedUpListener() {
+            @Override
+            public void onItemLookedUp(int index, LookUpResult result) {
+                synchronized (peak) {
+                    peak[0] = Math.max(peak[0], usedHeap());
+                }
+            }
+        });
+        AmazonItem[] items = lookUp.getAmazonItems();
+        long retained = usedHeap() - baseline;
+
+        for (AmazonItem item : items) {
+            assertNotNull(item);
+        }
+
+        System.out.printf("Footprint of a page: %d KB\n", documentFootprint / 1024);
+        System.out.printf("Peak heap during the look up: %d KB\n", (peak[0] - baseline) / 1024);
+        System.out.printf("Heap retained after the look up: %d KB\n", retained / 1024);
+
+        // Only the pages in the window may be alive at the same time:
+        assertTrue(peak[0] - baseline < (MAX_LIVE_DOCUMENTS + 2) * documentFootprint);
+        // None of the pages is retained by the result:
+        assertTrue(retained < documentFootprint);
+
+    }
+
+    /**
+     * Returns the heap in use after a garbage collection.
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}
@@ -0,0 +1,105 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that a look up requests again only the pages which failed. The pages are served by a
+ * local {@link FixtureServer}.
+ */
+public class AmazonItemLookUpRetryTest {
+
+    private static final String FIXTURE = "product_page.html";
+    private static final int N_ITEMS = 10;
+
+    private FixtureServer mServer;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new FixtureServer();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+    }
+
+    @Test
+    public void retryOnlyFailedItems() {
+
+        String[] urls = new String[N_ITEMS];
+        for (int i = 0; i < urls.length; i++) {
+            // Two items fail once:
+            urls[i] = mServer.failingUrl(FIXTURE, (i == 3 || i == 7) ? 1 : 0, i);
+        }
+
+        AmazonItemLookUp lookUp = new AmazonItemLookUp(urls);
+        lookUp.setRetryPolicy(new RetryPolicy(3, 10, 100));
+        AmazonItem[] items = lookUp.getAmazonItems();
+
+        for (int i = 0; i < items.length; i++) {
+            assertNotNull(items[i]);
+            assertEquals(54999, items[i].currentPrice);
+            assertEquals((i == 3 || i == 7) ? 2 : 1, mServer.getRequestCount(urls[i]));
+        }
+        assertEquals(N_ITEMS + 2, lookUp.getTransferStats().getRequests());
+
+    }
+
+    @Test
+    public void giveUpAfterMaxAttempts() {
+
+        String[] urls = { mServer.failingUrl(FIXTURE, 5, 0), mServer.url(FIXTURE, 0) };
+
+        AmazonItemLookUp lookUp = new AmazonItemLookUp(urls);
+        lookUp.setRetryPolicy(new RetryPolicy(3, 10, 100));
+        AmazonItem[] items = lookUp.getAmazonItems();
+
+        assertNull(items[0]);
+        assertEquals(3, mServer.getRequestCount(urls[0]));
+        assertNotNull(items[1]);
+        assertEquals(1, mServer.getRequestCount(urls[1]));
+
+    }
+
+    @Test
+    public void dontRetryMissingPage() {
+
+        String[] urls = { mServer.url("missing.html", 0) };
+
+        AmazonItemLookUp lookUp = new AmazonItemLookUp(urls);
+        lookUp.setRetryPolicy(new RetryPolicy(3, 10, 100));
+        AmazonItem[] items = lookUp.getAmazonItems();
+
+        assertNull(items[0]);
+        assertEquals(1, mServer.getRequestCount(urls[0]));
+
+    }
+
+    @Test
+    public void updateSucceededItemsOnly() {
+
+        AmazonItem[] items = {
+                new AmazonItem("Available", 60000, "EUR", mServer.url(FIXTURE, 0)),
+                new AmazonItem("Missing", 1000, "EUR", mServer.url("missing.html", 0))
+        };
+
+        AmazonItemLookUp lookUp = new AmazonItemLookUp(items, null);
+        lookUp.setRetryPolicy(new RetryPolicy(3, 10, 100));
+        AmazonItem[] updatedItems = lookUp.updateAmazonItems();
+
+        assertEquals(54999, updatedItems[0].currentPrice);
+        assertEquals(60000, updatedItems[0].previousPrice);
+        assertNull(updatedItems[1]);
+        assertEquals(404, lookUp.getLookUpResults()[1].statusCode);
+
+        // The items passed to the look up are not modified:
+        assertNotNull(items[1]);
+        assertEquals(60000, items[0].currentPrice);
+
+    }
+
+}
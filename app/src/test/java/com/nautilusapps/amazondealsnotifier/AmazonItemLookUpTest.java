@@ -48,8 +48,10 @@ public class AmazonItemLookUpTest {
             System.out.printf("Item %d\n", i + 1);
             System.out.printf("Title: %s\n", items[i].title);
             System.out.printf("URL: %s\n", items[i].url);
-            System.out.printf("Previous price: %f\n", items[i].previousPrice);
-            System.out.printf("Current price: %f\n\n", items[i].currentPrice);
+            System.out.printf("Previous price: %s\n",
+                    Money.format(items[i].previousPrice, items[i].currency));
+            System.out.printf("Current price: %s\n\n",
+                    Money.format(items[i].currentPrice, items[i].currency));
         }
 
         System.out.printf("Number of items: %d", urls.length);
@@ -11,13 +11,60 @@ public class AmazonItemTest {
 
         AmazonItem item = new AmazonItem(
                 "Item example title",
-                100.0f,
+                10000,
+                "EUR",
                 "https://example.com/itemexample");
 
-        AmazonItem updatedItem = item.updateItem(50.0f);
+        AmazonItem updatedItem = item.updateItem(5000, "EUR");
 
-        assertEquals(50.0f, updatedItem.currentPrice, 0);
+        assertEquals(5000, updatedItem.currentPrice);
+        assertEquals(10000, updatedItem.previousPrice);
+        assertEquals("EUR", updatedItem.currency);
+        assertTrue(updatedItem.isOnSale());
+        // The original item is not modified:
+        assertEquals(10000, item.currentPrice);
+        assertEquals(AmazonItem.NO_PRICE, item.previousPrice);
+        assertFalse(item.isOnSale());
 
     }
 
-}
\ No newline at end of file
+    @Test
+    public void dropPreviousPriceOnCurrencyChange() {
+
+        AmazonItem item = new AmazonItem(
+                "Item example title",
+                10000,
+                "EUR",
+                "https://example.com/itemexample");
+
+        AmazonItem updatedItem = item.updateItem(5000, "GBP");
+
+        assertEquals(5000, updatedItem.currentPrice);
+        assertEquals(AmazonItem.NO_PRICE, updatedItem.previousPrice);
+        assertEquals("GBP", updatedItem.currency);
+        assertFalse(updatedItem.isOnSale());
+
+    }
+
+    @Test
+    public void keepPreviousPriceWhileUnchanged() {
+
+        AmazonItem item = new AmazonItem(
+                "Item example title",
+                10000,
+                "EUR",
+                "https://example.com/itemexample").updateItem(5000, "EUR");
+
+        // A quiet update leaves the item on sale:
+        AmazonItem updatedItem = item.updateItem(5000, "EUR");
+        assertEquals(10000, updatedItem.previousPrice);
+        assertTrue(updatedItem.isOnSale());
+        assertTrue(updatedItem.hasSamePrices(item));
+
+        updatedItem = updatedItem.updateItem(6000, null);
+        assertEquals(5000, updatedItem.previousPrice);
+        assertFalse(updatedItem.hasSamePrices(item));
+
+    }
+
+}
@@ -0,0 +1,210 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CircuitBreakerTest {
+
+    private static final String IT = "amazon.it";
+    private static final String DE = "amazon.de";
+    private static final long COOLDOWN = 60 * 1000;
+
+    @Test
+    public void openAfterRefusalsInARow() {
+
+        CircuitBreaker circuitBreaker = new CircuitBreaker(2, COOLDOWN);
+        long now = 1000000;
+
+        circuitBreaker.onRefused(IT, now);
+        assertTrue(circuitBreaker.allowRequest(IT, now));
+        // An accepted request starts the count again:
+        circuitBreaker.onSuccess(IT);
+        circuitBreaker.onRefused(IT, now);
+        assertFalse(circuitBreaker.isOpen(IT));
+
+        circuitBreaker.onRefused(IT, now);
+        assertTrue(circuitBreaker.isOpen(IT));
+        assertFalse(circuitBreaker.allowRequest(IT, now));
+        assertFalse(circuitBreaker.allowRequest(IT, now + COOLDOWN - 1));
+
+        // A late refusal of a request sent before the breaker opened doesn't extend it:
+        circuitBreaker.onRefused(IT, now + 1000);
+        assertTrue(circuitBreaker.allowRequest(IT, now + COOLDOWN));
+
+        // The other marketplaces are not affected:
+        assertTrue(circuitBreaker.allowRequest(DE, now));
+
+    }
+
+    @Test
+    public void closeAfterTrialIsAccepted() {
+
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, COOLDOWN);
+        long now = 1000000;
+
+        circuitBreaker.onRefused(IT, now);
+        now += COOLDOWN;
+
+        // A single trial request is let through:
+        assertTrue(circuitBreaker.allowRequest(IT, now));
+        assertFalse(circuitBreaker.allowRequest(IT, now));
+
+        circuitBreaker.onSuccess(IT);
+        assertFalse(circuitBreaker.isOpen(IT));
+        assertTrue(circuitBreaker.allowRequest(IT, now));
+        assertTrue(circuitBreaker.allowRequest(IT, now));
+
+    }
+
+    @Test
+    public void doubleCooldownAfterTrialIsRefused() {
+
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, COOLDOWN);
+        long now = 1000000;
+
+        circuitBreaker.onRefused(IT, now);
+        now += COOLDOWN;
+
+        // A trial which fails with a connection error can be sent again:
+        assertTrue(circuitBreaker.allowRequest(IT, now));
+        circuitBreaker.onError(IT);
+        assertTrue(circuitBreaker.allowRequest(IT, now));
+        // So can a trial which has been cancelled:
+        assertFalse(circuitBreaker.allowRequest(IT, now));
+        circuitBreaker.onCancelled(IT);
+        assertTrue(circuitBreaker.allowRequest(IT, now));
+
+        circuitBreaker.onRefused(IT, now);
+        assertFalse(circuitBreaker.allowRequest(IT, now + 2 * COOLDOWN - 1));
+        assertTrue(circuitBreaker.allowRequest(IT, now + 2 * COOLDOWN));
+
+    }
+
+    /**
+     * Serves a fixture for every URL, possibly after a redirect, and records the URLs requested.
+     */
+    private static class FixtureTransport implements HttpTransport {
+
+        private final byte[] mPage;
+        private final String mRedirectUrl;
+        private final List<String> mRequests = new ArrayList<>();
+
+        FixtureTransport(String fixture, String redirectUrl) throws IOException {
+            this.mPage = FixtureServer.readFixture(fixture).getBytes("UTF-8");
+            this.mRedirectUrl = redirectUrl;
+        }
+
+        synchronized List<String> getRequests() { return new ArrayList<>(mRequests); }
+
+        @Override
+        public Response execute(final Request request, TransferStats stats) {
+
+            synchronized (this) {
+                mRequests.add(request.url);
+            }
+
+            return new Response() {
+                @Override
+                public int getStatusCode() { return 200; }
+                @Override
+                public String getUrl() {
+                    return (mRedirectUrl != null) ? mRedirectUrl : request.url;
+                }
+                @Override
+                public String getHeader(String name) { return null; }
+                @Override
+                public String getCharset() { return "UTF-8"; }
+                @Override
+                public InputStream getBody() { return new ByteArrayInputStream(mPage); }
+                @Override
+                public void close() {}
+            };
+
+        }
+
+    }
+
+    private LookUpEngine mEngine;
+    private HttpTransport mDefaultTransport;
+
+    @Before
+    public void setUp() {
+        mEngine = LookUpEngine.getInstance();
+        mDefaultTransport = mEngine.getHttpTransport();
+    }
+
+    @After
+    public void tearDown() {
+        mEngine.setHttpTransport(mDefaultTransport);
+        mEngine.getCircuitBreaker().reset();
+    }
+
+    private static AmazonItemLookUp update(String url) {
+        AmazonItem[] items = { new AmazonItem("Camicia", 60000, "EUR", url) };
+        AmazonItemLookUp lookUp = new AmazonItemLookUp(items, null);
+        lookUp.setRetryPolicy(new RetryPolicy(3, 10, 100));
+        return lookUp;
+    }
+
+    @Test
+    public void skipMarketplaceWithOpenBreaker() throws IOException {
+
+        FixtureTransport transport = new FixtureTransport("product_page.html", null);
+        mEngine.setHttpTransport(transport);
+        for (int i = 0; i < CircuitBreaker.DEFAULT_THRESHOLD; i++) {
+            mEngine.getCircuitBreaker().onRefused("amazon.fr");
+        }
+
+        AmazonItemLookUp lookUp = update("https://www.amazon.fr/dp/B07D95FNRK");
+        assertNull(lookUp.updateAmazonItems()[0]);
+
+        // The look up fails straight away, without retries:
+        assertTrue(transport.getRequests().isEmpty());
+        assertEquals(LookUpResult.PageType.SKIPPED, lookUp.getLookUpResults()[0].pageType);
+
+    }
+
+    @Test
+    public void dontUpdatePriceFromRobotCheck() throws IOException {
+
+        FixtureTransport transport = new FixtureTransport("robot_check.html", null);
+        mEngine.setHttpTransport(transport);
+
+        AmazonItemLookUp lookUp = update("https://www.amazon.es/dp/B07D95FNRK");
+        lookUp.setRetryPolicy(new RetryPolicy(1, 0, 0));
+        assertNull(lookUp.updateAmazonItems()[0]);
+
+        LookUpResult result = lookUp.getLookUpResults()[0];
+        assertEquals(LookUpResult.PageType.ROBOT_CHECK, result.pageType);
+        assertTrue(result.throttled);
+        assertEquals(1, transport.getRequests().size());
+
+    }
+
+    @Test
+    public void dontUpdatePriceFromSearch() throws IOException {
+
+        FixtureTransport transport = new FixtureTransport("product_no_price.html",
+                "https://www.amazon.co.jp/s?k=B07D95FNRK");
+        mEngine.setHttpTransport(transport);
+
+        AmazonItemLookUp lookUp = update("https://www.amazon.co.jp/dp/B07D95FNRK");
+        assertNull(lookUp.updateAmazonItems()[0]);
+
+        LookUpResult result = lookUp.getLookUpResults()[0];
+        assertEquals(LookUpResult.PageType.NOT_PRODUCT, result.pageType);
+        assertFalse(result.throttled);
+        // The redirect is not temporary:
+        assertEquals(1, transport.getRequests().size());
+
+    }
+
+}
@@ -0,0 +1,189 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.select.Elements;
+import org.junit.Test;
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the {@link ExtractionRules} with the previous extraction, which parsed each CSS query
+ * and the price regex again for every item and ran a separate search of the tree for each query.
+ * The results must be the same; the times are printed.
+ */
+public class ExtractionRulesBenchmarkTest {
+
+    private static final String[] FIXTURES = {
+            "product_page.html",
+            "product_deal.html",
+            "product_book.html",
+            "product_no_price.html",
+            "robot_check.html"
+    };
+    // The CSS queries of the previous extraction, which tried every layout on every page:
+    private static final String LEGACY_DEAL_PRICE_CSS_QUERY = "span[id*=dealprice],span[id=priceblock_saleprice].a-size-medium.a-color-price,td.a-color-price.a-size-medium.a-align-bottom";
+    private static final String LEGACY_PRICE_CSS_QUERY = "span[id*=ourprice],span[id*=saleprice],span.a-size-large.a-color-result.guild_priceblock_ourprice,span.a-size-medium.a-color-price.offer-price.a-text-normal";
+    private static final String LEGACY_TITLE_CSS_QUERY = "span[id=ebooksProductTitle],span[id=productTitle]";
+    private static final String LEGACY_ROBOT_CHECK_CSS_QUERY = "form[action*=validateCaptcha]";
+    private static final String URL = "https://www.amazon.it/dp/B07D95FNRK";
+    private static final ExtractionRules RULES = SelectorProfiles.getBundled().getDefaultRules();
+    private static final int FILLER_KB = 256;
+    private static final int WARM_UP_ITERATIONS = 20;
+    private static final int ITERATIONS = 100;
+
+    private static Document[] parseFixtures() throws IOException {
+        Document[] documents = new Document[FIXTURES.length];
+        for (int i = 0; i < FIXTURES.length; i++) {
+            String page = FixtureServer.expandFiller(FixtureServer.readFixture(FIXTURES[i]),
+                    FILLER_KB);
+            documents[i] = Jsoup.parse(page, URL);
+        }
+        return documents;
+    }
+
+    /**
+     * The previous extraction of the price.
+     */
+    private static Float legacyExtractPrice(Document document) {
+
+        String price;
+
+        Elements elements = document.select(LEGACY_DEAL_PRICE_CSS_QUERY);
+        if (elements != null && elements.size() > 0) {
+            price = elements.get(0).text();
+        } else {
+            elements = document.select(LEGACY_PRICE_CSS_QUERY);
+            if (elements != null && elements.size() > 0) {
+                price = elements.get(0).text();
+            } else {
+                price = null;
+            }
+        }
+
+        return legacyParsePrice(price);
+
+    }
+
+    /**
+     * The previous extraction of the title.
+     */
+    private static String legacyExtractTitle(Document document) {
+        Elements elements = document.select(LEGACY_TITLE_CSS_QUERY);
+        return (elements != null && elements.size() > 0) ? elements.get(0).text() : null;
+    }
+
+    /**
+     * Parses a price as the look up does, converted to units for the comparison.
+     */
+    private static Float parsePrice(String price) {
+        LookUpResult result = new LookUpResult(URL);
+        DocumentItemExtractor.parsePrice(price, result);
+        return (result.price == AmazonItem.NO_PRICE) ? null : result.price / 100f;
+    }
+
+    /**
+     * The previous parsing of the price.
+     */
+    private static Float legacyParsePrice(String price) {
+
+        if (price == null) {
+            return null;
+        }
+
+        Pattern pattern = Pattern.compile("(\\d+[.,\\s]\\d+)");
+        Matcher matcher = pattern.matcher(price);
+
+        if (matcher.find()) {
+            price = matcher.group(1).replaceAll("[.,\\s]", "");
+            return Float.valueOf(price) / 100;
+        } else {
+            return null;
+        }
+
+    }
+
+    private static boolean legacyIsRobotCheck(Document document) {
+        return !document.select(LEGACY_ROBOT_CHECK_CSS_QUERY).isEmpty();
+    }
+
+    @Test
+    public void sameResultsAsSelect() throws IOException {
+
+        for (Document document : parseFixtures()) {
+
+            ExtractionRules.Match match = RULES.apply(document, true);
+
+            assertEquals(legacyIsRobotCheck(document), match.robotCheck);
+            // The same price text, parsed the same way:
+            assertEquals(legacyExtractPrice(document), legacyParsePrice(match.getPriceText()));
+            assertEquals(legacyExtractTitle(document), match.getTitleText());
+
+        }
+
+    }
+
+    @Test
+    public void sameResultsAsRegex() {
+
+        // The prices the regex parsed correctly, see PriceParserTest for the others:
+        String[] prices = {
+                "EUR 549,99", "EUR 279,90", "$ 12.50", "EUR 0,99", "no price", ""
+        };
+
+        for (String price : prices) {
+            assertEquals(price, legacyParsePrice(price), parsePrice(price));
+        }
+
+    }
+
+    @Test
+    public void benchmark() throws IOException {
+
+        Document[] documents = parseFixtures();
+        // Keeps the results alive, so that the extraction is not optimized away:
+        int sink = 0;
+
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            for (Document document : documents) {
+                sink += String.valueOf(legacyExtractPrice(document)).length();
+                sink += String.valueOf(legacyExtractTitle(document)).length();
+                sink += legacyIsRobotCheck(document) ? 1 : 0;
+                sink += String.valueOf(
+                        RULES.apply(document, true).getPriceText()).length();
+            }
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            for (Document document : documents) {
+                sink += legacyIsRobotCheck(document) ? 1 : 0;
+                sink += String.valueOf(legacyExtractPrice(document)).length();
+                sink += String.valueOf(legacyExtractTitle(document)).length();
+            }
+        }
+        long legacyTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            for (Document document : documents) {
+                ExtractionRules.Match match = RULES.apply(document, true);
+                sink += match.robotCheck ? 1 : 0;
+                sink += String.valueOf(parsePrice(match.getPriceText())).length();
+                sink += String.valueOf(match.getTitleText()).length();
+            }
+        }
+        long rulesTime = System.nanoTime() - start;
+
+        assertTrue(sink > 0);
+        System.out.printf("Select and regex: %.3f ms per page\n",
+                legacyTime / 1e6 / ITERATIONS / documents.length);
+        System.out.printf("Compiled rules: %.3f ms per page\n",
+                rulesTime / 1e6 / ITERATIONS / documents.length);
+
+    }
+
+}
@@ -0,0 +1,217 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local HTTP server which serves the product pages in {@code resources/fixtures}.<br>
+ * A page is requested as {@code /<fixture>?filler=<KB>}: the comment {@code <!-- FILLER -->} of
+ * the fixture is replaced by about the given amount of markup, to simulate a full product page.
+ * If the request accepts gzip, the page is compressed. The pages are built once and cached, so
+ * that serving them doesn't affect the heap usage of the tests.<br>
+ * With {@code &fail=<N>} the first N requests of the same URL are answered with HTTP 500.<br>
+ * With {@code &etag=1} the page is sent with an {@code ETag}, and a request which sends it back
+ * is answered with HTTP 304.
+ */
+public class FixtureServer {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String FILLER_PLACEHOLDER = "<!-- FILLER -->";
+    private static final String FILLER_BLOCK = "<div class=\"a-row a-spacing-small\"><span class=\"a-size-base a-color-secondary\">Dettagli prodotto</span><span class=\"a-size-base\">Lorem ipsum dolor sit amet</span></div>\n";
+
+    private final HttpServer mServer;
+    /** Bodies already built, by path, query and encoding. */
+    private final Map<String, byte[]> mBodies = new HashMap<>();
+    /** Number of requests received, by path and query. */
+    private final Map<String, Integer> mRequestCounts = new HashMap<>();
+
+    public FixtureServer() throws IOException {
+
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        mServer.setExecutor(Executors.newCachedThreadPool());
+        mServer.start();
+
+    }
+
+    /**
+     * Returns the URL of a fixture.
+     * @param fixture   Name of the fixture file.
+     * @param fillerKb  Approximate size of the filler markup, in KB.
+     */
+    public String url(String fixture, int fillerKb) {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + "/" + fixture +
+                "?filler=" + fillerKb;
+    }
+
+    /**
+     * Returns the URL of a fixture which fails a few times before being served.
+     * @param fixture   Name of the fixture file.
+     * @param failures  Number of requests answered with HTTP 500.
+     * @param id        Distinguishes the URLs of the same fixture, which fail independently.
+     */
+    public String failingUrl(String fixture, int failures, int id) {
+        return url(fixture, 0) + "&fail=" + failures + "&id=" + id;
+    }
+
+    /**
+     * Returns the number of requests received for a URL.
+     */
+    public synchronized int getRequestCount(String url) {
+        Integer count = mRequestCounts.get(url.substring(url.indexOf('/', "http://".length())));
+        return (count != null) ? count : 0;
+    }
+
+    public void stop() { mServer.stop(0); }
+
+    /**
+     * Reads a fixture from the classpath.
+     * @param fixture   Name of the fixture file.
+     * @return  The content of the fixture, or {@code null} if it doesn't exist.
+     */
+    public static String readFixture(String fixture) throws IOException {
+
+        InputStream in = FixtureServer.class.getResourceAsStream("/fixtures/" + fixture);
+        if (in == null) {
+            return null;
+        }
+
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), UTF_8);
+        } finally {
+            in.close();
+        }
+
+    }
+
+    /**
+     * Replaces the filler placeholder of a page with about the given amount of markup.
+     */
+    public static String expandFiller(String page, int fillerKb) {
+
+        StringBuilder filler = new StringBuilder(fillerKb * 1024 + FILLER_BLOCK.length());
+        while (filler.length() < fillerKb * 1024) {
+            filler.append(FILLER_BLOCK);
+        }
+
+        return page.replace(FILLER_PLACEHOLDER, filler);
+
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+
+        String fixture = exchange.getRequestURI().getPath().substring(1);
+        String query = exchange.getRequestURI().getQuery();
+        int fillerKb = 0;
+        int failures = 0;
+        boolean etag = false;
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                if (parameter.startsWith("filler=")) {
+                    fillerKb = Integer.parseInt(parameter.substring("filler=".length()));
+                } else if (parameter.startsWith("fail=")) {
+                    failures = Integer.parseInt(parameter.substring("fail=".length()));
+                } else if (parameter.equals("etag=1")) {
+                    etag = true;
+                }
+            }
+        }
+
+        if (countRequest(exchange.getRequestURI().toString()) <= failures) {
+            exchange.sendResponseHeaders(500, -1);
+            exchange.close();
+            return;
+        }
+
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+
+        byte[] body = getBody(fixture, fillerKb, gzip);
+        if (body == null) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "text/html;charset=UTF-8");
+        if (etag) {
+            String tag = "\"" + fixture + "-" + fillerKb + "\"";
+            exchange.getResponseHeaders().set("ETag", tag);
+            if (tag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+        }
+        if (gzip) {
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(body);
+        } finally {
+            out.close();
+        }
+
+    }
+
+    /**
+     * Counts a request and returns the number of requests received for the same URL.
+     */
+    private synchronized int countRequest(String pathAndQuery) {
+        Integer count = mRequestCounts.get(pathAndQuery);
+        count = (count != null) ? count + 1 : 1;
+        mRequestCounts.put(pathAndQuery, count);
+        return count;
+    }
+
+    private synchronized byte[] getBody(String fixture, int fillerKb, boolean gzip)
+            throws IOException {
+
+        String key = fixture + "?" + fillerKb + (gzip ? "+gzip" : "");
+        if (mBodies.containsKey(key)) {
+            return mBodies.get(key);
+        }
+
+        String page = readFixture(fixture);
+        byte[] body = null;
+        if (page != null) {
+            body = expandFiller(page, fillerKb).getBytes(UTF_8);
+            if (gzip) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                GZIPOutputStream out = new GZIPOutputStream(compressed);
+                out.write(body);
+                out.close();
+                body = compressed.toByteArray();
+            }
+        }
+
+        mBodies.put(key, body);
+        return body;
+
+    }
+
+}
@@ -0,0 +1,27 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import org.junit.Test;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class MoneyTest {
+
+    @Test
+    public void format() {
+        assertEquals("549,99", Money.format(54999, "EUR", Locale.ITALY));
+        assertEquals("549.99", Money.format(54999, "USD", Locale.US));
+        assertEquals("0.05", Money.format(5, "USD", Locale.US));
+        assertEquals("-12.50", Money.format(-1250, "USD", Locale.US));
+        assertEquals("1234", Money.format(1234, "JPY", Locale.JAPAN));
+    }
+
+    @Test
+    public void convertFromUnits() {
+        // 549.99 has no exact binary representation:
+        assertEquals(54999, Money.fromUnits(549.99f, "EUR"));
+        assertEquals(2990, Money.fromUnits(29.9, "EUR"));
+        assertEquals(1234, Money.fromUnits(1234.0, "JPY"));
+    }
+
+}
@@ -0,0 +1,133 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the pages scraped are archived on disk and can be scraped again offline. The pages
+ * are served by a local {@link FixtureServer}.
+ */
+public class PageArchiveTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private FixtureServer mServer;
+    private LookUpEngine mEngine;
+    private PageArchive mArchive;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new FixtureServer();
+        mEngine = LookUpEngine.getInstance();
+        mArchive = new PageArchive(mFolder.newFolder("pages"), PageArchive.DEFAULT_MAX_BYTES);
+        mEngine.setPageArchive(mArchive);
+    }
+
+    @After
+    public void tearDown() {
+        mEngine.setPageArchive(null);
+        mServer.stop();
+    }
+
+    private static AmazonItemLookUp lookUp(String url) {
+        AmazonItemLookUp lookUp = new AmazonItemLookUp(new String[]{ url });
+        lookUp.setRetryPolicy(new RetryPolicy(1, 0, 0));
+        lookUp.getAmazonItems();
+        return lookUp;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void extractOffline() throws IOException {
+
+        String url = mServer.url("product_page.html", 256) + "&id=archive1";
+        AmazonItemLookUp lookUp = lookUp(url);
+        assertEquals(54999, lookUp.getAmazonItems()[0].currentPrice);
+        mServer.stop();
+
+        LookUpResult result = mArchive.extract(url, mEngine.getItemExtractor(), true);
+        assertNotNull(result);
+        assertTrue(result.successful);
+        assertEquals(54999, result.price);
+        assertEquals(lookUp.getLookUpResults()[0].title, result.title);
+
+        // Only the part of the page which was scraped has been archived:
+        assertTrue(mArchive.getTotalBytes() < 256 * 1024 / 10);
+        assertNull(mArchive.extract(url + "&id=other", mEngine.getItemExtractor(), false));
+
+    }
+
+    @Test
+    public void archiveWholePageWithoutPrice() throws IOException {
+
+        String url = mServer.url("product_no_price.html", 0) + "&id=archive2";
+        lookUp(url);
+
+        List<PageArchive.Page> pages = mArchive.getPages();
+        assertEquals(1, pages.size());
+        assertEquals(url, pages.get(0).url);
+        InputStream in = pages.get(0).open();
+        try {
+            assertEquals(FixtureServer.expandFiller(
+                    FixtureServer.readFixture("product_no_price.html"), 0),
+                    new String(readAll(in), "UTF-8"));
+        } finally {
+            in.close();
+        }
+
+    }
+
+    private static void archive(PageArchive archive, String url, byte[] page) throws IOException {
+        PageArchive.Recorder body = archive.record(url, "UTF-8", new ByteArrayInputStream(page));
+        readAll(body);
+        body.commit();
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() throws IOException {
+
+        // Not compressible:
+        byte[] page = new byte[4096];
+        new Random(1).nextBytes(page);
+
+        File directory = mFolder.newFolder("small");
+        PageArchive archive = new PageArchive(directory, 2 * 4096 + 1024);
+        archive(archive, "https://www.amazon.it/dp/B000000001", page);
+        archive(archive, "https://www.amazon.it/dp/B000000002", page);
+        // Use the first page, so that the second one is evicted:
+        assertNotNull(archive.get("https://www.amazon.it/dp/B000000001?th=1"));
+        archive(archive, "https://www.amazon.it/dp/B000000003", page);
+
+        assertNotNull(archive.get("https://www.amazon.it/dp/B000000001"));
+        assertNull(archive.get("https://www.amazon.it/dp/B000000002"));
+        assertNotNull(archive.get("https://www.amazon.it/dp/B000000003"));
+        assertTrue(archive.getTotalBytes() <= 2 * 4096 + 1024);
+
+        // The archive is found again after a restart:
+        assertEquals(2, new PageArchive(directory, 2 * 4096 + 1024).getPages().size());
+
+    }
+
+}
@@ -0,0 +1,183 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that a page which hasn't changed is not scraped again. The pages are served by a local
+ * {@link FixtureServer}.
+ */
+public class PageCacheTest {
+
+    private static final String FIXTURE = "product_page.html";
+    private static final String KEY = "amazon.it/B07D95FNRK";
+
+    private FixtureServer mServer;
+    private PageCache mPageCache;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new FixtureServer();
+        mPageCache = LookUpEngine.getInstance().getPageCache();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+    }
+
+    private static AmazonItemLookUp lookUp(String url) {
+        AmazonItemLookUp lookUp = new AmazonItemLookUp(new String[]{ url });
+        lookUp.setRetryPolicy(new RetryPolicy(1, 0, 0));
+        AmazonItem item = lookUp.getAmazonItems()[0];
+        assertNotNull(item);
+        assertEquals(54999, item.currentPrice);
+        return lookUp;
+    }
+
+    @Test
+    public void revalidateWithEtag() {
+
+        String url = mServer.url(FIXTURE, 256) + "&etag=1";
+        long notModified = mPageCache.getNotModifiedHits();
+
+        AmazonItemLookUp first = lookUp(url);
+        AmazonItemLookUp second = lookUp(url);
+
+        assertEquals(notModified + 1, mPageCache.getNotModifiedHits());
+        assertEquals(2, mServer.getRequestCount(url));
+        assertEquals(0, second.getTransferStats().getBytesDecoded());
+        assertEquals(304, second.getLookUpResults()[0].statusCode);
+        assertNotNull(second.getLookUpResults()[0].title);
+        assertEquals(first.getLookUpResults()[0].title, second.getLookUpResults()[0].title);
+
+    }
+
+    @Test
+    public void skipUnchangedPage() {
+
+        String url = mServer.url(FIXTURE, 1024);
+        long unchanged = mPageCache.getUnchangedHits();
+
+        AmazonItemLookUp first = lookUp(url);
+        AmazonItemLookUp second = lookUp(url);
+
+        assertEquals(unchanged + 1, mPageCache.getUnchangedHits());
+        // Only the part of the page which was scraped is read again:
+        assertTrue(second.getTransferStats().getBytesDecoded() <=
+                first.getTransferStats().getBytesDecoded());
+        assertTrue(second.getTransferStats().getBytesDecoded() < 1024 * 1024 / 10);
+
+    }
+
+    /**
+     * A response with the given headers, for {@link PageCache#put}.
+     */
+    private static HttpTransport.Response response(final String etag) {
+        return new HttpTransport.Response() {
+            @Override
+            public int getStatusCode() { return 200; }
+            @Override
+            public String getUrl() { return null; }
+            @Override
+            public String getHeader(String name) { return name.equals("ETag") ? etag : null; }
+            @Override
+            public String getCharset() { return "UTF-8"; }
+            @Override
+            public InputStream getBody() { return null; }
+            @Override
+            public void close() {}
+        };
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Caches a result scraped from the first bytes of a page, or from the whole page.
+     */
+    private static PageCache cache(byte[] page, int scraped, boolean scrapeTitle)
+            throws IOException {
+
+        PageCache pageCache = new PageCache();
+        PageCache.HashingInputStream body = PageCache.record(new ByteArrayInputStream(page));
+        byte[] buffer = new byte[scraped];
+        assertEquals(scraped, body.read(buffer));
+        if (scraped == page.length) {
+            assertEquals(-1, body.read());
+        }
+
+        LookUpResult result = new LookUpResult("https://www.amazon.it/dp/B07D95FNRK");
+        result.price = 100;
+        result.title = scrapeTitle ? "Title" : null;
+        pageCache.put(KEY, response("\"1\""), body, result, scrapeTitle);
+
+        return pageCache;
+
+    }
+
+    @Test
+    public void compareScrapedPart() throws IOException {
+
+        byte[] page = "<html><span>1,00</span><div>footer</div></html>".getBytes("UTF-8");
+        PageCache pageCache = cache(page, 23, false);
+        PageCache.Entry entry = pageCache.get(KEY, false);
+
+        // A change after the scraped part doesn't matter:
+        byte[] sameStart = "<html><span>1,00</span><div>other</div></html>".getBytes("UTF-8");
+        assertNull(pageCache.match(entry, new ByteArrayInputStream(sameStart)));
+
+        // A change in the scraped part gives back the whole page to scrape:
+        byte[] changed = "<html><span>2,00</span><div>footer</div></html>".getBytes("UTF-8");
+        InputStream body = pageCache.match(entry, new ByteArrayInputStream(changed));
+        assertArrayEquals(changed, readAll(body));
+
+        assertEquals(1, pageCache.getUnchangedHits());
+        assertEquals(1, pageCache.getMisses());
+
+        // The title can't be taken from a result which doesn't have it:
+        assertNull(pageCache.get(KEY, true));
+
+    }
+
+    @Test
+    public void compareWholePage() throws IOException {
+
+        byte[] page = "<html><span>no price</span></html>".getBytes("UTF-8");
+        PageCache pageCache = cache(page, page.length, true);
+        PageCache.Entry entry = pageCache.get(KEY, true);
+
+        assertNull(pageCache.match(entry, new ByteArrayInputStream(page)));
+
+        // A page read to the end must not have grown:
+        byte[] longer = "<html><span>no price</span></html><span>1,00</span>".getBytes("UTF-8");
+        InputStream body = pageCache.match(entry, new ByteArrayInputStream(longer));
+        assertArrayEquals(longer, readAll(body));
+
+        LookUpResult result = new LookUpResult("https://www.amazon.it/dp/B07D95FNRK?th=1");
+        entry.copyTo(result, true);
+        assertTrue(result.successful);
+        assertEquals(100, result.price);
+        assertEquals("Title", result.title);
+
+        HttpTransport.Request request = new HttpTransport.Request(result.url);
+        PageCache.addValidators(entry, request);
+        assertEquals("\"1\"", request.headers.get("If-None-Match"));
+
+    }
+
+}
@@ -0,0 +1,199 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import org.junit.Assume;
+import org.junit.Test;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the {@link PriceParser} against the prices of {@code fixtures/prices.txt}, which shows
+ * the formats of the marketplaces, and compares its speed with the previous regex parsing.
+ */
+public class PriceParserTest {
+
+    private static final String FIXTURE = "prices.txt";
+    private static final int WARM_UP_ITERATIONS = 20000;
+    private static final int ITERATIONS = 200000;
+
+    /**
+     * Returns the rows of the fixture: text, currency and amount, {@code null} for "-".
+     */
+    private static List<String[]> readPrices() throws IOException {
+
+        List<String[]> rows = new ArrayList<>();
+
+        for (String line : FixtureServer.readFixture(FIXTURE).split("\n")) {
+            if (line.startsWith("#") || line.isEmpty()) {
+                continue;
+            }
+            String[] columns = line.split(" \\| ", -1);
+            assertEquals(line, 3, columns.length);
+            for (int i = 1; i < columns.length; i++) {
+                if (columns[i].equals("-")) {
+                    columns[i] = null;
+                }
+            }
+            rows.add(columns);
+        }
+
+        return rows;
+
+    }
+
+    /**
+     * The previous parsing of the price.
+     */
+    private static Float legacyParsePrice(String price) {
+
+        Pattern pattern = Pattern.compile("(\\d+[.,\\s]\\d+)");
+        Matcher matcher = pattern.matcher(price);
+
+        if (matcher.find()) {
+            price = matcher.group(1).replaceAll("[.,\\s]", "");
+            return Float.valueOf(price) / 100;
+        } else {
+            return null;
+        }
+
+    }
+
+    @Test
+    public void parseFixturePrices() throws IOException {
+
+        PriceParser parser = new PriceParser();
+
+        for (String[] row : readPrices()) {
+            boolean found = parser.parse(row[0]);
+            if (row[2] == null) {
+                assertFalse(row[0], found);
+                assertEquals(row[0], PriceParser.NO_AMOUNT, parser.getAmount());
+            } else {
+                assertTrue(row[0], found);
+                assertEquals(row[0], Long.parseLong(row[2]), parser.getAmount());
+                assertEquals(row[0], row[1], parser.getCurrency());
+            }
+        }
+
+    }
+
+    @Test
+    public void useDefaultCurrency() {
+
+        PriceParser parser = new PriceParser();
+
+        assertTrue(parser.parse("1.234", PriceParser.getMarketplaceCurrency("amazon.co.jp")));
+        assertEquals("JPY", parser.getCurrency());
+        assertEquals(1234, parser.getAmount());
+        assertEquals(0, parser.getFractionDigits());
+
+        // The symbol takes precedence:
+        assertTrue(parser.parse("EUR 12,34", "USD"));
+        assertEquals("EUR", parser.getCurrency());
+        assertEquals(1234, parser.getAmount());
+
+        assertFalse(parser.parse(null, "EUR"));
+        assertNull(parser.getCurrency());
+        assertFalse(parser.parse("1234567890123456789012"));
+
+    }
+
+    @Test
+    public void parsePriceIntoResult() {
+
+        LookUpResult result = new LookUpResult("https://www.amazon.co.jp/dp/B07D95FNRK");
+        DocumentItemExtractor.parsePrice("1,234", result);
+        assertEquals(1234, result.price);
+        assertEquals("JPY", result.currency);
+
+        result = new LookUpResult("https://www.amazon.it/dp/B07D95FNRK");
+        DocumentItemExtractor.parsePrice("EUR 1.023,77", result);
+        assertEquals(102377, result.price);
+        assertEquals("EUR", result.currency);
+
+        // A missing price leaves the result as it is:
+        DocumentItemExtractor.parsePrice("no price", result);
+        DocumentItemExtractor.parsePrice(null, result);
+        assertEquals(102377, result.price);
+
+    }
+
+    @Test
+    public void parseWithoutAllocating() throws IOException {
+
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+        long threadId = Thread.currentThread().getId();
+
+        String[] prices = texts(readPrices());
+        PriceParser parser = new PriceParser();
+        long sink = 0;
+
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            parser.parse(prices[i % prices.length]);
+            sink += parser.getAmount();
+        }
+
+        long before = allocationBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ITERATIONS; i++) {
+            parser.parse(prices[i % prices.length]);
+            sink += parser.getAmount();
+        }
+        long allocated = allocationBean.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue(sink != 0);
+        // Less than a byte per price, which leaves room for the measuring itself:
+        assertTrue("Allocated " + allocated + " bytes", allocated < ITERATIONS);
+
+    }
+
+    @Test
+    public void benchmark() throws IOException {
+
+        String[] prices = texts(readPrices());
+        PriceParser parser = new PriceParser();
+        // Keeps the results alive, so that the parsing is not optimized away:
+        long sink = 0;
+
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            Float legacy = legacyParsePrice(prices[i % prices.length]);
+            sink += (legacy != null) ? 1 : 0;
+            parser.parse(prices[i % prices.length]);
+            sink += parser.getAmount();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            Float legacy = legacyParsePrice(prices[i % prices.length]);
+            sink += (legacy != null) ? 1 : 0;
+        }
+        long legacyTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            parser.parse(prices[i % prices.length]);
+            sink += parser.getAmount();
+        }
+        long parserTime = System.nanoTime() - start;
+
+        assertTrue(sink != 0);
+        System.out.printf("Regex: %.1f ns per price\n", (double) legacyTime / ITERATIONS);
+        System.out.printf("Price parser: %.1f ns per price\n", (double) parserTime / ITERATIONS);
+
+    }
+
+    private static String[] texts(List<String[]> rows) {
+        String[] texts = new String[rows.size()];
+        for (int i = 0; i < texts.length; i++) {
+            texts[i] = rows.get(i)[0];
+        }
+        return texts;
+    }
+
+}
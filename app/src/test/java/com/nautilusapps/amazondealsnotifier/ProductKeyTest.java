@@ -0,0 +1,43 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ProductKeyTest {
+
+    @Test
+    public void sameKeyForTrackingParameters() {
+
+        String key = "amazon.it/B07D95FNRK";
+
+        assertEquals(key, ProductKey.of("https://www.amazon.it/dp/B07D95FNRK"));
+        assertEquals(key, ProductKey.of("https://www.amazon.it/dp/B07D95FNRK/"));
+        assertEquals(key, ProductKey.of("https://www.amazon.it/Puro-Lino-Camicia/dp/B07D95FNRK/" +
+                "ref=sr_1_3?ie=UTF8&qid=1527000000&sr=8-3"));
+        assertEquals(key, ProductKey.of("https://www.amazon.it/gp/product/B07D95FNRK?" +
+                "pf_rd_p=1234&pf_rd_r=ABCD#reviews"));
+        assertEquals(key, ProductKey.of("http://amazon.it/gp/aw/d/b07d95fnrk"));
+        assertEquals(key, ProductKey.of("https://m.amazon.it/dp/B07D95FNRK?th=1"));
+
+    }
+
+    @Test
+    public void keepMarketplacesApart() {
+        assertEquals("amazon.de/B07D95FNRK", ProductKey.of("https://www.amazon.de/dp/B07D95FNRK"));
+        assertEquals("amazon.com/B07D95FNRK",
+                ProductKey.of("https://smile.amazon.com/dp/B07D95FNRK"));
+    }
+
+    @Test
+    public void fallBackToUrl() {
+        assertEquals("example.com/item1", ProductKey.of("https://www.example.com/item1#top"));
+        assertEquals("example.com/item?id=1", ProductKey.of("https://example.com/item?id=1"));
+        assertEquals("127.0.0.1:8080/item", ProductKey.of("http://127.0.0.1:8080/item"));
+        // Not an ASIN, which has 10 characters:
+        assertEquals("amazon.it/dp/B07D95", ProductKey.of("https://www.amazon.it/dp/B07D95"));
+        assertEquals("not a url", ProductKey.of(" not a url "));
+        assertNull(ProductKey.of(null));
+    }
+
+}
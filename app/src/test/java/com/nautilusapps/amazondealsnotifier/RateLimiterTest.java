@@ -0,0 +1,113 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RateLimiterTest {
+
+    private static final String IT = "amazon.it";
+    private static final String DE = "amazon.de";
+
+    @Test
+    public void getHost() {
+        assertEquals(IT, RateLimiter.getHost("https://www.amazon.it/dp/B07D95FNRK"));
+        assertEquals("amazon.co.uk", RateLimiter.getHost("https://WWW.Amazon.co.uk/dp/B01"));
+        assertEquals("", RateLimiter.getHost("not a url"));
+        // The same marketplace as its product keys:
+        assertEquals(IT, RateLimiter.getHost("https://smile.amazon.it/dp/B07D95FNRK"));
+        assertEquals(IT, RateLimiter.getHost("https://m.amazon.it/dp/B07D95FNRK"));
+    }
+
+    @Test
+    public void spaceRequestsToSameHost() {
+
+        RateLimiter rateLimiter = new RateLimiter();
+        long now = 1000000;
+
+        // The first request goes immediately, the next ones are spaced:
+        assertEquals(0, rateLimiter.reserve(IT, 1000, 1000, now));
+        assertEquals(1000, rateLimiter.reserve(IT, 1000, 1000, now));
+        assertEquals(2000, rateLimiter.reserve(IT, 1000, 1000, now));
+
+        // The requests to another host are not delayed:
+        assertEquals(0, rateLimiter.reserve(DE, 1000, 1000, now));
+
+    }
+
+    @Test
+    public void randomizeIntervalBetweenMinAndMax() {
+
+        RateLimiter rateLimiter = new RateLimiter();
+        long now = 1000000;
+
+        rateLimiter.reserve(IT, 500, 1000, now);
+        long previous = 0;
+        for (int i = 0; i < 100; i++) {
+            long delay = rateLimiter.reserve(IT, 500, 1000, now);
+            assertTrue(delay - previous >= 500);
+            assertTrue(delay - previous <= 1000);
+            previous = delay;
+        }
+
+    }
+
+    @Test
+    public void idleHostDoesNotBurst() {
+
+        RateLimiter rateLimiter = new RateLimiter();
+        long now = 1000000;
+
+        rateLimiter.reserve(IT, 1000, 1000, now);
+        // After a long idle time only one request goes immediately:
+        now += 60 * 1000;
+        assertEquals(0, rateLimiter.reserve(IT, 1000, 1000, now));
+        assertEquals(1000, rateLimiter.reserve(IT, 1000, 1000, now));
+
+    }
+
+    @Test
+    public void penalizeThrottledHost() {
+
+        RateLimiter rateLimiter = new RateLimiter();
+        long now = 1000000;
+
+        rateLimiter.reserve(IT, 0, 0, now);
+        rateLimiter.onThrottled(IT, now);
+
+        assertEquals(RateLimiter.INITIAL_PENALTY, rateLimiter.getPenalty(IT));
+        assertEquals(RateLimiter.INITIAL_PENALTY, rateLimiter.getBlockedDelay(IT, now));
+        assertEquals(RateLimiter.INITIAL_PENALTY, rateLimiter.reserve(IT, 0, 0, now));
+        assertEquals(2 * RateLimiter.INITIAL_PENALTY, rateLimiter.reserve(IT, 0, 0, now));
+
+        // The other hosts are not penalized:
+        assertEquals(0, rateLimiter.getBlockedDelay(DE, now));
+        assertEquals(0, rateLimiter.reserve(DE, 0, 0, now));
+
+        // The penalty doubles up to the max:
+        for (int i = 0; i < 20; i++) {
+            rateLimiter.onThrottled(IT, now);
+        }
+        assertEquals(RateLimiter.MAX_PENALTY, rateLimiter.getPenalty(IT));
+
+    }
+
+    @Test
+    public void recoverSlowlyFromPenalty() {
+
+        RateLimiter rateLimiter = new RateLimiter();
+        rateLimiter.onThrottled(IT, 0);
+
+        rateLimiter.onSuccess(IT);
+        long penalty = rateLimiter.getPenalty(IT);
+        assertTrue(penalty < RateLimiter.INITIAL_PENALTY);
+        assertTrue(penalty > RateLimiter.INITIAL_PENALTY / 2);
+
+        for (int i = 0; i < 100; i++) {
+            rateLimiter.onSuccess(IT);
+        }
+        assertEquals(0, rateLimiter.getPenalty(IT));
+
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RetryPolicyTest {
+
+    private static LookUpResult failure(int statusCode) {
+        LookUpResult result = new LookUpResult("https://www.amazon.it/dp/B07D95FNRK");
+        result.statusCode = statusCode;
+        return result;
+    }
+
+    @Test
+    public void retryTransientFailures() {
+
+        RetryPolicy retryPolicy = new RetryPolicy(3, 1000, 60000);
+
+        assertTrue(retryPolicy.shouldRetry(failure(0), 1));
+        assertTrue(retryPolicy.shouldRetry(failure(500), 1));
+        assertTrue(retryPolicy.shouldRetry(failure(503), 2));
+        assertTrue(retryPolicy.shouldRetry(failure(429), 1));
+
+        LookUpResult robotCheck = failure(200);
+        robotCheck.throttled = true;
+        assertTrue(retryPolicy.shouldRetry(robotCheck, 1));
+
+    }
+
+    @Test
+    public void dontRetryPermanentFailures() {
+
+        RetryPolicy retryPolicy = new RetryPolicy(3, 1000, 60000);
+
+        assertFalse(retryPolicy.shouldRetry(failure(404), 1));
+        assertFalse(retryPolicy.shouldRetry(failure(410), 1));
+        // Too many attempts:
+        assertFalse(retryPolicy.shouldRetry(failure(503), 3));
+
+        LookUpResult success = failure(200);
+        success.successful = true;
+        assertFalse(retryPolicy.shouldRetry(success, 1));
+
+    }
+
+    @Test
+    public void backOffExponentially() {
+
+        RetryPolicy retryPolicy = new RetryPolicy(10, 1000, 10000);
+
+        for (int i = 0; i < 100; i++) {
+            long delay = retryPolicy.getDelay(1);
+            assertTrue(delay >= 500 && delay <= 1000);
+            delay = retryPolicy.getDelay(3);
+            assertTrue(delay >= 2000 && delay <= 4000);
+            // Up to the max:
+            delay = retryPolicy.getDelay(8);
+            assertTrue(delay >= 5000 && delay <= 10000);
+        }
+
+    }
+
+}
@@ -0,0 +1,111 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.Test;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class RuleStatsTest {
+
+    private static final String URL = "https://www.amazon.it/dp/B07D95FNRK";
+    private static final String IT = "amazon.it";
+
+    private static ExtractionRules newRules() {
+        return new ExtractionRules("span[id=deal]", "span[id=old],span[id=price]",
+                "span[id=title]", "form[action*=captcha]");
+    }
+
+    private static int[] extract(ExtractionRules rules, String html) {
+        Document document = Jsoup.parse(html, URL);
+        return rules.apply(document, true).selectors;
+    }
+
+    @Test
+    public void countHits() {
+
+        ExtractionRules rules = newRules();
+        RuleStats stats = new RuleStats();
+
+        for (int i = 0; i < 10; i++) {
+            stats.onPageExtracted(IT, rules,
+                    extract(rules, "<span id=title>A</span><span id=price>1,00</span>"), true);
+        }
+        stats.onPageExtracted(IT, rules, extract(rules, "<span id=old>2,00</span>"), false);
+
+        assertEquals(10, stats.getHits(IT, "price", "span[id=price]"));
+        assertEquals(1, stats.getHits(IT, "price", "span[id=old]"));
+        assertEquals(10, stats.getHits(IT, "title", "span[id=title]"));
+        assertEquals(0, stats.getHits(IT, "deal_price", "span[id=deal]"));
+
+        // The first element in document order is found, whatever the hits of its selector:
+        Document document = Jsoup.parse("<span id=old>2,00</span><span id=price>1,00</span>",
+                URL);
+        assertEquals("2,00", rules.apply(document, false).getPriceText());
+
+        // The other marketplaces have counts of their own:
+        assertEquals(0, stats.getHits("amazon.de", "price", "span[id=price]"));
+
+    }
+
+    @Test
+    public void flagStaleRules() {
+
+        ExtractionRules rules = newRules();
+        RuleStats stats = new RuleStats();
+
+        for (int i = 0; i < 50; i++) {
+            stats.onPageExtracted(IT, rules, extract(rules, "<span id=price>1,00</span>"), false);
+        }
+        assertTrue(stats.getStaleRules().isEmpty());
+
+        // The layout changes:
+        for (int i = 0; i < RuleStats.MIN_MISSES; i++) {
+            stats.onPageExtracted(IT, rules, extract(rules, "<span id=old>1,00</span>"), false);
+        }
+        assertTrue(stats.isStale(IT, "price", "span[id=price]"));
+        assertEquals(1, stats.getStaleRules().size());
+
+        assertTrue(stats.getStaleRules().get(0).startsWith(IT + ":"));
+        assertFalse(stats.isStale("amazon.de", "price", "span[id=price]"));
+
+        // A deal price found alone doesn't count as a miss of the price:
+        stats.onPageExtracted(IT, rules, extract(rules, "<span id=deal>1,00</span>"), false);
+        assertTrue(stats.isStale(IT, "price", "span[id=price]"));
+        assertEquals(RuleStats.MIN_MISSES, stats.getHits(IT, "price", "span[id=old]"));
+        assertEquals(1, stats.getHits(IT, "deal_price", "span[id=deal]"));
+
+        // Neither does a price taken from the structured data of the page:
+        for (int i = 0; i < 100; i++) {
+            stats.onPageExtracted(IT, rules, extract(rules, "<span id=title>A</span>"), false,
+                    true);
+        }
+        assertFalse(stats.isStale(IT, "price", "span[id=old]"));
+        assertEquals(100, stats.getHits(IT, "title", "span[id=title]"));
+
+    }
+
+    @Test
+    public void saveAndLoad() throws IOException {
+
+        ExtractionRules rules = newRules();
+        RuleStats stats = new RuleStats();
+        for (int i = 0; i < 3; i++) {
+            stats.onPageExtracted(IT, rules, extract(rules, "<span id=price>1,00</span>"), false);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        stats.save(out);
+
+        RuleStats loaded = new RuleStats();
+        loaded.load(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(3, loaded.getHits(IT, "price", "span[id=price]"));
+        assertEquals(0, loaded.getHits(IT, "price", "span[id=old]"));
+        assertEquals(stats.toString(), loaded.toString());
+
+    }
+
+}
@@ -0,0 +1,127 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.Test;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+public class SelectorProfilesTest {
+
+    private static final String PROFILES = "[aliases]\n" +
+            "stripbooks = books\n" +
+            "[default]\n" +
+            "deal_price = span[id=deal]\n" +
+            "price = span[id=price]\n" +
+            "title = span[id=title]\n" +
+            "robot_check = form[action*=captcha]\n" +
+            "[default:books]\n" +
+            "title = span[id=bookTitle]\n" +
+            "[amazon.de]\n" +
+            "price = span[id=preis]\n" +
+            "[amazon.de:books]\n" +
+            "deal_price = div > span.angebot\n";
+
+    private static SelectorProfiles load(String text) throws IOException {
+        InputStream in = new ByteArrayInputStream(text.getBytes(Charset.forName("UTF-8")));
+        return SelectorProfiles.load(in);
+    }
+
+    @Test
+    public void resolveRules() throws IOException {
+
+        SelectorProfiles profiles = load(PROFILES);
+
+        // Marketplace and category:
+        ExtractionRules rules = profiles.getRules("https://www.amazon.de/dp/B01?s=stripbooks");
+        assertEquals("div > span.angebot", rules.getDealPriceQuery());
+        assertEquals("span[id=preis]", rules.getPriceQuery());
+        assertEquals("span[id=bookTitle]", rules.getTitleQuery());
+        assertEquals("form[action*=captcha]", rules.getRobotCheckQuery());
+
+        // Category of any marketplace:
+        rules = profiles.getRules("https://www.amazon.it/dp/B01?tag=x&s=stripbooks");
+        assertEquals("span[id=deal]", rules.getDealPriceQuery());
+        assertEquals("span[id=price]", rules.getPriceQuery());
+        assertEquals("span[id=bookTitle]", rules.getTitleQuery());
+
+        // Unknown marketplace and no category:
+        rules = profiles.getRules("https://www.example.com/dp/B01");
+        assertSame(profiles.getDefaultRules(), rules);
+
+    }
+
+    @Test
+    public void unknownCategoryTriesEveryCategory() throws IOException {
+
+        SelectorProfiles profiles = load(PROFILES);
+
+        ExtractionRules rules = profiles.getRules("https://www.amazon.de/dp/B01?s=garden");
+        assertEquals("div > span.angebot,span[id=deal]", rules.getDealPriceQuery());
+        assertEquals("span[id=preis]", rules.getPriceQuery());
+        assertEquals("span[id=bookTitle],span[id=title]", rules.getTitleQuery());
+
+        Document document = Jsoup.parse("<span id=title>A</span><div><span class=angebot>" +
+                "EUR 5,00</span></div>", "https://www.amazon.de/dp/B01");
+        ExtractionRules.Match match = rules.apply(document, true);
+        assertEquals("EUR 5,00", match.getPriceText());
+        assertEquals("A", match.getTitleText());
+
+    }
+
+    @Test
+    public void streamOnlySimpleSelectors() throws IOException {
+
+        SelectorProfiles profiles = load(PROFILES);
+
+        assertNotNull(profiles.getRules("https://www.amazon.it/dp/B01").getStreamingPatterns());
+        // The child combinator can only be matched in the tree:
+        assertNull(profiles.getRules("https://www.amazon.de/dp/B01").getStreamingPatterns());
+
+    }
+
+    @Test
+    public void bundledProfilesMatchEveryLayout() throws IOException {
+
+        SelectorProfiles profiles = SelectorProfiles.getBundled();
+
+        for (String fixture : new String[]{ "product_page.html", "product_deal.html",
+                "product_book.html", "product_no_price.html" }) {
+            Document document = Jsoup.parse(FixtureServer.readFixture(fixture),
+                    "https://www.amazon.it/dp/B07D95FNRK");
+            ExtractionRules.Match expected =
+                    profiles.getDefaultRules().apply(document, true);
+            ExtractionRules.Match actual =
+                    profiles.getRules("https://www.amazon.it/dp/B07D95FNRK").apply(document, true);
+            assertEquals(fixture, expected.getPriceText(), actual.getPriceText());
+            assertEquals(fixture, expected.getTitleText(), actual.getTitleText());
+        }
+
+    }
+
+    @Test
+    public void rejectInvalidFiles() throws IOException {
+
+        String[] invalid = {
+                "price = span\n[default]\n",
+                "[amazon.it]\nprice = span\n",
+                "[default]\nprice = span\n",
+                "[default]\nnot a rule\n"
+        };
+
+        for (String text : invalid) {
+            try {
+                load(text);
+                fail(text);
+            } catch (IllegalArgumentException e) {
+                // Expected.
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,238 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import org.junit.Test;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.*;
+
+public class StreamingItemExtractorTest {
+
+    private static final String[] FIXTURES = {
+            "product_page.html",
+            "product_deal.html",
+            "product_book.html",
+            "product_no_price.html",
+            "product_structured.html",
+            "robot_check.html"
+    };
+
+    /**
+     * Counts the bytes read from a stream.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        long count = 0;
+
+        CountingInputStream(InputStream in) { super(in); }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+    }
+
+    private static byte[] page(String fixture, int fillerKb) throws IOException {
+        return FixtureServer.expandFiller(FixtureServer.readFixture(fixture), fillerKb)
+                .getBytes("UTF-8");
+    }
+
+    private static LookUpResult extract(ItemExtractor extractor, InputStream in)
+            throws IOException {
+        return extract(extractor, in, "UTF-8");
+    }
+
+    private static LookUpResult extract(ItemExtractor extractor, InputStream in, String charset)
+            throws IOException {
+        LookUpResult result = new LookUpResult("https://www.amazon.it/dp/B07D95FNRK");
+        extractor.extract(in, charset, result, true);
+        return result;
+    }
+
+    @Test
+    public void sameResultsAsDocumentExtractor() throws IOException {
+
+        for (String fixture : FIXTURES) {
+
+            byte[] page = page(fixture, 16);
+            LookUpResult expected =
+                    extract(new DocumentItemExtractor(), new ByteArrayInputStream(page));
+            LookUpResult actual =
+                    extract(new StreamingItemExtractor(), new ByteArrayInputStream(page));
+
+            assertEquals(fixture, expected.title, actual.title);
+            assertEquals(fixture, expected.price, actual.price);
+            assertEquals(fixture, expected.currency, actual.currency);
+            assertEquals(fixture, expected.throttled, actual.throttled);
+
+        }
+
+    }
+
+    @Test
+    public void extractDealPrice() throws IOException {
+
+        LookUpResult result = extract(new StreamingItemExtractor(),
+                new ByteArrayInputStream(page("product_deal.html", 0)));
+
+        assertEquals(27990, result.price);
+        assertEquals("EUR", result.currency);
+        assertEquals("Argoclima Climatizzatore Portatile & Deumidificatore, Pannello Digitale",
+                result.title);
+
+    }
+
+    @Test
+    public void stopReadingWhenComplete() throws IOException {
+
+        byte[] page = page("product_page.html", 1024);
+        CountingInputStream in = new CountingInputStream(new ByteArrayInputStream(page));
+
+        LookUpResult result = extract(new StreamingItemExtractor(), in);
+
+        assertEquals(54999, result.price);
+        assertTrue(in.count < page.length / 10);
+        System.out.printf("Read %d KB of %d KB\n", in.count / 1024, page.length / 1024);
+
+    }
+
+    @Test
+    public void preferStructuredData() throws IOException {
+
+        ExtractionStats stats = LookUpEngine.getInstance().getExtractionStats();
+        long structured = stats.getPages(ExtractionStats.Path.STRUCTURED_DATA);
+
+        byte[] page = page("product_structured.html", 1024);
+        CountingInputStream in = new CountingInputStream(new ByteArrayInputStream(page));
+
+        LookUpResult result = extract(new StreamingItemExtractor(), in);
+
+        assertEquals(129900, result.price);
+        assertEquals("EUR", result.currency);
+        assertEquals("Lenovo IdeaPad 5 Notebook 14\", Processore AMD Ryzen 7, 16 GB",
+                result.title);
+        // The selectors don't match the price of this layout, which would be looked for until
+        // the end of the page:
+        assertTrue(in.count < page.length / 10);
+        assertEquals(structured + 1, stats.getPages(ExtractionStats.Path.STRUCTURED_DATA));
+
+    }
+
+    @Test
+    public void preferJsonLdToSelectors() throws IOException {
+
+        String page = "<html><head><title>Camicia</title><script type=\"application/ld+json\">" +
+                "{\"@type\": \"Product\", \"name\": \"</span>\", \"offers\": " +
+                "{\"@type\": \"Offer\", \"price\": \"24.90\", \"priceCurrency\": \"EUR\"}}" +
+                "</script></head><body><span id=\"productTitle\">Camicia</span>" +
+                "<span id=\"priceblock_ourprice\">EUR 30,00</span></body></html>";
+
+        LookUpResult result = extract(new StreamingItemExtractor(),
+                new ByteArrayInputStream(page.getBytes("UTF-8")));
+        assertEquals(2490, result.price);
+        assertEquals("EUR", result.currency);
+        assertEquals("Camicia", result.title);
+
+        result = extract(new DocumentItemExtractor(),
+                new ByteArrayInputStream(page.getBytes("UTF-8")));
+        assertEquals(2490, result.price);
+
+    }
+
+    @Test
+    public void sniffCharsetOfPage() throws IOException {
+
+        String[] heads = {
+                "<meta http-equiv=\"Content-Type\" content=\"text/html; charset=ISO-8859-1\">",
+                "<meta charset='windows-1252'/>",
+                "<META CHARSET = \"iso-8859-1\">"
+        };
+
+        for (String head : heads) {
+            byte[] page = ("<html><head>" + head + "</head><body>" +
+                    "<span id=\"productTitle\">Camicia a righe, più lunga</span>" +
+                    "<span id=\"priceblock_ourprice\">EUR 30,00</span></body></html>")
+                    .getBytes("ISO-8859-1");
+
+            // The response doesn't declare the charset:
+            LookUpResult expected =
+                    extract(new DocumentItemExtractor(), new ByteArrayInputStream(page), null);
+            LookUpResult actual =
+                    extract(new StreamingItemExtractor(), new ByteArrayInputStream(page), null);
+            assertEquals(head, "Camicia a righe, più lunga", actual.title);
+            assertEquals(head, expected.title, actual.title);
+            assertEquals(head, 3000, actual.price);
+        }
+
+    }
+
+    @Test
+    public void parseAttributesLikeJsoup() throws IOException {
+
+        // Spaces around '=', single quotes, unquoted values and a '>' in a quoted value:
+        String page = "<html><body><a title = \"a > b\" href='/x>y'>Link</a>" +
+                "<span id = 'productTitle' data-text = \"<b>\">Camicia</span>" +
+                "<span class=a-price id=priceblock_ourprice>EUR 30,00</span></body></html>";
+
+        LookUpResult result = extract(new StreamingItemExtractor(),
+                new ByteArrayInputStream(page.getBytes("UTF-8")));
+        assertEquals("Camicia", result.title);
+        assertEquals(3000, result.price);
+
+        // The quotes of the values in the selectors are removed, as jsoup does:
+        StreamingItemExtractor.StartTag tag = new StreamingItemExtractor.StartTag();
+        tag.parse("span id = 'price' title=\"a]b\"");
+        assertTrue(StreamingItemExtractor.ElementPattern
+                .compileSelector("span[id='price'][title*=\"a]b\"]").matches(tag));
+        assertTrue(StreamingItemExtractor.ElementPattern
+                .compileSelector("span[id=\"price\"]").matches(tag));
+        assertFalse(StreamingItemExtractor.ElementPattern
+                .compileSelector("span[id='pric']").matches(tag));
+
+    }
+
+    @Test
+    public void readWholePageWhenPriceIsMissing() throws IOException {
+
+        byte[] page = page("product_no_price.html", 64);
+        CountingInputStream in = new CountingInputStream(new ByteArrayInputStream(page));
+
+        LookUpResult result = extract(new StreamingItemExtractor(), in);
+
+        assertEquals(AmazonItem.NO_PRICE, result.price);
+        assertEquals("Puro Lino Camicia con Taschino", result.title);
+        assertEquals(page.length, in.count);
+
+    }
+
+    @Test
+    public void detectRobotCheck() throws IOException {
+
+        byte[] page = page("robot_check.html", 64);
+        CountingInputStream in = new CountingInputStream(new ByteArrayInputStream(page));
+
+        LookUpResult result = extract(new StreamingItemExtractor(), in);
+
+        assertTrue(result.throttled);
+        assertEquals(AmazonItem.NO_PRICE, result.price);
+        assertTrue(in.count < page.length);
+
+    }
+
+}
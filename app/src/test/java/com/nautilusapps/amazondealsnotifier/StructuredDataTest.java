@@ -0,0 +1,96 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import org.jsoup.Jsoup;
+import org.junit.Test;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class StructuredDataTest {
+
+    private static final String URL = "https://www.amazon.it/dp/B07D95FNRK";
+
+    private static long parseAmount(String amount, String currency, String url) {
+        LookUpResult result = new LookUpResult(url);
+        return StructuredData.parseAmount(amount, currency, result)
+                ? result.price : AmazonItem.NO_PRICE;
+    }
+
+    @Test
+    public void parseAmountExactly() {
+        assertEquals(54999, parseAmount("549.99", null, URL));
+        assertEquals(54900, parseAmount(" 549 ", null, URL));
+        assertEquals(1250, parseAmount("12.5", null, URL));
+        assertEquals(1999, parseAmount("19.999", null, URL));
+        assertEquals(1234, parseAmount("1234.00", "JPY", URL));
+        assertEquals(1234, parseAmount("1234", null, "https://www.amazon.co.jp/dp/B07D95FNRK"));
+    }
+
+    @Test
+    public void rejectFormattedAmounts() {
+        assertEquals(AmazonItem.NO_PRICE, parseAmount("549,99", null, URL));
+        assertEquals(AmazonItem.NO_PRICE, parseAmount("1.299.00", null, URL));
+        assertEquals(AmazonItem.NO_PRICE, parseAmount("EUR 5", null, URL));
+        assertEquals(AmazonItem.NO_PRICE, parseAmount("-5", null, URL));
+        assertEquals(AmazonItem.NO_PRICE, parseAmount("", null, URL));
+        assertEquals(AmazonItem.NO_PRICE, parseAmount(null, null, URL));
+    }
+
+    @Test
+    public void readOfferOfJsonLd() {
+
+        LookUpResult result = new LookUpResult(URL);
+        assertTrue(StructuredData.parseJsonLd("{\"@type\": \"Product\", " +
+                "\"description\": \"Say \\\"price\\\": \\\"1.00\\\"\", " +
+                "\"offers\": {\"@type\": \"Offer\", \"price\": 24.9, \"priceCurrency\": \"GBP\"}}",
+                result));
+        assertEquals(2490, result.price);
+        assertEquals("GBP", result.currency);
+
+        // An aggregate offer has the lowest price only, and no currency:
+        result = new LookUpResult(URL);
+        assertTrue(StructuredData.parseJsonLd(
+                "[{\"offers\": {\"lowPrice\": \"10\", \"highPrice\": \"20\"}}]", result));
+        assertEquals(1000, result.price);
+        assertEquals("EUR", result.currency);
+
+        result = new LookUpResult(URL);
+        assertFalse(StructuredData.parseJsonLd("{\"offers\": {\"price\": null}}", result));
+        assertFalse(StructuredData.parseJsonLd("{\"name\": \"unterminated", result));
+        assertEquals(AmazonItem.NO_PRICE, result.price);
+
+    }
+
+    @Test
+    public void rulesOnlyForMissingFields() throws IOException {
+
+        String page = FixtureServer.expandFiller(
+                FixtureServer.readFixture("product_structured.html"), 0);
+
+        // With the price taken from the structured data, only the title is looked for:
+        ExtractionRules.Match match = SelectorProfiles.getBundled().getRules(URL)
+                .apply(Jsoup.parse(page, URL), false, true);
+        assertNull(match.dealPrice);
+        assertNull(match.price);
+        assertNotNull(match.title);
+
+        LookUpResult result = new LookUpResult(URL);
+        new DocumentItemExtractor().extract(
+                new ByteArrayInputStream(page.getBytes("UTF-8")), "UTF-8", result, true);
+        assertTrue(result.price > 0);
+        assertEquals(match.getTitleText(), result.title);
+
+    }
+
+    @Test
+    public void findMember() {
+        assertEquals("a\"b\u00e9", StructuredData.findMember(
+                "{\"x\": {\"key\": \"a\\\"b\\u00e9\"}}", "key"));
+        assertEquals("-1.5e3", StructuredData.findMember("{\"key\":-1.5e3}", "key"));
+        // A string value with the same text is not a name:
+        assertNull(StructuredData.findMember("{\"a\": \"key\", \"b\": 1}", "key"));
+        assertNull(StructuredData.findMember("{\"key\": [1]}", "key"));
+    }
+
+}
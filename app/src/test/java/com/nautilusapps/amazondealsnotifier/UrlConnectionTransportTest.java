@@ -0,0 +1,139 @@
+package com.nautilusapps.amazondealsnotifier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import static org.junit.Assert.*;
+
+public class UrlConnectionTransportTest {
+
+    private FixtureServer mServer;
+    private UrlConnectionTransport mTransport;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new FixtureServer();
+        mTransport = new UrlConnectionTransport();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void decompressAndCountBytes() throws IOException {
+
+        TransferStats stats = new TransferStats();
+        HttpTransport.Response response = mTransport.execute(
+                new HttpTransport.Request(mServer.url("product_page.html", 256)), stats);
+
+        byte[] body;
+        try {
+            assertEquals(200, response.getStatusCode());
+            assertEquals("UTF-8", response.getCharset());
+            body = readAll(response.getBody());
+        } finally {
+            response.close();
+        }
+
+        String expected = FixtureServer.expandFiller(
+                FixtureServer.readFixture("product_page.html"), 256);
+        assertEquals(expected, new String(body, "UTF-8"));
+        assertEquals(1, stats.getRequests());
+        assertEquals(body.length, stats.getBytesDecoded());
+        // The filler compresses well:
+        assertTrue(stats.getBytesReceived() < stats.getBytesDecoded() / 10);
+
+    }
+
+    @Test
+    public void inflateZlibAndRawDeflate() throws IOException {
+
+        byte[] page = FixtureServer.readFixture("product_page.html").getBytes("UTF-8");
+
+        for (boolean raw : new boolean[]{ false, true }) {
+            // Compress the page with or without the zlib header:
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, raw);
+            DeflaterOutputStream out = new DeflaterOutputStream(compressed, deflater);
+            out.write(page);
+            out.close();
+            deflater.end();
+
+            InputStream in = UrlConnectionTransport.decode(
+                    new ByteArrayInputStream(compressed.toByteArray()), "deflate");
+            try {
+                assertArrayEquals(page, readAll(in));
+            } finally {
+                in.close();
+            }
+        }
+
+    }
+
+    @Test
+    public void errorStatus() throws IOException {
+
+        HttpTransport.Response response = mTransport.execute(
+                new HttpTransport.Request(mServer.url("missing.html", 0)), null);
+
+        try {
+            assertEquals(404, response.getStatusCode());
+        } finally {
+            response.close();
+        }
+
+    }
+
+    @Test
+    public void closeUnreadResponse() throws IOException {
+
+        String url = mServer.url("product_page.html", 4096);
+        HttpTransport.Response response = mTransport.execute(new HttpTransport.Request(url), null);
+        try {
+            assertEquals(200, response.getStatusCode());
+            assertTrue(response.getBody().read(new byte[1024]) > 0);
+        } finally {
+            // Most of the body is left unread:
+            response.close();
+        }
+
+        // The next request gets a connection of its own:
+        response = mTransport.execute(new HttpTransport.Request(url), null);
+        try {
+            assertEquals(200, response.getStatusCode());
+            assertTrue(readAll(response.getBody()).length > 4096 * 1024);
+        } finally {
+            response.close();
+        }
+
+    }
+
+    @Test
+    public void parseCharset() {
+        assertEquals("UTF-8", UrlConnectionTransport.parseCharset("text/html;charset=UTF-8"));
+        assertEquals("ISO-8859-1",
+                UrlConnectionTransport.parseCharset("text/html; charset=\"ISO-8859-1\""));
+        assertNull(UrlConnectionTransport.parseCharset("text/html"));
+        assertNull(UrlConnectionTransport.parseCharset(null));
+    }
+
+}